@@ -0,0 +1,113 @@
+package nl.abnamro.assessment.recipe.component;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the reflective {@link ObjectMapperUtils} with the hand written {@link RecipeMapper}
+ * for {@code recipeCount} recipes with {@code children} ingredients and instructions each.
+ *
+ * @author Orhan Polat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipeMapperBenchmark {
+
+    @Param({"1", "10", "50"})
+    private int children;
+
+    @Param({"1", "20", "100"})
+    private int recipeCount;
+
+    private final ObjectMapperUtils objectMapperUtils = new ObjectMapperUtils();
+
+    private final RecipeMapper recipeMapper = new RecipeMapper();
+
+    private List<Recipe> recipes;
+
+    private RecipeDto recipeDto;
+
+    @Setup
+    public void setUp() {
+        recipes = new ArrayList<>();
+        for (long id = 1; id <= recipeCount; id++) {
+            recipes.add(recipe(id, children));
+        }
+        recipeDto = recipeMapper.toDto(recipes.get(0));
+    }
+
+    @Benchmark
+    public RecipeDto modelMapperToDto() {
+        return objectMapperUtils.map(recipes.get(0), RecipeDto.class);
+    }
+
+    @Benchmark
+    public RecipeDto recipeMapperToDto() {
+        return recipeMapper.toDto(recipes.get(0));
+    }
+
+    @Benchmark
+    public Recipe modelMapperToEntity() {
+        return objectMapperUtils.map(recipeDto, Recipe.class);
+    }
+
+    @Benchmark
+    public Recipe recipeMapperToEntity() {
+        return recipeMapper.toEntity(recipeDto);
+    }
+
+    @Benchmark
+    public List<RecipeDto> modelMapperPage() {
+        return objectMapperUtils.mapList(recipes, RecipeDto.class);
+    }
+
+    @Benchmark
+    public Set<RecipeDto> modelMapperMapAll() {
+        return objectMapperUtils.mapAll(recipes, RecipeDto.class);
+    }
+
+    @Benchmark
+    public List<RecipeDto> recipeMapperPage() {
+        return recipeMapper.toDtoList(recipes);
+    }
+
+    static Recipe recipe(long id, int children) {
+        Set<Ingredients> ingredients = new HashSet<>();
+        Set<Instructions> instructions = new HashSet<>();
+        for (long i = 0; i < children; i++) {
+            ingredients.add(Ingredients.builder().id(id * 1000 + i).ingredientName("Ingredient " + i).recipeId(id).build());
+            instructions.add(Instructions.builder().id(id * 1000 + i).description("Instruction " + i).recipeId(id).build());
+        }
+        return Recipe.builder()
+                .id(id)
+                .name("Recipe " + id)
+                .servingNumber((int) (id % 8) + 1)
+                .isVegetarian(id % 2 == 0)
+                .ingredients(ingredients)
+                .instructions(instructions)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package nl.abnamro.assessment.recipe.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import nl.abnamro.assessment.recipe.service.RecipeDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of recipe collections, with the object mapper configured the way Spring MVC builds it.
+ *
+ * @author Orhan Polat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipeSerializationBenchmark {
+
+    @Param({"1", "20", "100"})
+    private int recipeCount;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private ObjectWriter setWriter;
+
+    private Set<RecipeDto> recipeSet;
+
+    private List<RecipeDto> recipeList;
+
+    @Setup
+    public void setUp() {
+        recipeList = RecipeDataGenerator.generate(recipeCount, 42L);
+        long id = 1;
+        for (RecipeDto recipe : recipeList) {
+            recipe.setId(id++);
+        }
+        recipeSet = new HashSet<>(recipeList);
+        setWriter = objectMapper.writerFor(TypeFactory.defaultInstance().constructCollectionType(Set.class, RecipeDto.class));
+    }
+
+    @Benchmark
+    public byte[] serializeSet() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(recipeSet);
+    }
+
+    @Benchmark
+    public byte[] serializeSetWithTypedWriter() throws JsonProcessingException {
+        return setWriter.writeValueAsBytes(recipeSet);
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(recipeList);
+    }
+}
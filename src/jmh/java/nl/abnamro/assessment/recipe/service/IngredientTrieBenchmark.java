@@ -0,0 +1,75 @@
+package nl.abnamro.assessment.recipe.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completing ingredient names from an {@link IngredientTrie} of {@code nameCount} synthetic names, built from
+ * {@link RecipeDataGenerator#INGREDIENTS} with a variety word, with usage counts skewed towards a few names. The
+ * {@code afterChange} variants change a name below the prefix first, so the cached completions are searched again.
+ *
+ * @author Orhan Polat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngredientTrieBenchmark {
+
+    @Param({"10000", "100000"})
+    private int nameCount;
+
+    private IngredientTrie ingredientTrie;
+
+    private String changedName;
+
+    @Setup
+    public void setUp() {
+        ingredientTrie = new IngredientTrie();
+        Random random = new Random(42L);
+        for (int i = 0; i < nameCount; i++) {
+            String ingredient = RecipeDataGenerator.INGREDIENTS[random.nextInt(RecipeDataGenerator.INGREDIENTS.length)];
+            String name = (ingredient + " variety " + Integer.toString(i, 36)).toLowerCase();
+            ingredientTrie.add(name, 1 + (int) (1000 / (1 + random.nextInt(1000))));
+        }
+        changedName = RecipeDataGenerator.INGREDIENTS[0].toLowerCase() + " variety changed";
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> oneCharacter() {
+        return ingredientTrie.complete("s", 10);
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> oneCharacterAfterChange() {
+        ingredientTrie.add(changedName, 1);
+        return ingredientTrie.complete(changedName.substring(0, 1), 10);
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> wholeWord() {
+        return ingredientTrie.complete(changedName.substring(0, changedName.indexOf(' ') + 1), 10);
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> wholeWordAfterChange() {
+        ingredientTrie.add(changedName, 1);
+        return ingredientTrie.complete(changedName.substring(0, changedName.indexOf(' ') + 1), 10);
+    }
+}
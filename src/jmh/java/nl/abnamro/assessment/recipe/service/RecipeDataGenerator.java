@@ -0,0 +1,71 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic recipes for benchmarks. The same seed always gives the same recipes, so runs stay comparable.
+ * Ingredient names come from a fixed vocabulary with a skewed distribution, the way "salt" is far more
+ * common than "saffron" in real recipes.
+ *
+ * @author Orhan Polat
+ */
+public final class RecipeDataGenerator {
+
+    static final String[] INGREDIENTS = {
+            "salt", "pepper", "olive oil", "garlic", "onion", "butter", "sugar", "flour", "egg", "milk",
+            "tomato", "lemon", "parsley", "basil", "oregano", "thyme", "rosemary", "cumin", "paprika", "chili",
+            "rice", "pasta", "potato", "carrot", "celery", "spinach", "mushroom", "zucchini", "bell pepper", "broccoli",
+            "chicken", "beef", "pork", "salmon", "shrimp", "tofu", "chickpeas", "lentils", "beans", "cheese",
+            "cream", "yogurt", "honey", "vinegar", "soy sauce", "ginger", "coriander", "cinnamon", "nutmeg", "saffron"
+    };
+
+    private static final String[] VERBS = {"Chop", "Mix", "Fry", "Boil", "Bake", "Stir", "Season", "Simmer", "Roast", "Serve"};
+
+    private RecipeDataGenerator() {
+    }
+
+    public static List<RecipeDto> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<RecipeDto> recipes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Set<IngredientsDto> ingredients = new HashSet<>();
+            int ingredientCount = 3 + random.nextInt(10);
+            while (ingredients.size() < ingredientCount) {
+                ingredients.add(IngredientsDto.builder().ingredientName(skewedIngredient(random)).build());
+            }
+
+            Set<InstructionsDto> instructions = new HashSet<>();
+            int instructionCount = 2 + random.nextInt(7);
+            for (int step = 0; step < instructionCount; step++) {
+                instructions.add(InstructionsDto.builder()
+                        .description(VERBS[random.nextInt(VERBS.length)] + " the " + skewedIngredient(random) + " for " + (step + 1) + " minutes")
+                        .build());
+            }
+
+            recipes.add(RecipeDto.builder()
+                    .name("Recipe " + i)
+                    .servingNumber(1 + random.nextInt(8))
+                    .isVegetarian(random.nextInt(3) == 0)
+                    .ingredients(ingredients)
+                    .instructions(instructions)
+                    .build());
+        }
+        return recipes;
+    }
+
+    /**
+     * Squaring a uniform number favours the start of the vocabulary.
+     */
+    private static String skewedIngredient(Random random) {
+        double uniform = random.nextDouble();
+        return INGREDIENTS[(int) (uniform * uniform * INGREDIENTS.length)];
+    }
+}
@@ -0,0 +1,75 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.component.RecipeMapper;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Pantry searches on a {@link RecipeSearchIndex} holding {@code recipeCount} recipes from {@link RecipeDataGenerator},
+ * with a pantry of the most common ingredients and one of rare ingredients.
+ *
+ * @author Orhan Polat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipeSearchIndexBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int recipeCount;
+
+    @Param({"0", "2"})
+    private int maxMissing;
+
+    private final List<String> commonPantry = Arrays.asList(RecipeDataGenerator.INGREDIENTS).subList(0, 15);
+
+    private final List<String> rarePantry = Arrays.asList(RecipeDataGenerator.INGREDIENTS).subList(35, 50);
+
+    private RecipeSearchIndex recipeSearchIndex;
+
+    @Setup
+    public void setUp() {
+        recipeSearchIndex = new RecipeSearchIndex(mock(RecipeRepository.class), mock(TransactionTemplate.class), true);
+        RecipeMapper recipeMapper = new RecipeMapper();
+        long id = 1;
+        for (RecipeDto recipeDto : RecipeDataGenerator.generate(recipeCount, 42L)) {
+            Recipe recipe = recipeMapper.toEntity(recipeDto);
+            recipe.setId(id);
+            recipeSearchIndex.onRecipeChanged(new RecipeChangedEvent(id++, ChangeType.CREATED, recipe));
+        }
+        recipeSearchIndex.build();
+    }
+
+    @Benchmark
+    public List<RecipeSearchIndex.PantryMatch> commonPantry() {
+        return recipeSearchIndex.coveredBy(commonPantry, maxMissing, List.of(), 20);
+    }
+
+    @Benchmark
+    public List<RecipeSearchIndex.PantryMatch> rarePantry() {
+        return recipeSearchIndex.coveredBy(rarePantry, maxMissing, List.of(), 20);
+    }
+}
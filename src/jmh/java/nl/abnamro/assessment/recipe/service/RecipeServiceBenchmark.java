@@ -0,0 +1,107 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.RecipeApplication;
+import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@link IRecipeService} calls against an in-memory H2 database seeded by {@link RecipeDataGenerator}.
+ * The caches are off in the benchmark profile, so every call reaches the database.
+ *
+ * @author Orhan Polat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipeServiceBenchmark {
+
+    private static final RecipeSort NAME_DESCENDING = RecipeSort.parse("name,desc");
+
+    @Param({"1000", "10000"})
+    private int recipeCount;
+
+    private ConfigurableApplicationContext context;
+
+    private IRecipeService recipeService;
+
+    private long firstId;
+
+    private long lastId;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(RecipeApplication.class)
+                .profiles("benchmark")
+                .web(WebApplicationType.NONE)
+                .run();
+        recipeService = context.getBean(IRecipeService.class);
+
+        List<RecipeBatchResultDto> results = recipeService.saveRecipes(RecipeDataGenerator.generate(recipeCount, 42L));
+        firstId = results.get(0).getId();
+        lastId = results.get(results.size() - 1).getId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public RecipeDto findRecipe() {
+        return recipeService.findRecipe(ThreadLocalRandom.current().nextLong(firstId, lastId + 1));
+    }
+
+    @Benchmark
+    public RecipePageDto findAllFirstPage() {
+        return recipeService.findAll(RecipeSort.BY_ID, null, 20);
+    }
+
+    @Benchmark
+    public RecipePageDto findAllLastPage() {
+        return recipeService.findAll(RecipeSort.BY_ID, String.valueOf(lastId - 20), 20);
+    }
+
+    @Benchmark
+    public RecipePageDto findAllByNameDescending() {
+        return recipeService.findAll(NAME_DESCENDING, null, 20);
+    }
+
+    @Benchmark
+    public RecipePageDto searchVegetarianServings() {
+        return recipeService.searchRecipes(List.of(
+                new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true),
+                new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 4)), RecipeSort.BY_ID, null, 20);
+    }
+
+    @Benchmark
+    public RecipePageDto searchIngredients() {
+        return recipeService.searchRecipes(List.of(
+                new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "saffron"),
+                new SearchCriteria("ingredientName", SearchOperation.NOT_CONTAINS, "salt"),
+                new SearchCriteria("description", SearchOperation.CONTAINS, "bake")), RecipeSort.BY_ID, null, 20);
+    }
+}
@@ -0,0 +1,91 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.RecipeApplication;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the criteria predicate of a search, without running it.
+ *
+ * @author Orhan Polat
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipeSpecificationBenchmark {
+
+    private static final List<SearchCriteria> SIMPLE_CRITERIA = List.of(
+            new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true),
+            new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 4));
+
+    private static final List<SearchCriteria> ALL_CRITERIA = List.of(
+            new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true),
+            new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 4),
+            new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "tomato"),
+            new SearchCriteria("ingredientName", SearchOperation.NOT_CONTAINS, "salt"),
+            new SearchCriteria("description", SearchOperation.CONTAINS, "bake"));
+
+    private ConfigurableApplicationContext context;
+
+    private EntityManager entityManager;
+
+    private CriteriaBuilder criteriaBuilder;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(RecipeApplication.class)
+                .profiles("benchmark")
+                .web(WebApplicationType.NONE)
+                .run();
+        entityManager = context.getBean(EntityManagerFactory.class).createEntityManager();
+        criteriaBuilder = entityManager.getCriteriaBuilder();
+    }
+
+    @TearDown
+    public void tearDown() {
+        entityManager.close();
+        context.close();
+    }
+
+    @Benchmark
+    public Predicate simpleCriteria() {
+        return toPredicate(SIMPLE_CRITERIA);
+    }
+
+    @Benchmark
+    public Predicate allCriteria() {
+        return toPredicate(ALL_CRITERIA);
+    }
+
+    private Predicate toPredicate(List<SearchCriteria> criteria) {
+        CriteriaQuery<Recipe> query = criteriaBuilder.createQuery(Recipe.class);
+        Root<Recipe> root = query.from(Recipe.class);
+        return new RecipeSpecification(criteria).toPredicate(root, query, criteriaBuilder);
+    }
+}
@@ -5,6 +5,7 @@ import org.modelmapper.convention.MatchingStrategies;
 import org.springframework.stereotype.Component;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -34,4 +35,13 @@ public class ObjectMapperUtils {
                 )
                 .collect(Collectors.toSet());
     }
+
+    public <D,T> List<D> mapList(final Collection<T> entityList, Class<D> outClass) {
+
+        return entityList.stream()
+                .map(
+                        entity -> map(entity,outClass)
+                )
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,149 @@
+package nl.abnamro.assessment.recipe.component;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Field by field mapping between the recipe entities and their dtos. It does the same conversions as
+ * {@link ObjectMapperUtils} with the STRICT strategy, without reflection and with presized collections.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class RecipeMapper {
+
+    public RecipeDto toDto(Recipe recipe) {
+        if (recipe == null) {
+            return null;
+        }
+        return RecipeDto.builder()
+                .id(recipe.getId())
+                .name(recipe.getName())
+                .servingNumber(recipe.getServingNumber())
+                .isVegetarian(recipe.getIsVegetarian())
+                .version(recipe.getVersion())
+                .ingredients(toIngredientsDtos(recipe.getIngredients()))
+                .instructions(toInstructionsDtos(recipe.getInstructions()))
+                .build();
+    }
+
+    public List<RecipeDto> toDtoList(Collection<Recipe> recipes) {
+        List<RecipeDto> dtos = new ArrayList<>(recipes.size());
+        for (Recipe recipe : recipes) {
+            dtos.add(toDto(recipe));
+        }
+        return dtos;
+    }
+
+    public Recipe toEntity(RecipeDto recipeDto) {
+        if (recipeDto == null) {
+            return null;
+        }
+        return Recipe.builder()
+                .id(recipeDto.getId())
+                .name(recipeDto.getName())
+                .servingNumber(recipeDto.getServingNumber())
+                .isVegetarian(recipeDto.getIsVegetarian())
+                .version(recipeDto.getVersion())
+                .ingredients(toIngredients(recipeDto.getIngredients()))
+                .instructions(toInstructions(recipeDto.getInstructions()))
+                .build();
+    }
+
+    public IngredientsDto toDto(Ingredients ingredient) {
+        return IngredientsDto.builder()
+                .id(ingredient.getId())
+                .ingredientName(ingredient.getIngredientName())
+                .recipeId(ingredient.getRecipeId())
+                .build();
+    }
+
+    public Ingredients toEntity(IngredientsDto ingredientDto) {
+        return Ingredients.builder()
+                .id(ingredientDto.getId())
+                .ingredientName(ingredientDto.getIngredientName())
+                .recipeId(ingredientDto.getRecipeId())
+                .build();
+    }
+
+    public InstructionsDto toDto(Instructions instruction) {
+        return InstructionsDto.builder()
+                .id(instruction.getId())
+                .description(instruction.getDescription())
+                .recipeId(instruction.getRecipeId())
+                .build();
+    }
+
+    public Instructions toEntity(InstructionsDto instructionDto) {
+        return Instructions.builder()
+                .id(instructionDto.getId())
+                .description(instructionDto.getDescription())
+                .recipeId(instructionDto.getRecipeId())
+                .build();
+    }
+
+    /**
+     * Entity collections are never {@code null}, the persistence context and orphan removal need a mutable set.
+     */
+    public Set<Ingredients> toIngredients(Collection<IngredientsDto> ingredientDtos) {
+        if (ingredientDtos == null) {
+            return new HashSet<>();
+        }
+        Set<Ingredients> ingredients = new HashSet<>(capacity(ingredientDtos.size()));
+        for (IngredientsDto ingredientDto : ingredientDtos) {
+            ingredients.add(toEntity(ingredientDto));
+        }
+        return ingredients;
+    }
+
+    public Set<Instructions> toInstructions(Collection<InstructionsDto> instructionDtos) {
+        if (instructionDtos == null) {
+            return new HashSet<>();
+        }
+        Set<Instructions> instructions = new HashSet<>(capacity(instructionDtos.size()));
+        for (InstructionsDto instructionDto : instructionDtos) {
+            instructions.add(toEntity(instructionDto));
+        }
+        return instructions;
+    }
+
+    private Set<IngredientsDto> toIngredientsDtos(Collection<Ingredients> ingredients) {
+        if (ingredients == null) {
+            return null;
+        }
+        Set<IngredientsDto> dtos = new HashSet<>(capacity(ingredients.size()));
+        for (Ingredients ingredient : ingredients) {
+            dtos.add(toDto(ingredient));
+        }
+        return dtos;
+    }
+
+    private Set<InstructionsDto> toInstructionsDtos(Collection<Instructions> instructions) {
+        if (instructions == null) {
+            return null;
+        }
+        Set<InstructionsDto> dtos = new HashSet<>(capacity(instructions.size()));
+        for (Instructions instruction : instructions) {
+            dtos.add(toDto(instruction));
+        }
+        return dtos;
+    }
+
+    /**
+     * Initial capacity of a hash set holding {@code size} elements without rehashing.
+     */
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+}
@@ -0,0 +1,259 @@
+package nl.abnamro.assessment.recipe.component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import nl.abnamro.assessment.recipe.controller.InvalidPatchException;
+import nl.abnamro.assessment.recipe.controller.PreconditionFailedException;
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Applies a {@link RecipeDto} to a managed {@link Recipe} by changing only what differs. Children are matched
+ * to the persisted ones by id first and by their text (natural key) next; matched children are updated in
+ * place, the rest of the dto children are inserted and the rest of the persisted children are removed.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class RecipeMerger {
+
+    public RowChanges merge(Recipe recipe, RecipeDto recipeDto) {
+        RowChanges changes = new RowChanges();
+
+        if (!Objects.equals(recipe.getName(), recipeDto.getName())
+                || !Objects.equals(recipe.getServingNumber(), recipeDto.getServingNumber())
+                || !Objects.equals(recipe.getIsVegetarian(), recipeDto.getIsVegetarian())) {
+            recipe.setName(recipeDto.getName());
+            recipe.setServingNumber(recipeDto.getServingNumber());
+            recipe.setIsVegetarian(recipeDto.getIsVegetarian());
+            changes.updated++;
+        }
+
+        mergeIngredients(recipe, recipeDto.getIngredients(), changes);
+        mergeInstructions(recipe, recipeDto.getInstructions(), changes);
+
+        return changes;
+    }
+
+    /**
+     * Applies an RFC 7396 merge patch. Members that are left out keep their value, {@code null} clears them and
+     * the child arrays replace the current children, merged like {@link #merge(Recipe, RecipeDto)} does. The
+     * {@code id} and {@code version} members are checked against the recipe instead of applied.
+     */
+    public RowChanges mergePatch(Recipe recipe, JsonNode patch) {
+        if (patch == null || !patch.isObject()) {
+            throw new InvalidPatchException("Merge patch must be a JSON object");
+        }
+        RowChanges changes = new RowChanges();
+        boolean recipeChanged = false;
+
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            switch (field.getKey()) {
+                case "id":
+                    if (!value.isNull() && !(value.canConvertToLong() && recipe.getId().equals(value.longValue()))) {
+                        throw new InvalidPatchException("Recipe id can not be changed");
+                    }
+                    break;
+                case "version":
+                    // a body taken from a GET carries the version it was read at, like an If-Match header
+                    if (!value.isNull() && !value.canConvertToLong()) {
+                        throw new InvalidPatchException("version must be a number");
+                    }
+                    if (!value.isNull() && !Objects.equals(recipe.getVersion(), value.longValue())) {
+                        throw new PreconditionFailedException();
+                    }
+                    break;
+                case "name":
+                    String name = text(field.getKey(), value);
+                    recipeChanged |= !Objects.equals(recipe.getName(), name);
+                    recipe.setName(name);
+                    break;
+                case "servingNumber":
+                    if (!value.isNull() && !value.canConvertToInt()) {
+                        throw new InvalidPatchException("servingNumber must be a number");
+                    }
+                    Integer servingNumber = value.isNull() ? null : value.intValue();
+                    recipeChanged |= !Objects.equals(recipe.getServingNumber(), servingNumber);
+                    recipe.setServingNumber(servingNumber);
+                    break;
+                case "isVegetarian":
+                    if (!value.isNull() && !value.isBoolean()) {
+                        throw new InvalidPatchException("isVegetarian must be a boolean");
+                    }
+                    Boolean isVegetarian = value.isNull() ? null : value.booleanValue();
+                    recipeChanged |= !Objects.equals(recipe.getIsVegetarian(), isVegetarian);
+                    recipe.setIsVegetarian(isVegetarian);
+                    break;
+                case "ingredients":
+                    List<IngredientsDto> ingredients = new ArrayList<>();
+                    for (JsonNode child : children(field.getKey(), value)) {
+                        ingredients.add(IngredientsDto.builder()
+                                .id(childId(child))
+                                .ingredientName(text("ingredientName", child.path("ingredientName")))
+                                .build());
+                    }
+                    mergeIngredients(recipe, ingredients, changes);
+                    break;
+                case "instructions":
+                    List<InstructionsDto> instructions = new ArrayList<>();
+                    for (JsonNode child : children(field.getKey(), value)) {
+                        instructions.add(InstructionsDto.builder()
+                                .id(childId(child))
+                                .description(text("description", child.path("description")))
+                                .build());
+                    }
+                    mergeInstructions(recipe, instructions, changes);
+                    break;
+                default:
+                    throw new InvalidPatchException("Unknown field " + field.getKey());
+            }
+        }
+        if (recipeChanged) {
+            changes.updated++;
+        }
+
+        return changes;
+    }
+
+    public void mergeIngredients(Recipe recipe, Collection<IngredientsDto> ingredientDtos, RowChanges changes) {
+        mergeChildren(recipe.getIngredients(), ingredientDtos, changes,
+                Ingredients::getId, Ingredients::getIngredientName, Ingredients::setIngredientName,
+                IngredientsDto::getId, IngredientsDto::getIngredientName,
+                dto -> Ingredients.builder().ingredientName(dto.getIngredientName()).recipeId(recipe.getId()).build());
+    }
+
+    public void mergeInstructions(Recipe recipe, Collection<InstructionsDto> instructionDtos, RowChanges changes) {
+        mergeChildren(recipe.getInstructions(), instructionDtos, changes,
+                Instructions::getId, Instructions::getDescription, Instructions::setDescription,
+                InstructionsDto::getId, InstructionsDto::getDescription,
+                dto -> Instructions.builder().description(dto.getDescription()).recipeId(recipe.getId()).build());
+    }
+
+    private static String text(String field, JsonNode value) {
+        if (value.isNull() || value.isMissingNode()) {
+            return null;
+        }
+        if (!value.isTextual()) {
+            throw new InvalidPatchException(field + " must be a string");
+        }
+        return value.textValue();
+    }
+
+    private static Iterable<JsonNode> children(String field, JsonNode value) {
+        if (value.isNull()) {
+            return List.of();
+        }
+        if (!value.isArray()) {
+            throw new InvalidPatchException(field + " must be an array");
+        }
+        for (JsonNode child : value) {
+            if (!child.isObject()) {
+                throw new InvalidPatchException(field + " must contain objects");
+            }
+        }
+        return value;
+    }
+
+    private static Long childId(JsonNode child) {
+        JsonNode id = child.path("id");
+        if (id.isNull() || id.isMissingNode()) {
+            return null;
+        }
+        if (!id.canConvertToLong()) {
+            throw new InvalidPatchException("id must be a number");
+        }
+        return id.longValue();
+    }
+
+    private static <E, D> void mergeChildren(Set<E> children, Collection<D> dtos, RowChanges changes,
+                                             Function<E, Long> entityId, Function<E, String> entityKey,
+                                             BiConsumer<E, String> setEntityKey,
+                                             Function<D, Long> dtoId, Function<D, String> dtoKey,
+                                             Function<D, E> newEntity) {
+        Map<Long, E> unmatchedById = new HashMap<>();
+        for (E child : children) {
+            if (entityId.apply(child) != null) {
+                unmatchedById.put(entityId.apply(child), child);
+            }
+        }
+        Set<E> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collection<D> incoming = dtos == null ? List.of() : dtos;
+
+        List<D> pending = new ArrayList<>();
+        for (D dto : incoming) {
+            E child = dtoId.apply(dto) == null ? null : unmatchedById.remove(dtoId.apply(dto));
+            if (child == null) {
+                pending.add(dto);
+                continue;
+            }
+            matched.add(child);
+            if (!Objects.equals(entityKey.apply(child), dtoKey.apply(dto))) {
+                setEntityKey.accept(child, dtoKey.apply(dto));
+                changes.updated++;
+            }
+        }
+
+        Map<String, Deque<E>> unmatchedByKey = new HashMap<>();
+        for (E child : children) {
+            if (!matched.contains(child)) {
+                unmatchedByKey.computeIfAbsent(entityKey.apply(child), key -> new ArrayDeque<>()).add(child);
+            }
+        }
+        for (D dto : pending) {
+            Deque<E> sameKey = unmatchedByKey.get(dtoKey.apply(dto));
+            if (sameKey != null && !sameKey.isEmpty()) {
+                matched.add(sameKey.poll());
+            } else {
+                children.add(newEntity.apply(dto));
+                changes.inserted++;
+            }
+        }
+
+        for (Deque<E> removed : unmatchedByKey.values()) {
+            for (E child : removed) {
+                children.remove(child);
+                changes.deleted++;
+            }
+        }
+    }
+
+    /**
+     * Rows a merge will insert, update and delete when the persistence context is flushed.
+     */
+    @Getter
+    public static class RowChanges {
+
+        private int inserted;
+
+        private int updated;
+
+        private int deleted;
+
+        public int getTotal() {
+            return inserted + updated + deleted;
+        }
+    }
+}
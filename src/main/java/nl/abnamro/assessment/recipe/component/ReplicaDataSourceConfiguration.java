@@ -0,0 +1,77 @@
+package nl.abnamro.assessment.recipe.component;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the single data source of {@code spring.datasource} with a {@link ReplicaRoutingDataSource} when
+ * {@code recipe.datasource.replica-urls} lists one or more read replicas. Every replica gets its own pool with the
+ * credentials of the primary, unless {@code recipe.datasource.replica-username} and
+ * {@code recipe.datasource.replica-password} are given, and the {@code spring.datasource.hikari} settings.
+ *
+ * @author Orhan Polat
+ */
+@Configuration
+@ConditionalOnProperty("recipe.datasource.replica-urls")
+public class ReplicaDataSourceConfiguration {
+
+    private final List<HikariDataSource> pools = new ArrayList<>();
+
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties, Environment environment,
+                                 @Value("${recipe.datasource.replica-urls}") List<String> replicaUrls,
+                                 @Value("${recipe.datasource.replica-username:${spring.datasource.username:}}") String replicaUsername,
+                                 @Value("${recipe.datasource.replica-password:${spring.datasource.password:}}") String replicaPassword,
+                                 @Value("${recipe.datasource.validation-timeout-seconds:2}") int validationTimeoutSeconds) {
+        HikariDataSource primary = pool(environment, properties.initializeDataSourceBuilder(), "recipe-primary");
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : replicaUrls) {
+            replicas.put(url, pool(environment, properties.initializeDataSourceBuilder()
+                    .url(url)
+                    .username(replicaUsername)
+                    .password(replicaPassword), "recipe-replica-" + (replicas.size() + 1)));
+        }
+        routingDataSource = new ReplicaRoutingDataSource(primary, replicas, validationTimeoutSeconds);
+        // the connection is taken at the first statement, once the transaction is known to be read-only or not
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.datasource.health-check-ms:5000}", initialDelayString = "${recipe.datasource.health-check-ms:5000}")
+    public void checkReplicas() {
+        if (routingDataSource != null) {
+            routingDataSource.checkReplicas();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        pools.forEach(HikariDataSource::close);
+    }
+
+    private HikariDataSource pool(Environment environment, DataSourceBuilder<?> builder, String name) {
+        HikariDataSource pool = builder.type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        pool.setPoolName(name);
+        pools.add(pool);
+        return pool;
+    }
+}
@@ -0,0 +1,169 @@
+package nl.abnamro.assessment.recipe.component;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out connections of a replica, round-robin, to read-only transactions and connections of the primary to
+ * everything else. The transaction must be known to be read-only when the connection is taken, so this data source
+ * is used behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}.
+ * <p>
+ * A replica failing to hand out a connection is skipped until {@link #checkReplicas()} finds it valid again, the
+ * read falls back to the next replica and finally to the primary. A thread that is {@linkplain #pinToPrimary()
+ * pinned} reads from the primary, so a client sees its own writes while the replicas catch up.
+ *
+ * @author Orhan Polat
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private static final Logger LOG = LogManager.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final int validationTimeoutSeconds;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param replicas replica data sources by a name used in the logs, e.g. their url
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, int validationTimeoutSeconds) {
+        this.primary = primary;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    /**
+     * Makes the reads of the current thread go to the primary until {@link #unpin()}.
+     */
+    public static void pinToPrimary() {
+        PINNED.set(Boolean.TRUE);
+    }
+
+    public static void unpin() {
+        PINNED.remove();
+    }
+
+    public static boolean isPinnedToPrimary() {
+        return PINNED.get() != null;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection(dataSource -> dataSource.getConnection(username, password));
+    }
+
+    /**
+     * Unwraps to the primary, so its pool is the one reporting metrics.
+     */
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    /**
+     * Validates a connection of every replica, a replica that is skipped is used again once it passes.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (connection.isValid(validationTimeoutSeconds)) {
+                    replica.up();
+                } else {
+                    replica.down(null);
+                }
+            } catch (SQLException e) {
+                replica.down(e);
+            }
+        }
+    }
+
+    /**
+     * Whether every replica by name is used for reads.
+     */
+    public Map<String, Boolean> replicaHealth() {
+        Map<String, Boolean> health = new LinkedHashMap<>();
+        replicas.forEach(replica -> health.put(replica.name, replica.healthy));
+        return health;
+    }
+
+    private Connection getConnection(ConnectionFactory factory) throws SQLException {
+        if (readsFromReplica()) {
+            for (int attempt = 0; attempt < replicas.size(); attempt++) {
+                Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+                if (replica.healthy) {
+                    try {
+                        return factory.connect(replica.dataSource);
+                    } catch (SQLException e) {
+                        replica.down(e);
+                    }
+                }
+            }
+        }
+        return factory.connect(primary);
+    }
+
+    private boolean readsFromReplica() {
+        return !replicas.isEmpty() && !isPinnedToPrimary()
+                && TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    @FunctionalInterface
+    private interface ConnectionFactory {
+        Connection connect(DataSource dataSource) throws SQLException;
+    }
+
+    private static final class Replica {
+
+        private final String name;
+
+        private final DataSource dataSource;
+
+        private volatile boolean healthy = true;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        private void up() {
+            if (!healthy) {
+                healthy = true;
+                LOG.info("Replica {} is back, reads go to it again", name);
+            }
+        }
+
+        private void down(SQLException cause) {
+            if (healthy) {
+                healthy = false;
+                LOG.warn("Replica {} is not available, reads skip it until it is valid again", name, cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package nl.abnamro.assessment.recipe.component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Statements, rows and database time of the request handled by the current thread. Filled by
+ * {@link SqlStatisticsDataSource} between {@link #start()} and {@link #stop()}, statements run outside
+ * of that window are not counted.
+ *
+ * @author Orhan Polat
+ */
+public class SqlStatistics {
+
+    private static final ThreadLocal<SqlStatistics> CURRENT = new ThreadLocal<>();
+
+    private int statements;
+
+    private long rows;
+
+    private long nanos;
+
+    private final Map<String, Integer> executionsByShape = new LinkedHashMap<>();
+
+    public static SqlStatistics start() {
+        SqlStatistics statistics = new SqlStatistics();
+        CURRENT.set(statistics);
+        return statistics;
+    }
+
+    public static SqlStatistics current() {
+        return CURRENT.get();
+    }
+
+    public static SqlStatistics stop() {
+        SqlStatistics statistics = CURRENT.get();
+        CURRENT.remove();
+        return statistics;
+    }
+
+    void statementExecuted(String sql, long elapsedNanos) {
+        statements++;
+        nanos += elapsedNanos;
+        executionsByShape.merge(shape(sql), 1, Integer::sum);
+    }
+
+    void rowsRead(long count) {
+        rows += count;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Statement shapes executed at least {@code threshold} times, the signature of lazy loading one
+     * parent at a time (N+1).
+     */
+    public Map<String, Integer> repeatedStatements(int threshold) {
+        return executionsByShape.entrySet().stream()
+                .filter(entry -> entry.getValue() >= threshold)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * Collapses whitespace and literals so statements that only differ in their values share a shape.
+     */
+    static String shape(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        return sql.replaceAll("'(?:[^']|'')*'", "?")
+                .replaceAll("\\b\\d+\\b", "?")
+                .replaceAll("\\s+", " ")
+                .replaceAll(" ?([=<>(),]) ?", "$1")
+                .trim();
+    }
+}
@@ -0,0 +1,23 @@
+package nl.abnamro.assessment.recipe.component;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps every {@link DataSource} in a {@link SqlStatisticsDataSource}.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class SqlStatisticsDataSourcePostProcessor implements BeanPostProcessor {
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof SqlStatisticsDataSource)) {
+            return new SqlStatisticsDataSource((DataSource) bean);
+        }
+        return bean;
+    }
+}
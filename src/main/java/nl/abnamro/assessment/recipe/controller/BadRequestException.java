@@ -0,0 +1,11 @@
+package nl.abnamro.assessment.recipe.controller;
+
+/**
+ * @author Orhan Polat
+ */
+public class BadRequestException extends RuntimeException{
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
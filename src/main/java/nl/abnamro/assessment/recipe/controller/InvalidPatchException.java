@@ -0,0 +1,11 @@
+package nl.abnamro.assessment.recipe.controller;
+
+/**
+ * @author Orhan Polat
+ */
+public class InvalidPatchException extends RuntimeException{
+
+    public InvalidPatchException(String message) {
+        super(message);
+    }
+}
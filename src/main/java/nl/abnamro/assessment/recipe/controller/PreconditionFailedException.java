@@ -0,0 +1,7 @@
+package nl.abnamro.assessment.recipe.controller;
+
+/**
+ * @author Orhan Polat
+ */
+public class PreconditionFailedException extends RuntimeException{
+}
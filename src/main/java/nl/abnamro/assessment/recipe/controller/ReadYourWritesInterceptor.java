@@ -0,0 +1,94 @@
+package nl.abnamro.assessment.recipe.controller;
+
+import nl.abnamro.assessment.recipe.component.ReplicaRoutingDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+
+/**
+ * Pins the client of a write to the primary database for {@code recipe.datasource.pin-ms}, so its next reads see
+ * the write even when the replicas have not replayed it yet. A write request sets the {@value #COOKIE} cookie
+ * holding until when the client is pinned, a read request carrying it reads from the primary. Without replicas
+ * configured it does nothing.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class ReadYourWritesInterceptor implements AsyncHandlerInterceptor {
+
+    static final String COOKIE = "recipe-primary-until";
+
+    private final boolean enabled;
+
+    private final long pinMillis;
+
+    public ReadYourWritesInterceptor(@Value("${recipe.datasource.replica-urls:}") String replicaUrls,
+                                     @Value("${recipe.datasource.pin-ms:5000}") long pinMillis) {
+        this.enabled = !replicaUrls.isBlank();
+        this.pinMillis = pinMillis;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (isWrite(request)) {
+            // set before the handler runs, the response is committed once the body is written
+            ResponseCookie cookie = ResponseCookie.from(COOKIE, Long.toString(now + pinMillis))
+                    .path(request.getContextPath() + "/")
+                    .maxAge(Duration.ofMillis(pinMillis).plusSeconds(1).getSeconds())
+                    .httpOnly(true)
+                    .sameSite("Lax")
+                    .build();
+            response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+            ReplicaRoutingDataSource.pinToPrimary();
+        } else if (pinnedUntil(request) > now) {
+            ReplicaRoutingDataSource.pinToPrimary();
+        }
+        return true;
+    }
+
+    /**
+     * Streaming responses are written on another thread, which reads from a replica.
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ReplicaRoutingDataSource.unpin();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ReplicaRoutingDataSource.unpin();
+    }
+
+    private static boolean isWrite(HttpServletRequest request) {
+        HttpMethod method = HttpMethod.resolve(request.getMethod());
+        return method != HttpMethod.GET && method != HttpMethod.HEAD && method != HttpMethod.OPTIONS;
+    }
+
+    /**
+     * The cookie also expires in the browser, the value covers clients that keep sending it.
+     */
+    private static long pinnedUntil(HttpServletRequest request) {
+        Cookie cookie = WebUtils.getCookie(request, COOKIE);
+        if (cookie == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(cookie.getValue());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package nl.abnamro.assessment.recipe.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -9,19 +14,38 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import lombok.RequiredArgsConstructor;
 import nl.abnamro.assessment.recipe.domain.Recipe;
 import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.model.IngredientSuggestionDto;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeChangesDto;
 import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipeEventDto;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import nl.abnamro.assessment.recipe.model.RecipePantryMatchDto;
+import nl.abnamro.assessment.recipe.model.RecipeSimilarityDto;
+import nl.abnamro.assessment.recipe.model.RecipeTextMatchDto;
 import nl.abnamro.assessment.recipe.service.IRecipeService;
+import nl.abnamro.assessment.recipe.service.RecipeEventRelay;
+import nl.abnamro.assessment.recipe.service.RecipeSort;
 import nl.abnamro.assessment.recipe.service.SearchCriteria;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author Orhan Polat
@@ -33,16 +57,87 @@ public class RecipeController {
 
     private static final Logger LOG = LogManager.getLogger(RecipeController.class);
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final String SORT_DESCRIPTION = "Order of the recipes: id, name or servingNumber, optionally followed by ,desc; recipes are ranked by relevance by the text search";
+
+    static final String NDJSON_VALUE = "application/x-ndjson";
+
+    static final String MERGE_PATCH_VALUE = "application/merge-patch+json";
+
+    static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private static final Pattern STRONG_ETAG = Pattern.compile("\"(\\d+)\"");
+
     private final IRecipeService recipeService;
 
-    @Operation(summary = "Get all existing recipes")
-    @ApiResponse(responseCode = "200", description = "Found the recipes",
+    private final RecipeEventRelay recipeEventRelay;
+
+    private final ObjectMapper objectMapper;
+
+    @Operation(summary = "Get existing recipes page by page, ordered by id unless sorted otherwise")
+    @ApiResponse(responseCode = "200", description = "Found the recipes, the " + NEXT_CURSOR_HEADER + " header holds the cursor of the next page",
             content = { @Content(mediaType = "application/json",
             schema = @Schema(implementation = Recipe.class))})
     @GetMapping
-    public ResponseEntity<Set<RecipeDto>> findAll() {
+    public ResponseEntity<List<RecipeDto>> findAll(@Parameter(description = "Maximum number of recipes to return") @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                                   @Parameter(description = SORT_DESCRIPTION) @RequestParam(value = "sort", required = false) String sort,
+                                                   @Parameter(description = "Cursor returned by the previous page") @RequestParam(value = "after", required = false) String after,
+                                                   WebRequest webRequest) {
         LOG.info("Get All Recipe Information..");
-        return new ResponseEntity<>(recipeService.findAll(), HttpStatus.OK);
+        return toPageResponse(recipeService.findAll(RecipeSort.parse(sort), after, limit), webRequest);
+    }
+
+    @Operation(summary = "Get the recipes created, updated and deleted since the token of the previous call")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Changed recipes, ids of deleted recipes and the token for the next call",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipeChangesDto.class))}),
+            @ApiResponse(responseCode = "204", description = "Nothing changed since the token", content = @Content),
+            @ApiResponse(responseCode = "400", description = "Token is not valid", content = @Content)
+    })
+    @GetMapping("/changes")
+    public ResponseEntity<RecipeChangesDto> findChanges(@Parameter(description = "Token returned by the previous call, left out for the first call") @RequestParam(value = "since", required = false) String since,
+                                                        @Parameter(description = "Maximum number of changes to return") @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        LOG.info("Get Recipe Changes");
+        RecipeChangesDto changes = recipeService.findChanges(since, limit);
+        if (changes.getRecipes().isEmpty() && changes.getDeleted().isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<>(changes, HttpStatus.OK);
+    }
+
+    @Operation(summary = "Stream the changes of recipes as server-sent events, resuming after the Last-Event-ID header")
+    @ApiResponse(responseCode = "200", description = "A \"" + RecipeEventRelay.RECIPE_EVENT + "\" event per change, or a \""
+            + RecipeEventRelay.RESET_EVENT + "\" event when the changes after the Last-Event-ID are no longer kept",
+            content = { @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = RecipeEventDto.class))})
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@Parameter(description = "Id of the last event received before reconnecting") @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) Long lastEventId) {
+        LOG.info("Stream Recipe Events");
+        return recipeEventRelay.subscribe(lastEventId);
+    }
+
+    @Operation(summary = "Export all recipes ordered by id, one JSON document per line")
+    @ApiResponse(responseCode = "200", description = "Recipes are streamed while they are read from the database",
+            content = { @Content(mediaType = NDJSON_VALUE, schema = @Schema(implementation = RecipeDto.class))})
+    @GetMapping(value = "/export", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportRecipes() {
+        LOG.info("Export All Recipes");
+        StreamingResponseBody body = outputStream -> {
+            ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                recipeService.exportRecipes(recipeDto -> {
+                    try {
+                        writer.writeValue(generator, recipeDto);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
     }
 
     @Operation(summary = "Save recipe with given Request Body")
@@ -55,54 +150,183 @@ public class RecipeController {
         return new ResponseEntity<>(recipeService.saveRecipe(recipeDto), HttpStatus.CREATED);
     }
 
+    @Operation(summary = "Save many recipes with one request")
+    @ApiResponse(responseCode = "200", description = "Result of every recipe in request order, failed recipes carry the error",
+            content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipeBatchResultDto.class))})
+    @PostMapping("/batch")
+    public ResponseEntity<List<RecipeBatchResultDto>> saveRecipes(@Parameter(description = "Recipes to be saved") @RequestBody List<RecipeDto> recipeDtos) {
+        LOG.info("Save " + recipeDtos.size() + " New Recipes");
+        return new ResponseEntity<>(recipeService.saveRecipes(recipeDtos), HttpStatus.OK);
+    }
+
     @Operation(summary = "Update recipe by its id")
     @ApiResponses( value = {
             @ApiResponse(responseCode = "204", description = "Recipe updated", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = Recipe.class))}),
             @ApiResponse(responseCode = "406", description = "Recipe IDs mismatch!", content = @Content),
             @ApiResponse(responseCode = "404", description = "No Recipe data found with given ID", content = @Content),
+            @ApiResponse(responseCode = "412", description = "Recipe has been changed since the If-Match version", content = @Content),
             @ApiResponse(responseCode = "400" , description = "Recipe could not updated", content= @Content)
     })
     @PutMapping("/{recipeId}")
     public ResponseEntity updateRecipe(@Parameter(description = "id of recipe to be updated") @PathVariable("recipeId") Long recipeId,
-                                                     @Parameter(description = "Recipe Object to be updated") @RequestBody @Validated RecipeDto recipeDto) {
+                                                     @Parameter(description = "Recipe Object to be updated") @RequestBody @Validated RecipeDto recipeDto,
+                                                     @Parameter(description = "ETag of the recipe read before") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         LOG.info("Update Recipe with ID: " + recipeId);
-        return new ResponseEntity<>(recipeService.updateRecipe(recipeId, recipeDto), HttpStatus.NO_CONTENT);
+        return withETag(HttpStatus.NO_CONTENT, recipeService.updateRecipe(recipeId, recipeDto, expectedVersion(ifMatch)));
+    }
+
+    @Operation(summary = "Partially update recipe by its id with a JSON merge patch (RFC 7396)")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Recipe updated", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipeDto.class))}),
+            @ApiResponse(responseCode = "404", description = "No Recipe data found with given ID", content = @Content),
+            @ApiResponse(responseCode = "412", description = "Recipe has been changed since the If-Match version", content = @Content),
+            @ApiResponse(responseCode = "400" , description = "Merge patch is not valid for a recipe", content= @Content)
+    })
+    @PatchMapping(value = "/{recipeId}", consumes = MERGE_PATCH_VALUE)
+    public ResponseEntity<RecipeDto> patchRecipe(@Parameter(description = "id of recipe to be updated") @PathVariable("recipeId") Long recipeId,
+                                                 @Parameter(description = "Members of the recipe to be changed, null removes a value") @RequestBody JsonNode patch,
+                                                 @Parameter(description = "ETag of the recipe read before") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        LOG.info("Patch Recipe with ID: " + recipeId);
+        return withETag(HttpStatus.OK, recipeService.patchRecipe(recipeId, patch, expectedVersion(ifMatch)));
     }
 
     @Operation(summary = "Delete recipe by its id")
     @ApiResponses( value = {
             @ApiResponse(responseCode = "204", description = "Recipe deleted", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = Recipe.class))}),
             @ApiResponse(responseCode = "404", description = "No Recipe data found with given ID", content = @Content),
+            @ApiResponse(responseCode = "412", description = "Recipe has been changed since the If-Match version", content = @Content),
             @ApiResponse(responseCode = "400" , description = "Recipe could not deleted", content= @Content)
     })
     @DeleteMapping("/{recipeId}")
-    public ResponseEntity deleteRecipe(@Parameter(description = "id of recipe to be updated") @PathVariable("recipeId") Long recipeId) {
+    public ResponseEntity deleteRecipe(@Parameter(description = "id of recipe to be updated") @PathVariable("recipeId") Long recipeId,
+                                       @Parameter(description = "ETag of the recipe read before") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         LOG.info("Delete Recipe with ID: " + recipeId);
-        return new ResponseEntity<>(recipeService.deleteRecipe(recipeId), HttpStatus.NO_CONTENT);
+        return new ResponseEntity<>(recipeService.deleteRecipe(recipeId, expectedVersion(ifMatch)), HttpStatus.NO_CONTENT);
     }
 
     @Operation(summary = "Find recipe by its id")
     @ApiResponses( value = {
             @ApiResponse(responseCode = "200", description = "Recipe found", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = Recipe.class))}),
+            @ApiResponse(responseCode = "304", description = "Recipe has not changed since the If-None-Match version", content = @Content),
             @ApiResponse(responseCode = "404", description = "No Recipe data found with given ID", content = @Content),
             @ApiResponse(responseCode = "400" , description = "Recipe could not found", content= @Content)
     })
     @GetMapping("/{recipeId}")
-    public ResponseEntity<RecipeDto> getRecipeById(@Parameter(description = "id of recipe to be updated") @PathVariable("recipeId") Long recipeId) {
+    public ResponseEntity<RecipeDto> getRecipeById(@Parameter(description = "id of recipe to be updated") @PathVariable("recipeId") Long recipeId,
+                                                   WebRequest webRequest) {
         LOG.info("Get Recipe By Id");
-        return new ResponseEntity<>(recipeService.findRecipe(recipeId), HttpStatus.OK);
+        // only the version is needed to answer a conditional request
+        if (webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                && webRequest.checkNotModified(etag(recipeService.findRecipeVersion(recipeId)))) {
+            return null;
+        }
+        return withETag(HttpStatus.OK, recipeService.findRecipe(recipeId));
     }
 
-    @Operation(summary = "Search recipes with criteria")
-    @ApiResponse(responseCode = "200", description = "Found the recipes", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = Recipe.class))})
+    @Operation(summary = "Find the recipes with the most alike ingredients, most similar first")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Similar recipes with the Jaccard similarity of their ingredients",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipeSimilarityDto.class))}),
+            @ApiResponse(responseCode = "404", description = "No Recipe data found with given ID", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Similarity index is disabled or still being built", content = @Content)
+    })
+    @GetMapping("/{recipeId}/similar")
+    public ResponseEntity<List<RecipeSimilarityDto>> findSimilar(@Parameter(description = "id of recipe to compare with") @PathVariable("recipeId") Long recipeId,
+                                                                 @Parameter(description = "Maximum number of recipes to return") @RequestParam(value = "k", defaultValue = "10") int k) {
+        LOG.info("Find Similar Recipes");
+        return new ResponseEntity<>(recipeService.findSimilar(recipeId, k), HttpStatus.OK);
+    }
+
+    @Operation(summary = "Search recipes with criteria page by page, ordered by id unless sorted otherwise")
+    @ApiResponse(responseCode = "200", description = "Found the recipes, the " + NEXT_CURSOR_HEADER + " header holds the cursor of the next page", content = { @Content(mediaType = "application/json", schema = @Schema(implementation = Recipe.class))})
     @GetMapping("/search")
-    public ResponseEntity<Set<RecipeDto>> searchRecipes(@Parameter(description = "is Recipe vegetarian") @RequestParam(value = "isVegetarian", required = false) Boolean isVegetarian,
+    public ResponseEntity<List<RecipeDto>> searchRecipes(@Parameter(description = "is Recipe vegetarian") @RequestParam(value = "isVegetarian", required = false) Boolean isVegetarian,
                                                       @Parameter(description = "Number of servings of recipe") @RequestParam(value = "servingNumber", required = false) Integer servingNumber,
                                                       @Parameter(description = "ingredient to be included") @RequestParam(value = "ingredientName", required = false) String ingredientName,
                                                       @Parameter(description = "ingredient to be excluded") @RequestParam(value = "excludeIngredientName", required = false) String excludeIngredientName,
-                                                      @Parameter(description = "instruction within recipe") @RequestParam(value = "instructionText", required = false) String instructionText) {
+                                                      @Parameter(description = "instruction within recipe") @RequestParam(value = "instructionText", required = false) String instructionText,
+                                                      @Parameter(description = "Maximum number of recipes to return") @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                                      @Parameter(description = SORT_DESCRIPTION) @RequestParam(value = "sort", required = false) String sort,
+                                                      @Parameter(description = "Cursor returned by the previous page") @RequestParam(value = "after", required = false) String after,
+                                                      WebRequest webRequest) {
 
         LOG.info("Search Recipes With Criteria");
+        List<SearchCriteria> criteriaList = criteria(isVegetarian, servingNumber, ingredientName);
+
+        if (excludeIngredientName != null) {
+            criteriaList.add(new SearchCriteria("ingredientName", SearchOperation.NOT_CONTAINS, excludeIngredientName));
+        }
+
+        if (instructionText != null) {
+            criteriaList.add(new SearchCriteria("description", SearchOperation.CONTAINS, instructionText));
+        }
+
+        return toPageResponse(recipeService.searchRecipes(criteriaList, RecipeSort.parse(sort), after, limit), webRequest);
+    }
+
+    @Operation(summary = "Count the recipes matching the criteria per vegetarian flag, serving number and ingredient")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Number of matching recipes in total and per facet value, the most used ingredients only",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipeFacetsDto.class))}),
+            @ApiResponse(responseCode = "503", description = "Search index is disabled or still being built", content = @Content)
+    })
+    @GetMapping("/search/facets")
+    public ResponseEntity<RecipeFacetsDto> findFacets(@Parameter(description = "is Recipe vegetarian") @RequestParam(value = "isVegetarian", required = false) Boolean isVegetarian,
+                                                      @Parameter(description = "Number of servings of recipe") @RequestParam(value = "servingNumber", required = false) Integer servingNumber,
+                                                      @Parameter(description = "ingredient to be included") @RequestParam(value = "ingredientName", required = false) String ingredientName) {
+
+        LOG.info("Get Recipe Facets");
+        return new ResponseEntity<>(recipeService.findFacets(criteria(isVegetarian, servingNumber, ingredientName)), HttpStatus.OK);
+    }
+
+    @Operation(summary = "Find the recipes that can be cooked with the given ingredients, best covered first")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Recipes missing at most maxMissing of their ingredients, with the missing ones",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipePantryMatchDto.class))}),
+            @ApiResponse(responseCode = "400", description = "No pantry ingredients or a negative maxMissing", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Search index is disabled or still being built", content = @Content)
+    })
+    @GetMapping("/search/pantry")
+    public ResponseEntity<List<RecipePantryMatchDto>> findByPantry(@Parameter(description = "Ingredients at hand, matched on their whole name") @RequestParam(value = "ingredients") List<String> ingredients,
+                                                                   @Parameter(description = "Number of ingredients a recipe may need that are not at hand") @RequestParam(value = "maxMissing", defaultValue = "0") int maxMissing,
+                                                                   @Parameter(description = "is Recipe vegetarian") @RequestParam(value = "isVegetarian", required = false) Boolean isVegetarian,
+                                                                   @Parameter(description = "Number of servings of recipe") @RequestParam(value = "servingNumber", required = false) Integer servingNumber,
+                                                                   @Parameter(description = "Maximum number of recipes to return") @RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        LOG.info("Find Recipes By Pantry");
+        return new ResponseEntity<>(recipeService.findByPantry(ingredients, maxMissing, criteria(isVegetarian, servingNumber, null), limit), HttpStatus.OK);
+    }
+
+    @Operation(summary = "Complete an ingredient name being typed, most used first")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Lower cased ingredient names in use starting with the prefix, with their number of recipes",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = IngredientSuggestionDto.class))}),
+            @ApiResponse(responseCode = "503", description = "Search index is disabled or still being built", content = @Content)
+    })
+    @GetMapping("/search/ingredients")
+    public ResponseEntity<List<IngredientSuggestionDto>> suggestIngredients(@Parameter(description = "Start of the ingredient name, case insensitive") @RequestParam(value = "prefix", defaultValue = "") String prefix,
+                                                                            @Parameter(description = "Maximum number of names to return") @RequestParam(value = "limit", defaultValue = "10") int limit) {
+
+        LOG.info("Suggest Ingredients");
+        return new ResponseEntity<>(recipeService.suggestIngredients(prefix, limit), HttpStatus.OK);
+    }
+
+    @Operation(summary = "Search recipe names, ingredients and instructions by text, best match first")
+    @ApiResponses( value = {
+            @ApiResponse(responseCode = "200", description = "Matching recipes with their relevance score and the matched passages",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RecipeTextMatchDto.class))}),
+            @ApiResponse(responseCode = "400", description = "No search text", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Text index is disabled or still being built", content = @Content)
+    })
+    @GetMapping("/search/text")
+    public ResponseEntity<List<RecipeTextMatchDto>> searchText(@Parameter(description = "Text to search for, all terms are required; | between terms makes either do, - excludes a term, \"...\" matches a phrase and a trailing * a prefix") @RequestParam(value = "q") String q,
+                                                               @Parameter(description = "Maximum number of recipes to return") @RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        LOG.info("Search Recipes By Text");
+        return new ResponseEntity<>(recipeService.searchText(q, limit), HttpStatus.OK);
+    }
+
+    private static List<SearchCriteria> criteria(Boolean isVegetarian, Integer servingNumber, String ingredientName) {
         List<SearchCriteria> criteriaList = new ArrayList<>();
 
         if (isVegetarian != null) {
@@ -116,15 +340,55 @@ public class RecipeController {
         if (ingredientName != null) {
             criteriaList.add(new SearchCriteria("ingredientName", SearchOperation.CONTAINS, ingredientName));
         }
+        return criteriaList;
+    }
 
-        if (excludeIngredientName != null) {
-            criteriaList.add(new SearchCriteria("ingredientName", SearchOperation.NOT_CONTAINS, excludeIngredientName));
+    /**
+     * Pages get a weak ETag built from the ids and versions of their recipes, an unchanged page is answered
+     * with 304 without serializing it.
+     */
+    private ResponseEntity<List<RecipeDto>> toPageResponse(RecipePageDto page, WebRequest webRequest) {
+        long hash = page.getNextCursor() == null ? 0 : page.getNextCursor().hashCode();
+        for (RecipeDto recipe : page.getRecipes()) {
+            hash = 31 * hash + recipe.getId();
+            hash = 31 * hash + (recipe.getVersion() == null ? 0 : recipe.getVersion());
+        }
+        String etag = "W/\"" + Long.toHexString(hash) + "\"";
+        if (webRequest.checkNotModified(etag)) {
+            return null;
         }
 
-        if (instructionText != null) {
-            criteriaList.add(new SearchCriteria("description", SearchOperation.CONTAINS, instructionText));
+        HttpHeaders headers = new HttpHeaders();
+        if (page.getNextCursor() != null) {
+            headers.set(NEXT_CURSOR_HEADER, page.getNextCursor());
         }
+        headers.setETag(etag);
+        return new ResponseEntity<>(page.getRecipes(), headers, HttpStatus.OK);
+    }
 
-        return new ResponseEntity<>(recipeService.searchRecipes(criteriaList), HttpStatus.OK);
+    private static String etag(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    private static ResponseEntity<RecipeDto> withETag(HttpStatus status, RecipeDto recipeDto) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status);
+        if (recipeDto != null && recipeDto.getVersion() != null) {
+            response.eTag(etag(recipeDto.getVersion()));
+        }
+        return response.body(recipeDto);
+    }
+
+    /**
+     * Version in a strong If-Match ETag, {@code null} when the header is missing or {@code *}.
+     */
+    static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Matcher matcher = STRONG_ETAG.matcher(ifMatch.trim());
+        if (!matcher.matches()) {
+            throw new PreconditionFailedException();
+        }
+        return Long.valueOf(matcher.group(1));
     }
 }
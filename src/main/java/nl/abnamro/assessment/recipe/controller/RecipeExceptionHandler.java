@@ -1,5 +1,6 @@
 package nl.abnamro.assessment.recipe.controller;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -31,4 +32,20 @@ public class RecipeExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(
                 "There is no data with given ID", new HttpHeaders(),HttpStatus.NOT_FOUND);
     }
+
+    @ExceptionHandler({PreconditionFailedException.class, OptimisticLockingFailureException.class})
+    public ResponseEntity<Object> preconditionFailedHandler(RuntimeException ex) {
+        return new ResponseEntity<>(
+                "Recipe has been changed since it was read", new HttpHeaders(), HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<Object> serviceUnavailableHandler(ServiceUnavailableException ex) {
+        return new ResponseEntity<>(ex.getMessage(), new HttpHeaders(), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    @ExceptionHandler({InvalidPatchException.class, BadRequestException.class})
+    public ResponseEntity<Object> badRequestHandler(RuntimeException ex) {
+        return new ResponseEntity<>(ex.getMessage(), new HttpHeaders(), HttpStatus.BAD_REQUEST);
+    }
 }
@@ -0,0 +1,11 @@
+package nl.abnamro.assessment.recipe.controller;
+
+/**
+ * @author Orhan Polat
+ */
+public class ServiceUnavailableException extends RuntimeException{
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+}
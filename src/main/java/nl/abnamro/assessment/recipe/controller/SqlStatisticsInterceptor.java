@@ -0,0 +1,70 @@
+package nl.abnamro.assessment.recipe.controller;
+
+import nl.abnamro.assessment.recipe.component.SqlStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Collects the {@link SqlStatistics} of every request and logs the requests going over the configured budget
+ * or repeating the same statement shape (N+1).
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class SqlStatisticsInterceptor implements AsyncHandlerInterceptor {
+
+    private static final Logger LOG = LogManager.getLogger(SqlStatisticsInterceptor.class);
+
+    @Value("${recipe.sql-statistics.max-statements:20}")
+    private int maxStatements;
+
+    @Value("${recipe.sql-statistics.max-rows:5000}")
+    private long maxRows;
+
+    @Value("${recipe.sql-statistics.max-time-ms:500}")
+    private long maxTimeMillis;
+
+    @Value("${recipe.sql-statistics.repeated-statement-threshold:3}")
+    private int repeatedStatementThreshold;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        SqlStatistics.start();
+        return true;
+    }
+
+    /**
+     * Streaming responses are written on another thread, the statistics of the request thread end here.
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        SqlStatistics.stop();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        SqlStatistics statistics = SqlStatistics.stop();
+        if (statistics == null) {
+            return;
+        }
+        String requestLine = request.getMethod() + " " + request.getRequestURI();
+        if (statistics.getStatements() > maxStatements || statistics.getRows() > maxRows || statistics.getTimeMillis() > maxTimeMillis) {
+            LOG.warn("{} went over its SQL budget: {} statements, {} rows, {} ms",
+                    requestLine, statistics.getStatements(), statistics.getRows(), statistics.getTimeMillis());
+        }
+        for (Map.Entry<String, Integer> repeated : repeatedStatements(statistics).entrySet()) {
+            LOG.warn("{} executed the same statement {} times, possible N+1: {}", requestLine, repeated.getValue(), repeated.getKey());
+        }
+    }
+
+    Map<String, Integer> repeatedStatements(SqlStatistics statistics) {
+        return statistics.repeatedStatements(repeatedStatementThreshold);
+    }
+}
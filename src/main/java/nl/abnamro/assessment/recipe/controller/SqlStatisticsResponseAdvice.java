@@ -0,0 +1,53 @@
+package nl.abnamro.assessment.recipe.controller;
+
+import lombok.RequiredArgsConstructor;
+import nl.abnamro.assessment.recipe.component.SqlStatistics;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Adds the SQL totals of the request as response headers. Not active in the prod profile.
+ *
+ * @author Orhan Polat
+ */
+@Profile("!prod")
+@ControllerAdvice(assignableTypes = RecipeController.class)
+@RequiredArgsConstructor
+public class SqlStatisticsResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    static final String STATEMENTS_HEADER = "X-SQL-Statements";
+
+    static final String ROWS_HEADER = "X-SQL-Rows";
+
+    static final String TIME_HEADER = "X-SQL-Time-Ms";
+
+    static final String REPEATED_STATEMENTS_HEADER = "X-SQL-Repeated-Statements";
+
+    private final SqlStatisticsInterceptor sqlStatisticsInterceptor;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        SqlStatistics statistics = SqlStatistics.current();
+        if (statistics != null) {
+            response.getHeaders().set(STATEMENTS_HEADER, String.valueOf(statistics.getStatements()));
+            response.getHeaders().set(ROWS_HEADER, String.valueOf(statistics.getRows()));
+            response.getHeaders().set(TIME_HEADER, String.valueOf(statistics.getTimeMillis()));
+            response.getHeaders().set(REPEATED_STATEMENTS_HEADER,
+                    String.valueOf(sqlStatisticsInterceptor.repeatedStatements(statistics).size()));
+        }
+        return body;
+    }
+}
@@ -0,0 +1,24 @@
+package nl.abnamro.assessment.recipe.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * @author Orhan Polat
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private final SqlStatisticsInterceptor sqlStatisticsInterceptor;
+
+    private final ReadYourWritesInterceptor readYourWritesInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(sqlStatisticsInterceptor).addPathPatterns("/api/v1/recipe/**");
+        registry.addInterceptor(readYourWritesInterceptor).addPathPatterns("/api/v1/recipe/**");
+    }
+}
@@ -0,0 +1,32 @@
+package nl.abnamro.assessment.recipe.domain;
+
+import lombok.*;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.*;
+
+/**
+ * Entry of the ingredient dictionary: every distinct ingredient name is stored once and {@link Ingredients}
+ * rows refer to it by id. Entries are never changed or removed, so their ids can be cached for good.
+ *
+ * @author Orhan Polat
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Immutable
+@Table( name = "ingredient", uniqueConstraints = @UniqueConstraint(name = "ingredient_name_key", columnNames = "name"))
+public class Ingredient {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ingredient_id_seq")
+    @SequenceGenerator(name = "ingredient_id_seq", sequenceName = "ingredient_id_seq", allocationSize = 50)
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "name", nullable = false)
+    private String name;
+}
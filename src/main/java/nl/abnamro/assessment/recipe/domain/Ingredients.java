@@ -1,10 +1,15 @@
 package nl.abnamro.assessment.recipe.domain;
 
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 
 /**
+ * An ingredient of a recipe. The name is kept in the {@link Ingredient} dictionary, the row only holds its id.
+ * A name set on a new or changed row is resolved to its dictionary entry by
+ * {@link nl.abnamro.assessment.recipe.service.IngredientDictionary} before the row is written.
+ *
  * @author Orhan Polat
  */
 @Getter
@@ -13,18 +18,41 @@ import javax.persistence.*;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table( name = "ingredients")
+@DynamicUpdate
+@Table( name = "ingredients", indexes = {
+        @Index(name = "ingredients_recipe_id_idx", columnList = "recipe_id"),
+        @Index(name = "ingredients_ingredient_id_idx", columnList = "ingredient_id, recipe_id")})
 public class Ingredients {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ingredients_id_seq")
-    @SequenceGenerator(name = "ingredients_id_seq", sequenceName = "ingredients_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "ingredients_id_seq", sequenceName = "ingredients_id_seq", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
-    @Column(name = "name")
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "ingredient_id")
+    private Ingredient ingredient;
+
+    /**
+     * Name given on write. It is kept after being resolved to {@link #ingredient}, so reading it back does not
+     * load the dictionary entry.
+     */
+    @Transient
     private String ingredientName;
 
     @Column(name = "recipe_id")
     private Long recipeId;
+
+    public String getIngredientName() {
+        if (ingredientName != null || ingredient == null) {
+            return ingredientName;
+        }
+        return ingredient.getName();
+    }
+
+    public void setIngredientName(String ingredientName) {
+        this.ingredientName = ingredientName;
+        this.ingredient = null;
+    }
 }
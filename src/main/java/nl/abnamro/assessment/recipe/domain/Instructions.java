@@ -1,6 +1,7 @@
 package nl.abnamro.assessment.recipe.domain;
 
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
 
@@ -13,12 +14,13 @@ import javax.persistence.*;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table( name = "instructions")
+@DynamicUpdate
+@Table( name = "instructions", indexes = @Index(name = "instructions_recipe_id_idx", columnList = "recipe_id"))
 public class Instructions {
 
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "instructions_id_seq")
-    @SequenceGenerator(name = "instructions_id_seq", sequenceName = "instructions_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "instructions_id_seq", sequenceName = "instructions_id_seq", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
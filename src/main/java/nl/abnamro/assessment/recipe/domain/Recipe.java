@@ -1,12 +1,19 @@
 package nl.abnamro.assessment.recipe.domain;
 
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
+import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
+ * Child collections are lazy and loaded in batches, so a page of recipes needs one query per collection
+ * instead of one per recipe. Single recipe reads fetch both collections with the entity graph on
+ * {@link nl.abnamro.assessment.recipe.repository.RecipeRepository#findById(Object)}.
+ *
  * @author Orhan Polat
  */
 @Getter
@@ -15,12 +22,18 @@ import java.util.Set;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table( name = "recipe")
+@DynamicUpdate
+@Table( name = "recipe", indexes = {
+        @Index(name = "recipe_change_seq_idx", columnList = "change_seq, id"),
+        @Index(name = "recipe_name_idx", columnList = "name, id"),
+        @Index(name = "recipe_serving_number_idx", columnList = "serving_number, id")})
 public class Recipe {
 
+    public static final int BATCH_SIZE = 100;
+
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "recipe_id_seq")
-    @SequenceGenerator(name = "recipe_id_seq", sequenceName = "recipe_id_seq", allocationSize = 1)
+    @SequenceGenerator(name = "recipe_id_seq", sequenceName = "recipe_id_seq", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
@@ -33,11 +46,37 @@ public class Recipe {
     @Column(name = "is_vegetarian")
     private Boolean isVegetarian;
 
-    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval=true)
+    /**
+     * Bumped by every change of the recipe or its children, it is the ETag of the recipe.
+     */
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    /**
+     * Value of the change sequence at the last write of the recipe or its children, the delta sync feed
+     * returns recipes in this order.
+     */
+    @Column(name = "change_seq")
+    private Long changeSeq;
+
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    /**
+     * MinHash signature of the ingredient names, written with every change so the similarity index is rebuilt
+     * without reading the ingredients. Empty for a recipe without ingredients.
+     */
+    @Column(name = "min_hash", length = 512)
+    private byte[] minHash;
+
+    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval=true)
     @JoinColumn(name = "recipe_id")
+    @BatchSize(size = BATCH_SIZE)
     private Set<Ingredients> ingredients = new HashSet<>();
 
-    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval=true)
+    @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval=true)
     @JoinColumn(name = "recipe_id")
+    @BatchSize(size = BATCH_SIZE)
     private Set<Instructions> instructions = new HashSet<>();
 }
@@ -0,0 +1,40 @@
+package nl.abnamro.assessment.recipe.domain;
+
+import lombok.*;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Change of a recipe, written in the transaction of the change itself and pushed to event stream subscribers by
+ * {@link nl.abnamro.assessment.recipe.service.RecipeEventRelay} once committed. Rows are kept for the retention
+ * period so reconnecting subscribers can resume from their {@code Last-Event-ID}.
+ *
+ * @author Orhan Polat
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table( name = "recipe_outbox", indexes = @Index(name = "recipe_outbox_created_at_idx", columnList = "created_at"))
+public class RecipeOutbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "recipe_outbox_id_seq")
+    @SequenceGenerator(name = "recipe_outbox_id_seq", sequenceName = "recipe_outbox_id_seq", allocationSize = 50)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "recipe_id", nullable = false)
+    private Long recipeId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false)
+    private ChangeType changeType;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+}
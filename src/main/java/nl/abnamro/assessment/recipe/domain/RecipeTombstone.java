@@ -0,0 +1,32 @@
+package nl.abnamro.assessment.recipe.domain;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Marks a deleted recipe in the change feed, so clients syncing with
+ * {@link nl.abnamro.assessment.recipe.service.IRecipeService#findChanges(String, int)} can drop it.
+ *
+ * @author Orhan Polat
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table( name = "recipe_tombstone", indexes = @Index(name = "recipe_tombstone_change_seq_idx", columnList = "change_seq, recipe_id"))
+public class RecipeTombstone {
+
+    @Id
+    @Column(name = "recipe_id")
+    private Long recipeId;
+
+    @Column(name = "change_seq", nullable = false)
+    private Long changeSeq;
+
+    @Column(name = "deleted_at", nullable = false)
+    private Instant deletedAt;
+}
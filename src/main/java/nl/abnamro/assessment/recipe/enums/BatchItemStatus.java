@@ -0,0 +1,9 @@
+package nl.abnamro.assessment.recipe.enums;
+
+/**
+ * @author Orhan Polat
+ */
+public enum BatchItemStatus {
+    CREATED,
+    FAILED
+}
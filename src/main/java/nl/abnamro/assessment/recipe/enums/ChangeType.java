@@ -0,0 +1,10 @@
+package nl.abnamro.assessment.recipe.enums;
+
+/**
+ * @author Orhan Polat
+ */
+public enum ChangeType {
+    CREATED,
+    UPDATED,
+    DELETED
+}
@@ -0,0 +1,22 @@
+package nl.abnamro.assessment.recipe.enums;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Recipe attributes pages can be ordered on; recipes with the same value are ordered on their id.
+ *
+ * @author Orhan Polat
+ */
+@Getter
+@RequiredArgsConstructor
+public enum SortField {
+    ID("id"),
+    NAME("name"),
+    SERVING_NUMBER("servingNumber");
+
+    /**
+     * Name of the attribute on {@link nl.abnamro.assessment.recipe.domain.Recipe} and in the {@code sort} parameter.
+     */
+    private final String property;
+}
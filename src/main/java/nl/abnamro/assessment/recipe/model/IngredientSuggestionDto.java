@@ -0,0 +1,19 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IngredientSuggestionDto {
+
+    private String name;
+    private long recipeCount;
+}
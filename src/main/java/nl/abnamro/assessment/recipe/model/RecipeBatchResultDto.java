@@ -0,0 +1,22 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.abnamro.assessment.recipe.enums.BatchItemStatus;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecipeBatchResultDto {
+
+    private int index;
+    private Long id;
+    private BatchItemStatus status;
+    private String error;
+}
@@ -0,0 +1,23 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecipeChangesDto {
+
+    private List<RecipeDto> recipes;
+    private List<Long> deleted;
+    private String token;
+    private boolean more;
+}
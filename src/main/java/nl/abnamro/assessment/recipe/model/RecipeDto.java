@@ -20,6 +20,7 @@ public class RecipeDto {
     private String name;
     private Integer servingNumber;
     private Boolean isVegetarian;
+    private Long version;
     private Set<IngredientsDto> ingredients;
     private Set<InstructionsDto> instructions;
 }
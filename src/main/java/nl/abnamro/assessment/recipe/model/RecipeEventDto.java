@@ -0,0 +1,23 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+
+import java.time.Instant;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecipeEventDto {
+
+    private Long recipeId;
+    private ChangeType changeType;
+    private Instant occurredAt;
+}
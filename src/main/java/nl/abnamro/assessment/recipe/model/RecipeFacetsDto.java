@@ -0,0 +1,23 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecipeFacetsDto {
+
+    private long total;
+    private Map<Boolean, Long> isVegetarian;
+    private Map<Integer, Long> servingNumber;
+    private Map<String, Long> ingredientName;
+}
@@ -0,0 +1,24 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecipePantryMatchDto {
+
+    private RecipeDto recipe;
+    private int covered;
+    private int total;
+    private double coverage;
+    private List<String> missingIngredients;
+}
@@ -0,0 +1,27 @@
+package nl.abnamro.assessment.recipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * @author Orhan Polat
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecipeTextMatchDto {
+
+    private RecipeDto recipe;
+    private float score;
+
+    /**
+     * Per matching field ({@code name}, {@code ingredients}, {@code instructions}) a passage with the matched
+     * terms in {@code <b>} tags.
+     */
+    private Map<String, String> highlights;
+}
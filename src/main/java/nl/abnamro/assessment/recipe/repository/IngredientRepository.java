@@ -0,0 +1,17 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import nl.abnamro.assessment.recipe.domain.Ingredient;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Orhan Polat
+ */
+@Repository
+public interface IngredientRepository extends JpaRepository<Ingredient, Integer>, IngredientRepositoryCustom {
+
+    List<Ingredient> findByNameIn(Collection<String> names);
+}
@@ -0,0 +1,16 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import java.util.List;
+
+/**
+ * @author Orhan Polat
+ */
+public interface IngredientRepositoryCustom {
+
+    /**
+     * Adds a dictionary entry, in the current transaction and in the given order, for every name that has none.
+     * When another transaction is adding one of the names this waits for it to end. Pending changes are not
+     * flushed.
+     */
+    void addIfAbsent(List<String> names);
+}
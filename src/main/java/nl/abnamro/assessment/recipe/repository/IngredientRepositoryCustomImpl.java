@@ -0,0 +1,51 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.List;
+
+/**
+ * @author Orhan Polat
+ */
+public class IngredientRepositoryCustomImpl implements IngredientRepositoryCustom {
+
+    /**
+     * Id generator of {@link nl.abnamro.assessment.recipe.domain.Ingredient}. Entries are only added here, each one
+     * takes the next value, so the ids leave gaps of the increment of the sequence.
+     */
+    static final String ID_SEQUENCE = "ingredient_id_seq";
+
+    /**
+     * Names added per statement, well below the bind parameter limit of the drivers.
+     */
+    static final int NAMES_PER_STATEMENT = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void addIfAbsent(List<String> names) {
+        Dialect dialect = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect();
+        String nextId = dialect.getSelectSequenceNextValString(ID_SEQUENCE);
+        for (int from = 0; from < names.size(); from += NAMES_PER_STATEMENT) {
+            List<String> chunk = names.subList(from, Math.min(from + NAMES_PER_STATEMENT, names.size()));
+            StringBuilder sql = new StringBuilder("INSERT INTO ingredient (id, name) VALUES ");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append('(').append(nextId).append(", ?").append(i + 1).append(')');
+            }
+            // only touches the dictionary, so the pending changes of the write are not flushed before it
+            Query insert = entityManager.createNativeQuery(sql.append(" ON CONFLICT DO NOTHING").toString())
+                    .setFlushMode(FlushModeType.COMMIT);
+            for (int i = 0; i < chunk.size(); i++) {
+                insert.setParameter(i + 1, chunk.get(i));
+            }
+            insert.executeUpdate();
+        }
+    }
+}
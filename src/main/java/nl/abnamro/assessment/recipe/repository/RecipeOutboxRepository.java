@@ -0,0 +1,50 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import nl.abnamro.assessment.recipe.domain.RecipeOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * @author Orhan Polat
+ */
+@Repository
+public interface RecipeOutboxRepository extends JpaRepository<RecipeOutbox, Long> {
+
+    @Query("select o from RecipeOutbox o where o.id > :id order by o.id")
+    List<RecipeOutbox> findAfter(@Param("id") long id, Pageable pageable);
+
+    /**
+     * Ids come from blocks allocated per node, so a transaction can commit a row below ids that were already
+     * relayed. Such rows are still found here while they are younger than {@code createdAfter}.
+     */
+    @Query("select o from RecipeOutbox o where o.id <= :id and o.createdAt > :createdAfter order by o.id")
+    List<RecipeOutbox> findCommittedLate(@Param("id") long id, @Param("createdAfter") Instant createdAfter, Pageable pageable);
+
+    /**
+     * Ids of the rows {@link #findCommittedLate} finds, from after {@code afterId} on, to page through all of them
+     * without reading the rows that have been relayed.
+     */
+    @Query("select o.id from RecipeOutbox o where o.id > :afterId and o.id <= :id and o.createdAt > :createdAfter order by o.id")
+    List<Long> findIdsCommittedLate(@Param("afterId") long afterId, @Param("id") long id, @Param("createdAfter") Instant createdAfter,
+                                    Pageable pageable);
+
+    @Query("select max(o.id) from RecipeOutbox o")
+    Optional<Long> findMaxId();
+
+    @Query("select max(o.id) from RecipeOutbox o where o.createdAt <= :createdBefore")
+    Optional<Long> findMaxIdCreatedBefore(@Param("createdBefore") Instant createdBefore);
+
+    @Transactional
+    @Modifying
+    @Query("delete from RecipeOutbox o where o.createdAt < :createdBefore")
+    int deleteCreatedBefore(@Param("createdBefore") Instant createdBefore);
+}
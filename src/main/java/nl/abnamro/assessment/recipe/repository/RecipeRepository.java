@@ -1,14 +1,46 @@
 package nl.abnamro.assessment.recipe.repository;
 
 import nl.abnamro.assessment.recipe.domain.Recipe;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 /**
  * @author Orhan Polat
  */
 @Repository
-public interface RecipeRepository extends JpaRepository<Recipe, Long>, JpaSpecificationExecutor<Recipe> {
+public interface RecipeRepository extends JpaRepository<Recipe, Long>, JpaSpecificationExecutor<Recipe>, RecipeRepositoryCustom {
+
+    @Override
+    @EntityGraph(attributePaths = {"ingredients.ingredient", "instructions"})
+    Optional<Recipe> findById(Long id);
+
+    @EntityGraph(attributePaths = {"ingredients.ingredient", "instructions"})
+    List<Recipe> findByIdIn(Collection<Long> ids);
+
+    @Query("select r.version from Recipe r where r.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    @Query("select r from Recipe r where r.changeSeq > :changeSeq or (r.changeSeq = :changeSeq and r.id > :id)"
+            + " order by r.changeSeq, r.id")
+    List<Recipe> findChangedSince(@Param("changeSeq") long changeSeq, @Param("id") long id, Pageable pageable);
+
+    @Query("select r from Recipe r where r.minHash is null order by r.id")
+    List<Recipe> findWithoutMinHash(Pageable pageable);
 
+    /**
+     * Leaves the version alone: the signature follows from the ingredients, the recipe itself does not change.
+     */
+    @Modifying
+    @Query("update Recipe r set r.minHash = :minHash where r.id = :id")
+    int updateMinHash(@Param("id") Long id, @Param("minHash") byte[] minHash);
 }
@@ -0,0 +1,55 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.SortField;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * @author Orhan Polat
+ */
+public interface RecipeRepositoryCustom {
+
+    /**
+     * Keyset page of recipes ordered on a field and then on id. Only rows after the position of the last recipe
+     * of the previous page are read, so with an index on the field and id the cost of a page does not depend on
+     * how deep the client has paged. Recipes without a value come last in ascending and first in descending
+     * order, like PostgreSQL orders nulls by default.
+     *
+     * @param spec       optional filter, may be {@code null}
+     * @param sortField  field to order on
+     * @param descending whether to order on the field and id descending
+     * @param afterValue value of the field of the last recipe of the previous page
+     * @param afterId    id of the last recipe of the previous page, {@code null} for the first page
+     * @param limit      maximum number of recipes to return
+     */
+    List<Recipe> findPage(Specification<Recipe> spec, SortField sortField, boolean descending, Object afterValue, Long afterId, int limit);
+
+    /**
+     * All recipes ordered by id, read through a forward-only cursor. Must be consumed within a transaction
+     * and closed afterwards; children are loaded lazily like for any other query.
+     *
+     * @param fetchSize number of rows the driver fetches per round trip
+     */
+    Stream<Recipe> streamAll(int fetchSize);
+
+    /**
+     * Id and MinHash signature of all recipes ordered by id, read through a forward-only cursor without loading
+     * the recipes. Must be consumed within a transaction and closed afterwards.
+     *
+     * @param fetchSize number of rows the driver fetches per round trip
+     */
+    Stream<Object[]> streamMinHashes(int fetchSize);
+
+    /**
+     * Next value of the change sequence that orders the delta sync feed.
+     */
+    long nextChangeSeq();
+
+    /**
+     * Detaches every entity of the persistence context, so entities that have been read can be collected.
+     */
+    void detachAll();
+}
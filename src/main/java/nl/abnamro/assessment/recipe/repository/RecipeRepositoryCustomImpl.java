@@ -0,0 +1,115 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.SortField;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeRepositoryCustomImpl implements RecipeRepositoryCustom {
+
+    /**
+     * Created by the schema scripts, it is not the id generator of any entity.
+     */
+    static final String CHANGE_SEQUENCE = "recipe_change_seq";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<Recipe> findPage(Specification<Recipe> spec, SortField sortField, boolean descending, Object afterValue, Long afterId, int limit) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Recipe> query = criteriaBuilder.createQuery(Recipe.class);
+        Root<Recipe> root = query.from(Recipe.class);
+        Path<Long> id = root.get("id");
+        Path<Comparable> value = root.get(sortField.getProperty());
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (spec != null) {
+            Predicate predicate = spec.toPredicate(root, query, criteriaBuilder);
+            if (predicate != null) {
+                predicates.add(predicate);
+            }
+        }
+        if (afterId != null) {
+            Predicate afterIdPredicate = descending ? criteriaBuilder.lessThan(id, afterId) : criteriaBuilder.greaterThan(id, afterId);
+            if (sortField == SortField.ID) {
+                predicates.add(afterIdPredicate);
+            } else if (afterValue == null) {
+                Predicate sameValue = criteriaBuilder.and(criteriaBuilder.isNull(value), afterIdPredicate);
+                // recipes without a value are the first ones descending
+                predicates.add(descending ? criteriaBuilder.or(sameValue, criteriaBuilder.isNotNull(value)) : sameValue);
+            } else {
+                Comparable after = (Comparable) afterValue;
+                Predicate afterValuePredicate = criteriaBuilder.or(
+                        descending ? criteriaBuilder.lessThan(value, after) : criteriaBuilder.greaterThan(value, after),
+                        criteriaBuilder.and(criteriaBuilder.equal(value, after), afterIdPredicate));
+                // recipes without a value are the last ones ascending
+                predicates.add(descending ? afterValuePredicate : criteriaBuilder.or(afterValuePredicate, criteriaBuilder.isNull(value)));
+            }
+        }
+
+        List<Order> order = new ArrayList<>(2);
+        if (sortField != SortField.ID) {
+            order.add(descending ? criteriaBuilder.desc(value) : criteriaBuilder.asc(value));
+        }
+        order.add(descending ? criteriaBuilder.desc(id) : criteriaBuilder.asc(id));
+
+        query.select(root)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(order);
+
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<Recipe> streamAll(int fetchSize) {
+        return entityManager.createQuery("select r from Recipe r order by r.id", Recipe.class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream();
+    }
+
+    @Override
+    public Stream<Object[]> streamMinHashes(int fetchSize) {
+        return entityManager.createQuery("select r.id, r.minHash from Recipe r order by r.id", Object[].class)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+                .getResultStream();
+    }
+
+    @Override
+    public long nextChangeSeq() {
+        Dialect dialect = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect();
+        // the sequence touches no table, so pending changes need not be flushed before it
+        Number value = (Number) entityManager.createNativeQuery(dialect.getSequenceNextValString(CHANGE_SEQUENCE))
+                .setFlushMode(FlushModeType.COMMIT)
+                .getSingleResult();
+        return value.longValue();
+    }
+
+    @Override
+    public void detachAll() {
+        entityManager.clear();
+    }
+}
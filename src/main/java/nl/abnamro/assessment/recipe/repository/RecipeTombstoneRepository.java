@@ -0,0 +1,21 @@
+package nl.abnamro.assessment.recipe.repository;
+
+import nl.abnamro.assessment.recipe.domain.RecipeTombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * @author Orhan Polat
+ */
+@Repository
+public interface RecipeTombstoneRepository extends JpaRepository<RecipeTombstone, Long> {
+
+    @Query("select t from RecipeTombstone t where t.changeSeq > :changeSeq or (t.changeSeq = :changeSeq and t.recipeId > :recipeId)"
+            + " order by t.changeSeq, t.recipeId")
+    List<RecipeTombstone> findChangedSince(@Param("changeSeq") long changeSeq, @Param("recipeId") long recipeId, Pageable pageable);
+}
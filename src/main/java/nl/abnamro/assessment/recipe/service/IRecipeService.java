@@ -1,24 +1,81 @@
 package nl.abnamro.assessment.recipe.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import nl.abnamro.assessment.recipe.model.IngredientSuggestionDto;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeChangesDto;
 import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import nl.abnamro.assessment.recipe.model.RecipePantryMatchDto;
+import nl.abnamro.assessment.recipe.model.RecipeSimilarityDto;
+import nl.abnamro.assessment.recipe.model.RecipeTextMatchDto;
 
 import java.util.List;
-import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * @author Orhan Polat
  */
 public interface IRecipeService {
 
-    Set<RecipeDto> findAll();
+    /**
+     * @param after cursor returned with the previous page of the same sort, {@code null} for the first page
+     */
+    RecipePageDto findAll(RecipeSort sort, String after, int limit);
 
     RecipeDto saveRecipe(RecipeDto recipeDto);
 
-    RecipeDto updateRecipe(Long recipeId, RecipeDto recipeDto);
+    List<RecipeBatchResultDto> saveRecipes(List<RecipeDto> recipeDtos);
 
-    String deleteRecipe(Long recipeId);
+    /**
+     * @param expectedVersion version the client last read, {@code null} to update regardless of the version
+     */
+    RecipeDto updateRecipe(Long recipeId, RecipeDto recipeDto, Long expectedVersion);
+
+    RecipeDto patchRecipe(Long recipeId, JsonNode patch, Long expectedVersion);
+
+    String deleteRecipe(Long recipeId, Long expectedVersion);
 
     RecipeDto findRecipe(Long recipeId);
 
-    Set<RecipeDto> searchRecipes(List<SearchCriteria> criteria);
+    Long findRecipeVersion(Long recipeId);
+
+    /**
+     * @param since token returned by the previous call, {@code null} to start from the first change
+     */
+    RecipeChangesDto findChanges(String since, int limit);
+
+    RecipePageDto searchRecipes(List<SearchCriteria> criteria, RecipeSort sort, String after, int limit);
+
+    /**
+     * Counts of the recipes matching the criteria per facet, answered by the {@link RecipeSearchIndex}.
+     */
+    RecipeFacetsDto findFacets(List<SearchCriteria> criteria);
+
+    /**
+     * Recipes matching the criteria that can be cooked from the pantry with at most {@code maxMissing} ingredients
+     * missing, best covered first, answered by the {@link RecipeSearchIndex}.
+     */
+    List<RecipePantryMatchDto> findByPantry(List<String> pantry, int maxMissing, List<SearchCriteria> criteria, int limit);
+
+    /**
+     * The {@code k} recipes whose ingredients are most alike those of the recipe by Jaccard similarity, among the
+     * candidates of the {@link RecipeSimilarityIndex}.
+     */
+    List<RecipeSimilarityDto> findSimilar(Long recipeId, int k);
+
+    /**
+     * Ingredient names in use starting with the prefix, the most used first, answered by the
+     * {@link RecipeSearchIndex}.
+     */
+    List<IngredientSuggestionDto> suggestIngredients(String prefix, int limit);
+
+    /**
+     * Recipes whose name, ingredients or instructions match the text, best match first, answered by the
+     * {@link RecipeTextIndex}.
+     */
+    List<RecipeTextMatchDto> searchText(String text, int limit);
+
+    void exportRecipes(Consumer<RecipeDto> consumer);
 }
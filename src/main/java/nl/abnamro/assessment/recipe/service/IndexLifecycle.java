@@ -0,0 +1,192 @@
+package nl.abnamro.assessment.recipe.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Lifecycle shared by the indexes that are built from the database when the application is ready and follow the
+ * committed writes through {@link RecipeChangedEvent}, those of this node as they commit and those of every node as
+ * they are relayed. Changes committed while the index is being built are queued and applied once it is. A failed
+ * build is retried, first after {@link #FIRST_RETRY_MILLIS} and then twice as long after every failure up to
+ * {@link #MAX_RETRY_MILLIS}; the changes keep being queued meanwhile. The index asks {@link #retryDue} every
+ * {@link #RETRY_POLL_MILLIS} and builds again when it is.
+ * <p>
+ * The given lock guards the data of the index, changes are applied while holding it.
+ *
+ * @author Orhan Polat
+ */
+final class IndexLifecycle {
+
+    private static final Logger LOG = LogManager.getLogger(IndexLifecycle.class);
+
+    static final long RETRY_POLL_MILLIS = 1_000;
+
+    static final long FIRST_RETRY_MILLIS = 1_000;
+
+    static final long MAX_RETRY_MILLIS = 300_000;
+
+    private final String name;
+
+    private final String unavailable;
+
+    private final boolean enabled;
+
+    private final Lock lock;
+
+    private final Consumer<RecipeChangedEvent> apply;
+
+    /**
+     * Changes committed while the index is being built or waits for a retry, {@code null} once it is built.
+     */
+    private List<RecipeChangedEvent> pending = new ArrayList<>();
+
+    private volatile boolean ready;
+
+    private int failures;
+
+    /**
+     * When the failed build is to be retried, {@code 0} when no retry is due.
+     */
+    private long retryAtMillis;
+
+    /**
+     * @param name        name of the index in the logs
+     * @param unavailable what a failed build means to the users of the index, for the logs
+     */
+    IndexLifecycle(String name, String unavailable, boolean enabled, Lock lock, Consumer<RecipeChangedEvent> apply) {
+        this.name = name;
+        this.unavailable = unavailable;
+        this.enabled = enabled;
+        this.lock = lock;
+        this.apply = apply;
+    }
+
+    /**
+     * Runs {@code fill} without holding the lock, then applies the queued changes and runs {@code open} under it.
+     * The index is ready when both succeed and {@code open} finds it usable. {@code fill} must replace what an
+     * earlier, failed build left in the index.
+     *
+     * @return whether the index is ready
+     */
+    boolean build(Step fill, Open open) {
+        if (!enabled) {
+            return false;
+        }
+        lock.lock();
+        try {
+            retryAtMillis = 0;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            fill.run();
+        } catch (Exception e) {
+            fail(e);
+            return false;
+        }
+        lock.lock();
+        try {
+            pending.forEach(apply);
+            pending = null;
+            ready = open.usable();
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+        return ready;
+    }
+
+    /**
+     * Queues the change while building, applies it when the index is ready and drops it otherwise.
+     */
+    void onRecipeChanged(RecipeChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (pending != null) {
+                pending.add(event);
+            } else if (ready) {
+                apply.accept(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Whether a failed build is to be retried at {@code nowMillis}.
+     */
+    boolean retryDue(long nowMillis) {
+        lock.lock();
+        try {
+            return retryAtMillis != 0 && nowMillis >= retryAtMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the index out of use, e.g. when it can not hold a change or is closed. A failed build is not retried
+     * any more.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            ready = false;
+            retryAtMillis = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of changes waiting for the build.
+     */
+    int pendingChanges() {
+        lock.lock();
+        try {
+            return pending == null ? 0 : pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(Exception e) {
+        lock.lock();
+        try {
+            long delay = Math.min(FIRST_RETRY_MILLIS << Math.min(failures, 20), MAX_RETRY_MILLIS);
+            failures++;
+            LOG.error("Building the recipe {} index failed, {} until it is built, retrying in {} ms", name, unavailable, delay, e);
+            if (pending == null) {
+                // the changes applied before the failure are read again by the next build
+                pending = new ArrayList<>();
+            }
+            ready = false;
+            retryAtMillis = System.currentTimeMillis() + delay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    interface Step {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    interface Open {
+        boolean usable() throws Exception;
+    }
+}
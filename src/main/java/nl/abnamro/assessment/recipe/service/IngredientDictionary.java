@@ -0,0 +1,122 @@
+package nl.abnamro.assessment.recipe.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import nl.abnamro.assessment.recipe.domain.Ingredient;
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.repository.IngredientRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Interns ingredient names: resolves the names set on {@link Ingredients} rows to their {@link Ingredient}
+ * dictionary entries, adding the names that are new. Names are trimmed. Ids of known names are cached, so a write
+ * with known ingredients does not read the dictionary.
+ * <p>
+ * New names are added in the transaction of the write, which holds a single connection. A concurrent write adding
+ * the same name waits for this one and then reads its entry; names are added in sorted order, so two writes never
+ * wait for each other. Ids are cached once the write has committed.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class IngredientDictionary {
+
+    private final IngredientRepository ingredientRepository;
+
+    private final Cache<String, Integer> ids;
+
+    public IngredientDictionary(IngredientRepository ingredientRepository,
+                                @Value("${recipe.ingredients.cache-size:100000}") long cacheSize) {
+        this.ingredientRepository = ingredientRepository;
+        this.ids = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * Points every row with an unresolved name at the dictionary entry of that name. Must be called within the
+     * transaction that writes the rows; rows without a name are left alone.
+     */
+    public void intern(Collection<Ingredients> ingredients) {
+        if (ingredients == null) {
+            return;
+        }
+        Map<String, Integer> resolved = new HashMap<>();
+        Set<String> unknown = new TreeSet<>();
+        for (Ingredients ingredient : ingredients) {
+            if (isUnresolved(ingredient)) {
+                String name = normalize(ingredient.getIngredientName());
+                Integer id = ids.getIfPresent(name);
+                if (id == null) {
+                    unknown.add(name);
+                } else {
+                    resolved.put(name, id);
+                }
+            }
+        }
+        if (!unknown.isEmpty()) {
+            resolved.putAll(load(unknown));
+        }
+        for (Ingredients ingredient : ingredients) {
+            if (isUnresolved(ingredient)) {
+                Integer id = resolved.get(normalize(ingredient.getIngredientName()));
+                if (id == null) {
+                    throw new IllegalStateException("Ingredient " + ingredient.getIngredientName() + " is not in the dictionary after adding it");
+                }
+                // a reference, the entry itself is not read
+                ingredient.setIngredient(ingredientRepository.getReferenceById(id));
+            }
+        }
+    }
+
+    static String normalize(String name) {
+        return name.trim();
+    }
+
+    private static boolean isUnresolved(Ingredients ingredient) {
+        return ingredient.getIngredient() == null && ingredient.getIngredientName() != null;
+    }
+
+    private Map<String, Integer> load(Set<String> names) {
+        Map<String, Integer> loaded = read(names);
+
+        List<String> added = new ArrayList<>();
+        for (String name : names) {
+            if (!loaded.containsKey(name)) {
+                added.add(name);
+            }
+        }
+        if (!added.isEmpty()) {
+            ingredientRepository.addIfAbsent(added);
+            loaded.putAll(read(added));
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // entries added by this write are gone when it rolls back
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    ids.putAll(loaded);
+                }
+            });
+        } else {
+            ids.putAll(loaded);
+        }
+        return loaded;
+    }
+
+    private Map<String, Integer> read(Collection<String> names) {
+        Map<String, Integer> read = new HashMap<>();
+        ingredientRepository.findByNameIn(names).forEach(ingredient -> read.put(normalize(ingredient.getName()), ingredient.getId()));
+        return read;
+    }
+}
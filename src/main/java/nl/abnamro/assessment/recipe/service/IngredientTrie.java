@@ -0,0 +1,207 @@
+package nl.abnamro.assessment.recipe.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Prefix tree of ingredient names weighted by the number of recipes using them, for completing what a user is
+ * typing. The children of a node are kept in two arrays sorted by character instead of a map per node. Every node
+ * also holds the highest weight below it, so the most used completions of a prefix are found best first without
+ * visiting the whole subtree. The first {@link #CACHED_COMPLETIONS} completions found for a prefix are kept on its
+ * node until a name below it changes, so repeated keystrokes are answered without a search.
+ * <p>
+ * Not thread safe for writes, {@link RecipeSearchIndex} guards it with its lock. Concurrent completions may
+ * search and cache the same completions twice, which is harmless.
+ *
+ * @author Orhan Polat
+ */
+final class IngredientTrie {
+
+    static final int CACHED_COMPLETIONS = 10;
+
+    private static final char[] NO_KEYS = new char[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * Highest weight first; of equal weights the name first in alphabetical order, which a subtree can only hold
+     * when its path is not after the name.
+     */
+    private static final Comparator<Candidate> BEST_FIRST = Comparator.<Candidate>comparingInt(candidate -> -candidate.weight)
+            .thenComparing(candidate -> candidate.path)
+            .thenComparing(candidate -> candidate.node != null);
+
+    private final Node root = new Node();
+
+    private int size;
+
+    /**
+     * Adds {@code delta} to the weight of the name, a name whose weight drops to zero is removed.
+     */
+    void add(String name, int delta) {
+        add(root, name, 0, delta);
+    }
+
+    /**
+     * At most {@code limit} names starting with the prefix with their weights, highest weight first.
+     */
+    List<Map.Entry<String, Integer>> complete(String prefix, int limit) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        if (node == null || node.best == 0) {
+            return new ArrayList<>();
+        }
+        if (limit > CACHED_COMPLETIONS) {
+            return search(node, prefix, limit);
+        }
+        List<Map.Entry<String, Integer>> cached = node.completions;
+        if (cached == null) {
+            cached = List.copyOf(search(node, prefix, CACHED_COMPLETIONS));
+            node.completions = cached;
+        }
+        return new ArrayList<>(cached.subList(0, Math.min(limit, cached.size())));
+    }
+
+    /**
+     * Number of names with a weight.
+     */
+    int size() {
+        return size;
+    }
+
+    private static List<Map.Entry<String, Integer>> search(Node node, String prefix, int limit) {
+        List<Map.Entry<String, Integer>> completions = new ArrayList<>(Math.min(limit, 16));
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        candidates.add(new Candidate(prefix, node.best, node));
+        while (!candidates.isEmpty() && completions.size() < limit) {
+            Candidate candidate = candidates.poll();
+            if (candidate.node == null) {
+                completions.add(Map.entry(candidate.path, candidate.weight));
+                continue;
+            }
+            Node subtree = candidate.node;
+            if (subtree.weight > 0) {
+                candidates.add(new Candidate(candidate.path, subtree.weight, null));
+            }
+            for (int i = 0; i < subtree.keys.length; i++) {
+                // a chain of nodes with one child and no name is followed at once, it holds the same names
+                StringBuilder path = new StringBuilder(candidate.path).append(subtree.keys[i]);
+                Node child = subtree.children[i];
+                while (child.weight == 0 && child.keys.length == 1) {
+                    path.append(child.keys[0]);
+                    child = child.children[0];
+                }
+                candidates.add(new Candidate(path.toString(), child.best, child));
+            }
+        }
+        return completions;
+    }
+
+    private void add(Node node, String name, int depth, int delta) {
+        if (depth == name.length()) {
+            int weight = Math.max(node.weight + delta, 0);
+            if (node.weight == 0 && weight > 0) {
+                size++;
+            } else if (node.weight > 0 && weight == 0) {
+                size--;
+            }
+            node.weight = weight;
+        } else {
+            char key = name.charAt(depth);
+            int index = Arrays.binarySearch(node.keys, key);
+            if (index < 0) {
+                if (delta <= 0) {
+                    return;
+                }
+                index = node.insert(-index - 1, key);
+            }
+            Node child = node.children[index];
+            add(child, name, depth + 1, delta);
+            if (child.weight == 0 && child.keys.length == 0) {
+                node.delete(index);
+            }
+        }
+        node.completions = null;
+        node.best = node.weight;
+        for (Node child : node.children) {
+            node.best = Math.max(node.best, child.best);
+        }
+    }
+
+    private static final class Node {
+
+        private char[] keys = NO_KEYS;
+
+        private Node[] children = NO_CHILDREN;
+
+        /**
+         * Weight of the name ending here, 0 when no name does.
+         */
+        private int weight;
+
+        /**
+         * Highest weight of this node and the nodes below it.
+         */
+        private int best;
+
+        /**
+         * The first completions of the path to this node, {@code null} when not searched since the last change.
+         */
+        private volatile List<Map.Entry<String, Integer>> completions;
+
+        private Node child(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : children[index];
+        }
+
+        private int insert(int index, char key) {
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newKeys[index] = key;
+            newChildren[index] = new Node();
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            keys = newKeys;
+            children = newChildren;
+            return index;
+        }
+
+        private void delete(int index) {
+            char[] newKeys = new char[keys.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            keys = newKeys.length == 0 ? NO_KEYS : newKeys;
+            children = newChildren.length == 0 ? NO_CHILDREN : newChildren;
+        }
+    }
+
+    /**
+     * A name when {@code node} is {@code null}, else a subtree whose names all start with {@code path} and weigh at
+     * most {@code weight}.
+     */
+    private static final class Candidate {
+
+        private final String path;
+
+        private final int weight;
+
+        private final Node node;
+
+        private Candidate(String path, int weight, Node node) {
+            this.path = path;
+            this.weight = weight;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * MinHash signatures of ingredient sets: two recipes agree on a signature position with a probability equal to the
+ * Jaccard similarity of their lower cased ingredient names. Signatures are persisted, so the hash functions must
+ * never change; a change needs all {@code recipe.min_hash} values to be cleared so they are computed again.
+ *
+ * @author Orhan Polat
+ */
+final class MinHash {
+
+    static final int SIZE = 64;
+
+    /**
+     * Signatures are cut into bands of {@link #ROWS} positions, recipes sharing any band are candidates. With 16
+     * bands of 4 rows, recipes with a similarity of 0.5 are found with a probability of 0.64 and of 0.7 with 0.99.
+     */
+    static final int BANDS = 16;
+
+    static final int ROWS = SIZE / BANDS;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private MinHash() {
+    }
+
+    static Set<String> names(Collection<Ingredients> ingredients) {
+        Set<String> names = new HashSet<>();
+        if (ingredients != null) {
+            for (Ingredients ingredient : ingredients) {
+                if (ingredient.getIngredientName() != null) {
+                    names.add(ingredient.getIngredientName().trim().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Empty for an empty set, which is similar to nothing.
+     */
+    static int[] signature(Set<String> names) {
+        if (names.isEmpty()) {
+            return new int[0];
+        }
+        int[] signature = new int[SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (String name : names) {
+            long hash = fnv1a(name);
+            for (int i = 0; i < SIZE; i++) {
+                int value = (int) (mix(hash + (i + 1) * GOLDEN_GAMMA) >>> 32);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * One hash per band, or none for an empty signature.
+     */
+    static int[] bandHashes(int[] signature) {
+        if (signature.length == 0) {
+            return signature;
+        }
+        int[] hashes = new int[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            int hash = 1;
+            for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+                hash = 31 * hash + signature[row];
+            }
+            hashes[band] = hash;
+        }
+        return hashes;
+    }
+
+    static double jaccard(Set<String> first, Set<String> second) {
+        if (first.isEmpty() || second.isEmpty()) {
+            return 0;
+        }
+        int intersection = 0;
+        for (String name : first) {
+            if (second.contains(name)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (first.size() + second.size() - intersection);
+    }
+
+    static byte[] toBytes(int[] signature) {
+        ByteBuffer buffer = ByteBuffer.allocate(signature.length * Integer.BYTES);
+        buffer.asIntBuffer().put(signature);
+        return buffer.array();
+    }
+
+    static int[] fromBytes(byte[] bytes) {
+        int[] signature = new int[bytes.length / Integer.BYTES];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(signature);
+        return signature;
+    }
+
+    private static long fnv1a(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every input bit over the whole result.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb93fe1afbe53L;
+        return value ^ (value >>> 33);
+    }
+}
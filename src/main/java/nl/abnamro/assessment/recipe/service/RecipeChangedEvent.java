@@ -0,0 +1,65 @@
+package nl.abnamro.assessment.recipe.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Value;
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Published by {@link RecipeServiceImpl} for every recipe it writes. Listeners that keep derived state
+ * in memory should use {@code @TransactionalEventListener} so they only see committed changes.
+ *
+ * @author Orhan Polat
+ */
+@Getter
+@AllArgsConstructor
+public class RecipeChangedEvent {
+
+    private final Long recipeId;
+    private final ChangeType changeType;
+
+    /**
+     * The recipe as written, with its children loaded. {@code null} for deleted recipes.
+     */
+    private final Recipe recipe;
+
+    /**
+     * What searches matched the recipe on before the change. {@code null} for created recipes and when the
+     * writer did not read the recipe before replacing it.
+     */
+    private final SearchAttributes previous;
+
+    public RecipeChangedEvent(Long recipeId, ChangeType changeType, Recipe recipe) {
+        this(recipeId, changeType, recipe, null);
+    }
+
+    public RecipeChangedEvent(Long recipeId, ChangeType changeType) {
+        this(recipeId, changeType, null, null);
+    }
+
+    /**
+     * The attributes of a recipe the search criteria match on, ingredient names lower cased.
+     */
+    @Value
+    public static class SearchAttributes {
+        Boolean isVegetarian;
+        Integer servingNumber;
+        Set<String> ingredientNames;
+
+        public static SearchAttributes of(Recipe recipe) {
+            Set<String> ingredientNames = new HashSet<>();
+            for (Ingredients ingredient : recipe.getIngredients() == null ? Set.<Ingredients>of() : recipe.getIngredients()) {
+                if (ingredient.getIngredientName() != null) {
+                    ingredientNames.add(ingredient.getIngredientName().toLowerCase(Locale.ROOT));
+                }
+            }
+            return new SearchAttributes(recipe.getIsVegetarian(), recipe.getServingNumber(), ingredientNames);
+        }
+    }
+}
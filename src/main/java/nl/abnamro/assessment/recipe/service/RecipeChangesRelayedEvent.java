@@ -0,0 +1,21 @@
+package nl.abnamro.assessment.recipe.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Published by {@link RecipeEventRelay} for the changes it relays from the outbox, those of every node. Each change
+ * holds the recipe as it is in the primary when relayed, with its children loaded, or none when it is deleted by
+ * then. A change may be relayed after this node published a newer one of the same recipe; that one is relayed
+ * as well, so listeners replacing what they hold of the recipe end up with its last state.
+ *
+ * @author Orhan Polat
+ */
+@Getter
+@AllArgsConstructor
+public class RecipeChangesRelayedEvent {
+
+    private final List<RecipeChangedEvent> changes;
+}
@@ -0,0 +1,367 @@
+package nl.abnamro.assessment.recipe.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import nl.abnamro.assessment.recipe.component.ReplicaRoutingDataSource;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.domain.RecipeOutbox;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.model.RecipeEventDto;
+import nl.abnamro.assessment.recipe.repository.RecipeOutboxRepository;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tails the {@link RecipeOutbox} table and pushes every committed change to the event stream subscribers.
+ * <p>
+ * Writers only insert outbox rows, they never wait for subscribers. Every subscriber has a bounded queue that is
+ * drained by a small pool of sender threads; a subscriber too slow to keep its queue below the capacity is
+ * dropped and resumes from its {@code Last-Event-ID} when it reconnects. Delivery is at least once, subscribers
+ * may see a change twice.
+ * <p>
+ * The relayed changes are also published as a {@link RecipeChangesRelayedEvent}, so the in memory indexes follow
+ * the writes of the other nodes.
+ *
+ * @author Orhan Polat
+ */
+@Component
+@RequiredArgsConstructor
+public class RecipeEventRelay {
+
+    private static final Logger LOG = LogManager.getLogger(RecipeEventRelay.class);
+
+    public static final String RECIPE_EVENT = "recipe";
+
+    /**
+     * Sent instead of the missed changes when they are no longer retained, the subscriber has to sync again.
+     */
+    public static final String RESET_EVENT = "reset";
+
+    static final int PAGE_SIZE = 500;
+
+    private static final int SENDER_THREADS = 4;
+
+    private final RecipeOutboxRepository recipeOutboxRepository;
+
+    private final RecipeRepository recipeRepository;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${recipe.events.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${recipe.events.timeout-ms:1800000}")
+    private long timeoutMillis;
+
+    /**
+     * Longer than the longest write transaction plus the clock skew between the nodes and the replica lag.
+     */
+    @Value("${recipe.events.settle-ms:10000}")
+    private long settleMillis;
+
+    @Value("${recipe.events.retention-ms:3600000}")
+    private long retentionMillis;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolTaskExecutor senders;
+
+    private Counter droppedSubscribers;
+
+    /**
+     * Highest outbox id relayed so far, only used by the relay thread. Negative until the first run, which starts
+     * at the last row created before the settle time so rows committing late at startup are relayed as well.
+     */
+    private long relayedUpTo = -1;
+
+    /**
+     * Ids at or below {@link #relayedUpTo} relayed within the settle time, so rows committed late are relayed once.
+     */
+    private final Map<Long, Instant> recentlyRelayed = new HashMap<>();
+
+    @PostConstruct
+    public void start() {
+        senders = new ThreadPoolTaskExecutor();
+        senders.setCorePoolSize(SENDER_THREADS);
+        senders.setMaxPoolSize(SENDER_THREADS);
+        senders.setThreadNamePrefix("recipe-events-");
+        senders.setDaemon(true);
+        senders.initialize();
+        meterRegistry.gauge("recipe.events.subscribers", subscribers, Set::size);
+        droppedSubscribers = meterRegistry.counter("recipe.events.dropped");
+    }
+
+    @PreDestroy
+    public void stop() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+        senders.shutdown();
+    }
+
+    /**
+     * Registers a subscriber. With a {@code lastEventId} the changes after it are sent first, or a
+     * {@link #RESET_EVENT} when they are no longer retained or more than fit in the queue of the subscriber.
+     * Changes relayed meanwhile are held back until then, so they never overtake the missed ones.
+     * <p>
+     * The id of the reset event is the last change created before the settle time: a subscriber resuming from it
+     * also gets the changes that were still committing when it was reset.
+     */
+    public SseEmitter subscribe(Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, lastEventId != null);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        // registered before reading the missed changes, so nothing committed in between is lost
+        subscribers.add(subscriber);
+
+        if (lastEventId != null) {
+            Instant settledBefore = Instant.now().minusMillis(settleMillis);
+            List<RecipeOutbox> missed = findMissed(lastEventId, settledBefore);
+            if (missed == null) {
+                long resetId = recipeOutboxRepository.findMaxIdCreatedBefore(settledBefore)
+                        .or(recipeOutboxRepository::findMaxId)
+                        .orElse(lastEventId);
+                subscriber.replay(SseEmitter.event().id(String.valueOf(resetId)).name(RESET_EVENT).data(RESET_EVENT), List.of());
+            } else {
+                subscriber.replay(null, missed);
+            }
+        }
+        return emitter;
+    }
+
+    private List<RecipeOutbox> findMissed(long lastEventId, Instant settledBefore) {
+        if (!recipeOutboxRepository.existsById(lastEventId)) {
+            // purged, changes after it may be purged as well
+            return null;
+        }
+        List<RecipeOutbox> missed = new ArrayList<>(recipeOutboxRepository.findCommittedLate(lastEventId, settledBefore,
+                PageRequest.of(0, queueCapacity + 1)));
+        missed.removeIf(row -> row.getId() == lastEventId);
+        missed.addAll(recipeOutboxRepository.findAfter(lastEventId, PageRequest.of(0, queueCapacity + 1)));
+        return missed.size() > queueCapacity ? null : missed;
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.events.poll-ms:500}", initialDelayString = "${recipe.events.initial-delay-ms:0}")
+    public void relay() {
+        Instant settledBefore = Instant.now().minusMillis(settleMillis);
+        if (relayedUpTo < 0) {
+            relayedUpTo = recipeOutboxRepository.findMaxIdCreatedBefore(settledBefore).orElse(0L);
+        }
+        recentlyRelayed.values().removeIf(createdAt -> createdAt.isBefore(settledBefore));
+
+        relayCommittedLate(settledBefore);
+        List<RecipeOutbox> rows;
+        do {
+            rows = recipeOutboxRepository.findAfter(relayedUpTo, PageRequest.of(0, PAGE_SIZE));
+            for (RecipeOutbox row : rows) {
+                publish(row);
+                relayedUpTo = row.getId();
+            }
+            publishToListeners(rows);
+        } while (rows.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Pages through the ids at or below {@link #relayedUpTo} created within the settle time and relays the rows
+     * of those that have not been.
+     */
+    private void relayCommittedLate(Instant settledBefore) {
+        long afterId = 0;
+        List<Long> ids;
+        do {
+            ids = recipeOutboxRepository.findIdsCommittedLate(afterId, relayedUpTo, settledBefore, PageRequest.of(0, PAGE_SIZE));
+            List<Long> unrelayed = new ArrayList<>();
+            for (Long id : ids) {
+                if (!recentlyRelayed.containsKey(id)) {
+                    unrelayed.add(id);
+                }
+                afterId = id;
+            }
+            if (!unrelayed.isEmpty()) {
+                List<RecipeOutbox> rows = new ArrayList<>(recipeOutboxRepository.findAllById(unrelayed));
+                rows.sort(Comparator.comparing(RecipeOutbox::getId));
+                rows.forEach(this::publish);
+                publishToListeners(rows);
+            }
+        } while (ids.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Publishes the rows with the recipes as they are now, read from the primary: the replicas may not have
+     * replayed the writes yet.
+     */
+    private void publishToListeners(List<RecipeOutbox> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Map<Long, ChangeType> changed = new LinkedHashMap<>();
+        rows.forEach(row -> changed.put(row.getRecipeId(), row.getChangeType()));
+        Map<Long, Recipe> recipes = new HashMap<>();
+        ReplicaRoutingDataSource.pinToPrimary();
+        try {
+            recipeRepository.findByIdIn(changed.keySet()).forEach(recipe -> recipes.put(recipe.getId(), recipe));
+        } finally {
+            ReplicaRoutingDataSource.unpin();
+        }
+        List<RecipeChangedEvent> changes = new ArrayList<>(changed.size());
+        changed.forEach((recipeId, changeType) -> {
+            Recipe recipe = recipes.get(recipeId);
+            changes.add(new RecipeChangedEvent(recipeId, recipe == null ? ChangeType.DELETED : changeType, recipe));
+        });
+        eventPublisher.publishEvent(new RecipeChangesRelayedEvent(changes));
+    }
+
+    @Scheduled(fixedDelayString = "${recipe.events.purge-ms:60000}", initialDelayString = "${recipe.events.initial-delay-ms:0}")
+    public void purge() {
+        int purged = recipeOutboxRepository.deleteCreatedBefore(Instant.now().minusMillis(retentionMillis));
+        if (purged > 0) {
+            LOG.info("Purged {} recipe outbox rows", purged);
+        }
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void publish(RecipeOutbox row) {
+        recentlyRelayed.put(row.getId(), row.getCreatedAt());
+        for (Subscriber subscriber : subscribers) {
+            subscriber.publish(row);
+        }
+    }
+
+    private static SseEmitter.SseEventBuilder toEvent(RecipeOutbox row) {
+        return SseEmitter.event()
+                .id(String.valueOf(row.getId()))
+                .name(RECIPE_EVENT)
+                .data(RecipeEventDto.builder()
+                        .recipeId(row.getRecipeId())
+                        .changeType(row.getChangeType())
+                        .occurredAt(row.getCreatedAt())
+                        .build(), MediaType.APPLICATION_JSON);
+    }
+
+    private void drop(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            LOG.warn("Dropped a recipe event subscriber that fell {} events behind", queueCapacity);
+            droppedSubscribers.increment();
+            subscriber.emitter.complete();
+        }
+    }
+
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final BlockingQueue<SseEmitter.SseEventBuilder> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        /**
+         * Rows relayed while the missed changes are read, {@code null} once those have been sent.
+         */
+        private List<RecipeOutbox> heldBack;
+
+        private Subscriber(SseEmitter emitter, boolean resuming) {
+            this.emitter = emitter;
+            this.heldBack = resuming ? new ArrayList<>() : null;
+        }
+
+        private void publish(RecipeOutbox row) {
+            synchronized (this) {
+                if (heldBack != null) {
+                    heldBack.add(row);
+                    return;
+                }
+            }
+            offer(toEvent(row));
+        }
+
+        /**
+         * Sends the reset event or the missed changes, then the rows held back that were not among them.
+         */
+        private synchronized void replay(SseEmitter.SseEventBuilder reset, List<RecipeOutbox> missed) {
+            if (reset != null) {
+                offer(reset);
+            }
+            Set<Long> sent = new HashSet<>();
+            for (RecipeOutbox row : missed) {
+                sent.add(row.getId());
+                offer(toEvent(row));
+            }
+            for (RecipeOutbox row : heldBack) {
+                if (sent.add(row.getId())) {
+                    offer(toEvent(row));
+                }
+            }
+            heldBack = null;
+        }
+
+        private void offer(SseEmitter.SseEventBuilder event) {
+            if (!queue.offer(event)) {
+                drop(this);
+                return;
+            }
+            scheduleSend();
+        }
+
+        private void scheduleSend() {
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::send);
+                } catch (TaskRejectedException e) {
+                    sending.set(false);
+                }
+            }
+        }
+
+        private void send() {
+            try {
+                SseEmitter.SseEventBuilder event;
+                while ((event = queue.poll()) != null) {
+                    emitter.send(event);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone or the emitter completed, the container completes the request
+                subscribers.remove(this);
+                queue.clear();
+            } finally {
+                sending.set(false);
+            }
+            if (!queue.isEmpty() && subscribers.contains(this)) {
+                scheduleSend();
+            }
+        }
+    }
+}
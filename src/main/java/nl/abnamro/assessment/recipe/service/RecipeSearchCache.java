@@ -0,0 +1,272 @@
+package nl.abnamro.assessment.recipe.service;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.Value;
+import nl.abnamro.assessment.recipe.component.ReplicaRoutingDataSource;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caches search results as pages of recipe ids, keyed on an order independent form of the criteria.
+ * The recipes themselves are read back from the {@link RecipeServiceImpl#RECIPE_CACHE} cache.
+ * <p>
+ * Every criterion of a key carries the generation of the values it matches on: the {@code isVegetarian} flag, the
+ * {@code servingNumber} at least and the {@code ingredientName} contained. A committed write starts a new generation
+ * for the values the old and the new state of the recipe have, a recipe in or entering a result then ends the
+ * generation of every criterion of it. A result stays in use while one of its criteria is unchanged and ages out of
+ * the bounded cache otherwise. Other criteria, and searches without criteria, change with every write.
+ * <p>
+ * With read replicas a read that is not pinned to the primary may miss the writes of the last
+ * {@code recipe.datasource.pin-ms}, the time the replicas are given to replay them. Such reads are not cached
+ * until that time has passed since the last write of this node, see {@link #mayCache()}.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class RecipeSearchCache {
+
+    public static final String RECIPE_SEARCH_CACHE = "recipeSearch";
+
+    /**
+     * Most ingredient name parts searched for that have a generation, the least recently searched are forgotten.
+     */
+    static final int MAX_INGREDIENT_TERMS = 1_000;
+
+    private final Cache searchCache;
+
+    private final Cache recipeCache;
+
+    private final boolean replicas;
+
+    private final long pinMillis;
+
+    /**
+     * Generation of the last write.
+     */
+    private long generation;
+
+    /**
+     * Generation of the last write that did not tell what the recipe was before, every criterion changed with it.
+     */
+    private long everythingChanged;
+
+    private volatile long lastWriteMillis;
+
+    private final Map<Boolean, Long> vegetarian = new HashMap<>();
+
+    private final TreeMap<Integer, Long> servingNumber = new TreeMap<>();
+
+    /**
+     * A part forgotten is searched for again in the current generation, which is not the one of the results cached
+     * for it if it has been written since.
+     */
+    private final Map<String, Long> ingredientName = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_INGREDIENT_TERMS;
+        }
+    };
+
+    public RecipeSearchCache(CacheManager cacheManager,
+                             @org.springframework.beans.factory.annotation.Value("${recipe.datasource.replica-urls:}") String replicaUrls,
+                             @org.springframework.beans.factory.annotation.Value("${recipe.datasource.pin-ms:5000}") long pinMillis) {
+        this.searchCache = cacheManager.getCache(RECIPE_SEARCH_CACHE);
+        this.recipeCache = cacheManager.getCache(RecipeServiceImpl.RECIPE_CACHE);
+        this.replicas = !replicaUrls.isBlank();
+        this.pinMillis = pinMillis;
+    }
+
+    /**
+     * Must be called before the search reads the database, so a result that raced with a write is stored
+     * under the generations that write has already ended.
+     */
+    public SearchKey key(List<SearchCriteria> criteriaList, RecipeSort sort, String after, int limit) {
+        TreeMap<String, SearchCriteria> normalized = new TreeMap<>();
+        for (SearchCriteria searchCriteria : criteriaList) {
+            Object value = searchCriteria.getValue();
+            if (SearchOperation.CONTAINS.equals(searchCriteria.getOperation())
+                    || SearchOperation.NOT_CONTAINS.equals(searchCriteria.getOperation())) {
+                // matched case insensitively by RecipeSpecification
+                value = String.valueOf(value).toLowerCase(Locale.ROOT);
+            }
+            String criterion = searchCriteria.getKey() + '\u0000' + searchCriteria.getOperation() + '\u0000' + value;
+            normalized.putIfAbsent(criterion, new SearchCriteria(searchCriteria.getKey(), searchCriteria.getOperation(), value));
+        }
+        List<SearchCriteria> tracked = new ArrayList<>(normalized.values());
+        synchronized (this) {
+            return new SearchKey(new ArrayList<>(normalized.keySet()), sort, after, limit, tracked, generations(tracked), generation);
+        }
+    }
+
+    public RecipeIdPage get(SearchKey key) {
+        Entry entry = searchCache.get(key, Entry.class);
+        return entry != null && anyEqual(entry.generations, key.generations) ? entry.page : null;
+    }
+
+    /**
+     * Skipped once the generations of every criterion of the key have ended: the page may then hold recipes read
+     * before a write, and putting them back would undo the eviction of that write.
+     */
+    public void put(SearchKey key, RecipePageDto page) {
+        long[] current;
+        synchronized (this) {
+            current = generations(key.tracked);
+        }
+        if (!anyEqual(current, key.generations) || !mayCache()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(page.getRecipes().size());
+        for (RecipeDto recipe : page.getRecipes()) {
+            ids.add(recipe.getId());
+            putRecipe(key, recipe);
+        }
+        searchCache.put(key, new Entry(key.generations, new RecipeIdPage(ids, page.getNextCursor())));
+    }
+
+    public RecipeDto getRecipe(Long recipeId) {
+        return recipeCache.get(recipeId, RecipeDto.class);
+    }
+
+    /**
+     * Skipped after any write, the recipe may be the one written.
+     */
+    public void putRecipe(SearchKey key, RecipeDto recipe) {
+        synchronized (this) {
+            if (key.lastWrite != generation) {
+                return;
+            }
+        }
+        if (mayCache()) {
+            recipeCache.put(recipe.getId(), recipe);
+        }
+    }
+
+    /**
+     * Whether what the current thread has just read may be cached: it was read from the primary, or the replicas
+     * have had the pin time to replay the last write of this node. Must be asked after the read.
+     */
+    public boolean mayCache() {
+        return !replicas || ReplicaRoutingDataSource.isPinnedToPrimary() || System.currentTimeMillis() - lastWriteMillis >= pinMillis;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onRecipeChanged(RecipeChangedEvent event) {
+        lastWriteMillis = System.currentTimeMillis();
+        generation++;
+        if (event.getPrevious() == null && !ChangeType.CREATED.equals(event.getChangeType())) {
+            everythingChanged = generation;
+            return;
+        }
+        changed(event.getPrevious());
+        if (event.getRecipe() != null) {
+            changed(RecipeChangedEvent.SearchAttributes.of(event.getRecipe()));
+        }
+    }
+
+    private void changed(RecipeChangedEvent.SearchAttributes attributes) {
+        if (attributes == null) {
+            return;
+        }
+        if (attributes.getIsVegetarian() != null) {
+            vegetarian.put(attributes.getIsVegetarian(), generation);
+        }
+        if (attributes.getServingNumber() != null) {
+            servingNumber.put(attributes.getServingNumber(), generation);
+        }
+        for (Map.Entry<String, Long> term : ingredientName.entrySet()) {
+            for (String name : attributes.getIngredientNames()) {
+                if (name.contains(term.getKey())) {
+                    term.setValue(generation);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The generation of every criterion, or of the last write for a search without criteria.
+     */
+    private long[] generations(List<SearchCriteria> criteriaList) {
+        if (criteriaList.isEmpty()) {
+            return new long[]{generation};
+        }
+        long[] generations = new long[criteriaList.size()];
+        for (int i = 0; i < generations.length; i++) {
+            generations[i] = Math.max(generation(criteriaList.get(i)), everythingChanged);
+        }
+        return generations;
+    }
+
+    private long generation(SearchCriteria criteria) {
+        if ("isVegetarian".equals(criteria.getKey()) && SearchOperation.EQUALITY.equals(criteria.getOperation())
+                && criteria.getValue() instanceof Boolean) {
+            return vegetarian.getOrDefault(criteria.getValue(), 0L);
+        }
+        if ("servingNumber".equals(criteria.getKey()) && SearchOperation.GREATER_THAN_OR_EQUAL.equals(criteria.getOperation())
+                && criteria.getValue() instanceof Integer) {
+            long last = 0;
+            for (Long changed : servingNumber.tailMap((Integer) criteria.getValue()).values()) {
+                last = Math.max(last, changed);
+            }
+            return last;
+        }
+        if ("ingredientName".equals(criteria.getKey()) && SearchOperation.CONTAINS.equals(criteria.getOperation())) {
+            return ingredientName.computeIfAbsent((String) criteria.getValue(), term -> generation);
+        }
+        return generation;
+    }
+
+    private static boolean anyEqual(long[] generations, long[] others) {
+        for (int i = 0; i < generations.length; i++) {
+            if (generations[i] == others[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Value
+    public static class SearchKey {
+        List<String> criteria;
+        RecipeSort sort;
+        String after;
+        int limit;
+
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        List<SearchCriteria> tracked;
+
+        @EqualsAndHashCode.Exclude
+        long[] generations;
+
+        @EqualsAndHashCode.Exclude
+        long lastWrite;
+    }
+
+    @Value
+    public static class RecipeIdPage {
+        List<Long> ids;
+        String nextCursor;
+    }
+
+    @Value
+    private static class Entry {
+        long[] generations;
+        RecipeIdPage page;
+    }
+}
@@ -0,0 +1,570 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.enums.SortField;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In memory index of the recipe attributes most searches filter on: compressed bitmaps of recipe ids per
+ * vegetarian flag, per serving number and per ingredient name (lower cased). Searches on those attributes only
+ * are answered with bitmap operations, the database is only read to load the recipes of the requested page.
+ * Ingredient names being typed are completed from an {@link IngredientTrie} of the names in use.
+ * <p>
+ * The index is built when the application is ready and follows the committed writes of this node through
+ * {@link RecipeChangedEvent}, and those of every node through the {@link RecipeChangesRelayedEvent} of the outbox
+ * relay, a few hundred milliseconds later. Until it is built, or when it is disabled with {@code recipe.search-index.enabled},
+ * {@link #search} and {@link #facets} return {@code null} and the caller falls back to the database.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class RecipeSearchIndex {
+
+    private static final Logger LOG = LogManager.getLogger(RecipeSearchIndex.class);
+
+    static final int FACET_INGREDIENTS = 20;
+
+    /**
+     * Largest share of the ingredients covered first, then fewest missing ingredients, then lowest id.
+     */
+    private static final Comparator<PantryMatch> PANTRY_RANKING = ((Comparator<PantryMatch>) (a, b) ->
+            Long.compare((long) b.getCovered() * a.getTotal(), (long) a.getCovered() * b.getTotal()))
+            .thenComparingInt(match -> match.getTotal() - match.getCovered())
+            .thenComparingLong(PantryMatch::getRecipeId);
+
+    private final RecipeRepository recipeRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final RoaringBitmap all = new RoaringBitmap();
+
+    private final Map<Boolean, RoaringBitmap> byVegetarian = new HashMap<>();
+
+    private final TreeMap<Integer, RoaringBitmap> byServingNumber = new TreeMap<>();
+
+    private final Map<String, RoaringBitmap> byIngredient = new HashMap<>();
+
+    /**
+     * Recipes per number of distinct ingredients, a pantry search skips the recipes with more ingredients than
+     * the pantry can cover.
+     */
+    private final TreeMap<Integer, RoaringBitmap> byIngredientCount = new TreeMap<>();
+
+    /**
+     * Dense ids of the ingredient names, so the ingredients of a recipe are an int array checked against a bit set.
+     */
+    private final Map<String, Integer> ingredientIds = new HashMap<>();
+
+    private final List<String> ingredientNames = new ArrayList<>();
+
+    /**
+     * The ingredient names in use weighted by their number of recipes, for completing names being typed.
+     */
+    private final IngredientTrie ingredientTrie = new IngredientTrie();
+
+    /**
+     * What is indexed per recipe, indexed by recipe id, so a change can take the recipe out of the bitmaps it was
+     * in and a pantry search can read its ingredients without a lookup.
+     */
+    private Document[] documents = new Document[1024];
+
+    private final IndexLifecycle lifecycle;
+
+    /**
+     * Set when a recipe id does not fit the int bitmaps, the index is not used any more.
+     */
+    private boolean overflowed;
+
+    public RecipeSearchIndex(RecipeRepository recipeRepository, TransactionTemplate transactionTemplate,
+                             @Value("${recipe.search-index.enabled:true}") boolean enabled) {
+        this.recipeRepository = recipeRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.lifecycle = new IndexLifecycle("search", "searches keep using the database", enabled,
+                lock.writeLock(), this::apply);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long start = System.currentTimeMillis();
+        boolean ready = lifecycle.build(() -> transactionTemplate.executeWithoutResult(status -> {
+            List<Recipe> chunk = new ArrayList<>(Recipe.BATCH_SIZE);
+            try (Stream<Recipe> recipes = recipeRepository.streamAll(RecipeServiceImpl.EXPORT_FETCH_SIZE)) {
+                Iterator<Recipe> iterator = recipes.iterator();
+                while (iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                    if (chunk.size() == Recipe.BATCH_SIZE || !iterator.hasNext()) {
+                        lock.writeLock().lock();
+                        try {
+                            chunk.forEach(recipe -> add(recipe.getId(), toDocument(recipe)));
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                        chunk.clear();
+                        recipeRepository.detachAll();
+                    }
+                }
+            }
+        }), () -> !overflowed);
+        if (ready) {
+            LOG.info("Indexed {} recipes for search in {} ms", all.getLongCardinality(), System.currentTimeMillis() - start);
+        }
+    }
+
+    @Scheduled(fixedDelay = IndexLifecycle.RETRY_POLL_MILLIS)
+    public void retryBuild() {
+        if (lifecycle.retryDue(System.currentTimeMillis())) {
+            build();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecipeChanged(RecipeChangedEvent event) {
+        lifecycle.onRecipeChanged(event);
+    }
+
+    @EventListener
+    public void onChangesRelayed(RecipeChangesRelayedEvent event) {
+        event.getChanges().forEach(lifecycle::onRecipeChanged);
+    }
+
+    /**
+     * The criteria this index answers: {@code isVegetarian} equality, {@code servingNumber} at least and
+     * {@code ingredientName} contains and not contains, matched case insensitively on the whole name like the
+     * database does.
+     */
+    public boolean supports(List<SearchCriteria> criteriaList) {
+        for (SearchCriteria criteria : criteriaList) {
+            if ("isVegetarian".equals(criteria.getKey()) && SearchOperation.EQUALITY.equals(criteria.getOperation())
+                    && criteria.getValue() instanceof Boolean) {
+                continue;
+            }
+            if ("servingNumber".equals(criteria.getKey()) && SearchOperation.GREATER_THAN_OR_EQUAL.equals(criteria.getOperation())
+                    && criteria.getValue() instanceof Integer) {
+                continue;
+            }
+            if ("ingredientName".equals(criteria.getKey()) && (SearchOperation.CONTAINS.equals(criteria.getOperation())
+                    || SearchOperation.NOT_CONTAINS.equals(criteria.getOperation()))) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The sorts this index answers: on id and on serving number. Names are left to the database, which may
+     * collate them differently than Java compares them, and the cursors of both must agree.
+     */
+    public boolean supports(RecipeSort sort) {
+        return sort.getField() != SortField.NAME;
+    }
+
+    /**
+     * Ids of the page of matching recipes after the cursor in the order of the sort, or {@code null} when the
+     * index cannot answer the criteria or the sort.
+     */
+    public RecipeSearchCache.RecipeIdPage search(List<SearchCriteria> criteriaList, RecipeSort sort, RecipeSort.Cursor after, int pageSize) {
+        if (!lifecycle.isReady() || !supports(criteriaList) || !supports(sort)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (!lifecycle.isReady()) {
+                return null;
+            }
+            RoaringBitmap matches = match(criteriaList);
+            return RecipeSort.BY_ID.equals(sort) ? pageById(matches, after, pageSize) : pageBySort(matches, sort, after, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The bitmap is in id order already, the page is read from the cursor on.
+     */
+    private static RecipeSearchCache.RecipeIdPage pageById(RoaringBitmap matches, RecipeSort.Cursor after, int pageSize) {
+        List<Long> ids = new ArrayList<>(pageSize);
+        PeekableIntIterator iterator = matches.getIntIterator();
+        if (after != null) {
+            if (after.getId() >= Integer.MAX_VALUE) {
+                return new RecipeSearchCache.RecipeIdPage(ids, null);
+            }
+            iterator.advanceIfNeeded((int) Math.max(after.getId() + 1, 0));
+        }
+        String nextCursor = null;
+        while (iterator.hasNext()) {
+            long id = iterator.next();
+            if (ids.size() == pageSize) {
+                nextCursor = RecipeSort.BY_ID.encode(new RecipeSort.Cursor(null, ids.get(pageSize - 1)));
+                break;
+            }
+            ids.add(id);
+        }
+        return new RecipeSearchCache.RecipeIdPage(ids, nextCursor);
+    }
+
+    /**
+     * Keeps the first {@code pageSize + 1} matches after the cursor in a heap with the last of them on top, so
+     * the matches are not sorted as a whole; the extra one tells whether another page follows.
+     */
+    private RecipeSearchCache.RecipeIdPage pageBySort(RoaringBitmap matches, RecipeSort sort, RecipeSort.Cursor after, int pageSize) {
+        Comparator<RecipeSort.Cursor> order = sort.comparator();
+        PriorityQueue<RecipeSort.Cursor> first = new PriorityQueue<>(pageSize + 1, order.reversed());
+        IntIterator iterator = matches.getIntIterator();
+        while (iterator.hasNext()) {
+            int id = iterator.next();
+            RecipeSort.Cursor position = new RecipeSort.Cursor(sort.getField() == SortField.SERVING_NUMBER ? documents[id].servingNumber : null, id);
+            if (after != null && order.compare(position, after) <= 0) {
+                continue;
+            }
+            if (first.size() <= pageSize) {
+                first.add(position);
+            } else if (order.compare(position, first.peek()) < 0) {
+                first.poll();
+                first.add(position);
+            }
+        }
+
+        List<RecipeSort.Cursor> page = new ArrayList<>(first);
+        page.sort(order);
+        String nextCursor = null;
+        if (page.size() > pageSize) {
+            page = page.subList(0, pageSize);
+            nextCursor = sort.encode(page.get(pageSize - 1));
+        }
+        List<Long> ids = new ArrayList<>(page.size());
+        page.forEach(position -> ids.add(position.getId()));
+        return new RecipeSearchCache.RecipeIdPage(ids, nextCursor);
+    }
+
+    /**
+     * Number of matching recipes per vegetarian flag, per serving number and for the most used ingredients,
+     * or {@code null} when the index cannot answer the criteria.
+     */
+    public RecipeFacetsDto facets(List<SearchCriteria> criteriaList) {
+        if (!lifecycle.isReady() || !supports(criteriaList)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (!lifecycle.isReady()) {
+                return null;
+            }
+            RoaringBitmap matches = match(criteriaList);
+
+            Map<Boolean, Long> vegetarian = new LinkedHashMap<>();
+            for (Boolean flag : List.of(Boolean.TRUE, Boolean.FALSE)) {
+                RoaringBitmap bitmap = byVegetarian.get(flag);
+                vegetarian.put(flag, bitmap == null ? 0L : RoaringBitmap.andCardinality(matches, bitmap));
+            }
+            Map<Integer, Long> servingNumber = new LinkedHashMap<>();
+            byServingNumber.forEach((number, bitmap) -> {
+                long count = RoaringBitmap.andCardinality(matches, bitmap);
+                if (count > 0) {
+                    servingNumber.put(number, count);
+                }
+            });
+            List<Map.Entry<String, Long>> ingredientCounts = new ArrayList<>();
+            byIngredient.forEach((name, bitmap) -> {
+                long count = RoaringBitmap.andCardinality(matches, bitmap);
+                if (count > 0) {
+                    ingredientCounts.add(Map.entry(name, count));
+                }
+            });
+            ingredientCounts.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                    .thenComparing(Map.Entry.comparingByKey()));
+            Map<String, Long> ingredientName = new LinkedHashMap<>();
+            ingredientCounts.stream().limit(FACET_INGREDIENTS).forEach(entry -> ingredientName.put(entry.getKey(), entry.getValue()));
+
+            return RecipeFacetsDto.builder()
+                    .total(matches.getLongCardinality())
+                    .isVegetarian(vegetarian)
+                    .servingNumber(servingNumber)
+                    .ingredientName(ingredientName)
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * At most {@code limit} ingredient names in use starting with the prefix, lower cased, with their number of
+     * recipes, the most used first, or {@code null} when the index is not available.
+     */
+    public Map<String, Long> suggestIngredients(String prefix, int limit) {
+        if (!lifecycle.isReady()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (!lifecycle.isReady()) {
+                return null;
+            }
+            Map<String, Long> suggestions = new LinkedHashMap<>();
+            ingredientTrie.complete(prefix.stripLeading().toLowerCase(Locale.ROOT), limit)
+                    .forEach(completion -> suggestions.put(completion.getKey(), completion.getValue().longValue()));
+            return suggestions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recipes matching the criteria whose ingredients are all in the pantry but at most {@code maxMissing},
+     * best covered first, or {@code null} when the index cannot answer the criteria. Ingredients are matched on
+     * their whole name, case insensitively. Recipes sharing no ingredient with the pantry are left out.
+     */
+    public List<PantryMatch> coveredBy(Collection<String> pantry, int maxMissing, List<SearchCriteria> criteriaList, int limit) {
+        if (!lifecycle.isReady() || !supports(criteriaList)) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (!lifecycle.isReady()) {
+                return null;
+            }
+            BitSet pantryIds = new BitSet(ingredientNames.size());
+            List<RoaringBitmap> postings = new ArrayList<>(pantry.size());
+            for (String name : pantry) {
+                String ingredient = name.trim().toLowerCase(Locale.ROOT);
+                Integer ingredientId = ingredientIds.get(ingredient);
+                RoaringBitmap posting = byIngredient.get(ingredient);
+                if (ingredientId != null && posting != null && !pantryIds.get(ingredientId)) {
+                    pantryIds.set(ingredientId);
+                    postings.add(posting);
+                }
+            }
+            RoaringBitmap candidates = RoaringBitmap.or(postings.iterator());
+            // a recipe needing more ingredients than the pantry has plus the missing ones allowed can not match,
+            // allowing more missing ones than any recipe has changes nothing and would overflow the sum
+            int allowedMissing = byIngredientCount.isEmpty() ? 0 : Math.min(maxMissing, byIngredientCount.lastKey());
+            candidates.and(RoaringBitmap.or(byIngredientCount.headMap(pantryIds.cardinality() + allowedMissing, true).values().iterator()));
+            if (!criteriaList.isEmpty()) {
+                candidates.and(match(criteriaList));
+            }
+
+            PriorityQueue<PantryMatch> best = new PriorityQueue<>(limit + 1, PANTRY_RANKING.reversed());
+            IntIterator iterator = candidates.getIntIterator();
+            while (iterator.hasNext()) {
+                int id = iterator.next();
+                int[] ingredients = documents[id].ingredients;
+                int missing = 0;
+                for (int i = 0; i < ingredients.length && missing <= maxMissing; i++) {
+                    if (!pantryIds.get(ingredients[i])) {
+                        missing++;
+                    }
+                }
+                if (missing <= maxMissing) {
+                    best.add(new PantryMatch(id, ingredients.length - missing, ingredients.length, null));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+
+            List<PantryMatch> matches = new ArrayList<>(best.size());
+            for (PantryMatch match : best) {
+                List<String> missingIngredients = new ArrayList<>();
+                for (int ingredient : documents[(int) match.getRecipeId()].ingredients) {
+                    if (!pantryIds.get(ingredient)) {
+                        missingIngredients.add(ingredientNames.get(ingredient));
+                    }
+                }
+                missingIngredients.sort(null);
+                matches.add(new PantryMatch(match.getRecipeId(), match.getCovered(), match.getTotal(), missingIngredients));
+            }
+            matches.sort(PANTRY_RANKING);
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isReady() {
+        return lifecycle.isReady();
+    }
+
+    /**
+     * Must be called with the read lock held.
+     */
+    private RoaringBitmap match(List<SearchCriteria> criteriaList) {
+        RoaringBitmap matches = all.clone();
+        for (SearchCriteria criteria : criteriaList) {
+            if ("isVegetarian".equals(criteria.getKey())) {
+                matches.and(byVegetarian.getOrDefault((Boolean) criteria.getValue(), new RoaringBitmap()));
+
+            } else if ("servingNumber".equals(criteria.getKey())) {
+                matches.and(RoaringBitmap.or(byServingNumber.tailMap((Integer) criteria.getValue()).values().iterator()));
+
+            } else {
+                String value = criteria.getValue().toString().toLowerCase(Locale.ROOT);
+                List<RoaringBitmap> containing = new ArrayList<>();
+                byIngredient.forEach((name, bitmap) -> {
+                    if (name.contains(value)) {
+                        containing.add(bitmap);
+                    }
+                });
+                if (SearchOperation.NOT_CONTAINS.equals(criteria.getOperation())) {
+                    matches.andNot(RoaringBitmap.or(containing.iterator()));
+                } else {
+                    matches.and(RoaringBitmap.or(containing.iterator()));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private void apply(RecipeChangedEvent event) {
+        if (event.getRecipe() == null) {
+            remove(event.getRecipeId());
+        } else {
+            add(event.getRecipeId(), toDocument(event.getRecipe()));
+        }
+    }
+
+    private void add(Long recipeId, Document document) {
+        if (recipeId > Integer.MAX_VALUE) {
+            // the bitmaps hold int ids, searches go to the database from now on
+            LOG.warn("Recipe id {} does not fit the search index, disabling it", recipeId);
+            overflowed = true;
+            lifecycle.stop();
+            return;
+        }
+        int id = recipeId.intValue();
+        remove(recipeId);
+        if (id >= documents.length) {
+            documents = Arrays.copyOf(documents, Math.max(id + 1, documents.length * 2));
+        }
+        documents[id] = document;
+        all.add(id);
+        if (document.vegetarian != null) {
+            byVegetarian.computeIfAbsent(document.vegetarian, key -> new RoaringBitmap()).add(id);
+        }
+        if (document.servingNumber != null) {
+            byServingNumber.computeIfAbsent(document.servingNumber, key -> new RoaringBitmap()).add(id);
+        }
+        for (int ingredient : document.ingredients) {
+            byIngredient.computeIfAbsent(ingredientNames.get(ingredient), key -> new RoaringBitmap()).add(id);
+            ingredientTrie.add(ingredientNames.get(ingredient), 1);
+        }
+        byIngredientCount.computeIfAbsent(document.ingredients.length, key -> new RoaringBitmap()).add(id);
+    }
+
+    private void remove(Long recipeId) {
+        if (recipeId > Integer.MAX_VALUE) {
+            return;
+        }
+        int id = recipeId.intValue();
+        Document document = id < documents.length ? documents[id] : null;
+        if (document == null) {
+            return;
+        }
+        documents[id] = null;
+        all.remove(id);
+        if (document.vegetarian != null) {
+            removeFrom(byVegetarian, document.vegetarian, id);
+        }
+        if (document.servingNumber != null) {
+            removeFrom(byServingNumber, document.servingNumber, id);
+        }
+        for (int ingredient : document.ingredients) {
+            removeFrom(byIngredient, ingredientNames.get(ingredient), id);
+            ingredientTrie.add(ingredientNames.get(ingredient), -1);
+        }
+        removeFrom(byIngredientCount, document.ingredients.length, id);
+    }
+
+    private static <K> void removeFrom(Map<K, RoaringBitmap> bitmaps, K key, int id) {
+        RoaringBitmap bitmap = bitmaps.get(key);
+        if (bitmap != null) {
+            bitmap.remove(id);
+            if (bitmap.isEmpty()) {
+                bitmaps.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private Document toDocument(Recipe recipe) {
+        Set<Integer> ingredients = new TreeSet<>();
+        if (recipe.getIngredients() != null) {
+            for (Ingredients ingredient : recipe.getIngredients()) {
+                if (ingredient.getIngredientName() != null) {
+                    ingredients.add(ingredientIds.computeIfAbsent(ingredient.getIngredientName().toLowerCase(Locale.ROOT), name -> {
+                        ingredientNames.add(name);
+                        return ingredientNames.size() - 1;
+                    }));
+                }
+            }
+        }
+        return new Document(recipe.getIsVegetarian(), recipe.getServingNumber(),
+                ingredients.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Coverage of a recipe by a pantry; {@code missingIngredients} are the lower cased names not in the pantry.
+     */
+    @lombok.Value
+    public static class PantryMatch {
+        long recipeId;
+        int covered;
+        int total;
+        List<String> missingIngredients;
+    }
+
+    private static final class Document {
+
+        private final Boolean vegetarian;
+
+        private final Integer servingNumber;
+
+        private final int[] ingredients;
+
+        private Document(Boolean vegetarian, Integer servingNumber, int[] ingredients) {
+            this.vegetarian = vegetarian;
+            this.servingNumber = servingNumber;
+            this.ingredients = ingredients;
+        }
+    }
+}
@@ -1,19 +1,58 @@
 package nl.abnamro.assessment.recipe.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
-import nl.abnamro.assessment.recipe.component.ObjectMapperUtils;
+import nl.abnamro.assessment.recipe.component.RecipeMapper;
+import nl.abnamro.assessment.recipe.component.RecipeMerger;
+import nl.abnamro.assessment.recipe.controller.BadRequestException;
 import nl.abnamro.assessment.recipe.controller.NotFoundException;
+import nl.abnamro.assessment.recipe.controller.PreconditionFailedException;
+import nl.abnamro.assessment.recipe.controller.ServiceUnavailableException;
 import nl.abnamro.assessment.recipe.domain.Ingredients;
-import nl.abnamro.assessment.recipe.domain.Instructions;
 import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.domain.RecipeOutbox;
+import nl.abnamro.assessment.recipe.domain.RecipeTombstone;
+import nl.abnamro.assessment.recipe.enums.BatchItemStatus;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.model.IngredientSuggestionDto;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeChangesDto;
 import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import nl.abnamro.assessment.recipe.model.RecipePantryMatchDto;
+import nl.abnamro.assessment.recipe.model.RecipeSimilarityDto;
+import nl.abnamro.assessment.recipe.model.RecipeTextMatchDto;
+import nl.abnamro.assessment.recipe.repository.RecipeOutboxRepository;
 import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import nl.abnamro.assessment.recipe.repository.RecipeTombstoneRepository;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 /**
@@ -21,30 +60,91 @@ import java.util.Set;
  */
 @Service
 @RequiredArgsConstructor
+@Timed(value = "recipe.service", histogram = true)
 public class RecipeServiceImpl implements IRecipeService{
 
     private static final Logger LOG = LogManager.getLogger(RecipeServiceImpl.class);
 
+    public static final String RECIPE_CACHE = "recipe";
+
+    static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Recipes saved per transaction by {@link #saveRecipes(List)}. Inserts are sent in JDBC batches of
+     * {@code hibernate.jdbc.batch_size} within each chunk.
+     */
+    static final int BATCH_CHUNK_SIZE = 500;
+
+    /**
+     * Rows fetched per round trip by {@link #exportRecipes(Consumer)}.
+     */
+    static final int EXPORT_FETCH_SIZE = 500;
+
+    /**
+     * Candidates of the similarity index ranked on their ingredients per similar recipe returned.
+     */
+    static final int SIMILAR_CANDIDATES_PER_RESULT = 5;
+
     private final RecipeRepository recipeRepository;
 
-    ObjectMapperUtils objectMapperUtils = new ObjectMapperUtils();
+    private final RecipeTombstoneRepository recipeTombstoneRepository;
+
+    private final RecipeOutboxRepository recipeOutboxRepository;
+
+    private final RecipeMapper recipeMapper;
+
+    private final RecipeMerger recipeMerger;
+
+    private final IngredientDictionary ingredientDictionary;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final RecipeSearchCache recipeSearchCache;
+
+    private final RecipeSearchIndex recipeSearchIndex;
+
+    private final RecipeSimilarityIndex recipeSimilarityIndex;
+
+    private final RecipeTextIndex recipeTextIndex;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Longer than the longest write transaction plus the clock skew between the nodes and, as the changes are read
+     * from the replicas, their replication lag. See {@link #findChanges}.
+     */
+    @Value("${recipe.events.settle-ms:10000}")
+    private long settleMillis;
 
     @Override
-    public Set<RecipeDto> findAll() {
+    @Transactional(readOnly = true)
+    public RecipePageDto findAll(RecipeSort sort, String after, int limit) {
         LOG.info("findAll");
 
-        return objectMapperUtils.mapAll(recipeRepository.findAll(), RecipeDto.class);
+        return recordResultSize("findAll", findPage(null, sort, sort.decode(after), limit));
     }
 
     @Override
+    @CacheEvict(cacheNames = RECIPE_CACHE, key = "#recipeDto.id", condition = "#recipeDto?.id != null")
     public RecipeDto saveRecipe(RecipeDto recipeDto) {
         LOG.info("saveRecipe");
 
         try {
-            Recipe recipe = objectMapperUtils.map(recipeDto, Recipe.class);
-            recipeRepository.save(recipe);
+            Recipe recipe = recipeMapper.toEntity(recipeDto);
+            if (recipe.getId() != null && recipe.getVersion() == null) {
+                // without a version the recipe would be taken for a new one
+                recipe.setVersion(recipeRepository.findVersionById(recipe.getId()).orElse(null));
+            }
+            ChangeType changeType = recipeDto.getId() == null ? ChangeType.CREATED : ChangeType.UPDATED;
+            transactionTemplate.executeWithoutResult(status -> {
+                recipeRepository.save(stamp(recipe, recipeRepository.nextChangeSeq()));
+                recordChange(recipe.getId(), changeType);
+            });
+            eventPublisher.publishEvent(new RecipeChangedEvent(recipe.getId(), changeType, recipe));
 
-            return objectMapperUtils.map(recipe, RecipeDto.class);
+            return recipeMapper.toDto(recipe);
 
         } catch (Exception e) {
             LOG.error("Error occurred during saving recipe", e);
@@ -54,52 +154,584 @@ public class RecipeServiceImpl implements IRecipeService{
     }
 
     @Override
-    public RecipeDto updateRecipe(Long recipeId, RecipeDto recipeDto) {
+    public List<RecipeBatchResultDto> saveRecipes(List<RecipeDto> recipeDtos) {
+        LOG.info("saveRecipes");
+
+        RecipeBatchResultDto[] results = new RecipeBatchResultDto[recipeDtos.size()];
+        List<Integer> chunk = new ArrayList<>(BATCH_CHUNK_SIZE);
+
+        for (int index = 0; index < recipeDtos.size(); index++) {
+            RecipeDto recipeDto = recipeDtos.get(index);
+            if (recipeDto == null || recipeDto.getId() != null) {
+                results[index] = failed(index, "Recipe must be given without an id");
+                continue;
+            }
+            chunk.add(index);
+            if (chunk.size() == BATCH_CHUNK_SIZE) {
+                saveChunk(recipeDtos, chunk, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            saveChunk(recipeDtos, chunk, results);
+        }
+
+        return List.of(results);
+    }
+
+    /**
+     * Saves the chunk in one transaction. When that fails the recipes are saved one by one,
+     * so a single bad recipe only fails its own result.
+     */
+    private void saveChunk(List<RecipeDto> recipeDtos, List<Integer> chunk, RecipeBatchResultDto[] results) {
+        try {
+            List<Recipe> recipes = transactionTemplate.execute(status -> {
+                // the whole chunk is one write, it shares one change sequence value
+                long changeSeq = recipeRepository.nextChangeSeq();
+                List<Recipe> entities = new ArrayList<>(chunk.size());
+                List<Ingredients> ingredients = new ArrayList<>();
+                for (Integer index : chunk) {
+                    Recipe recipe = recipeMapper.toEntity(recipeDtos.get(index));
+                    ingredients.addAll(recipe.getIngredients());
+                    entities.add(recipe);
+                }
+                // one dictionary lookup for the names of the whole chunk
+                ingredientDictionary.intern(ingredients);
+                entities.forEach(recipe -> stamp(recipe, changeSeq));
+                List<Recipe> saved = recipeRepository.saveAll(entities);
+                Instant now = Instant.now();
+                List<RecipeOutbox> changes = new ArrayList<>(saved.size());
+                for (Recipe recipe : saved) {
+                    changes.add(RecipeOutbox.builder().recipeId(recipe.getId()).changeType(ChangeType.CREATED).createdAt(now).build());
+                }
+                recipeOutboxRepository.saveAll(changes);
+                return saved;
+            });
+            for (int i = 0; i < chunk.size(); i++) {
+                results[chunk.get(i)] = created(chunk.get(i), recipes.get(i).getId());
+                eventPublisher.publishEvent(new RecipeChangedEvent(recipes.get(i).getId(), ChangeType.CREATED, recipes.get(i)));
+            }
+
+        } catch (RuntimeException e) {
+            LOG.warn("Saving {} recipes in one batch failed, saving them one by one", chunk.size(), e);
+
+            for (Integer index : chunk) {
+                try {
+                    Recipe recipe = transactionTemplate.execute(status -> {
+                        Recipe saved = recipeRepository.save(
+                                stamp(recipeMapper.toEntity(recipeDtos.get(index)), recipeRepository.nextChangeSeq()));
+                        recordChange(saved.getId(), ChangeType.CREATED);
+                        return saved;
+                    });
+                    results[index] = created(index, recipe.getId());
+                    eventPublisher.publishEvent(new RecipeChangedEvent(recipe.getId(), ChangeType.CREATED, recipe));
+
+                } catch (RuntimeException itemException) {
+                    LOG.error("Error occurred during saving recipe {} of batch", index, itemException);
+                    results[index] = failed(index, NestedExceptionUtils.getMostSpecificCause(itemException).getMessage());
+                }
+            }
+        }
+    }
+
+    private static RecipeBatchResultDto created(int index, Long id) {
+        return RecipeBatchResultDto.builder().index(index).id(id).status(BatchItemStatus.CREATED).build();
+    }
+
+    private static RecipeBatchResultDto failed(int index, String error) {
+        return RecipeBatchResultDto.builder().index(index).status(BatchItemStatus.FAILED).error(error).build();
+    }
+
+    @Override
+    @Transactional
+    @CacheEvict(cacheNames = RECIPE_CACHE, key = "#recipeId")
+    public RecipeDto updateRecipe(Long recipeId, RecipeDto recipeDto, Long expectedVersion) {
         LOG.info("updateRecipe!!");
 
         if (recipeDto.getId() != null && !recipeDto.getId().equals(recipeId)) {
             throw new NotFoundException();
         }
-        Recipe recipe = recipeRepository.findById(recipeId).orElseThrow(NotFoundException::new);
+        Recipe recipe = findRecipeForUpdate(recipeId, expectedVersion);
+        RecipeChangedEvent.SearchAttributes previous = RecipeChangedEvent.SearchAttributes.of(recipe);
+
+        if (applyChanges(recipe, recipeMerger.merge(recipe, recipeDto))) {
+            eventPublisher.publishEvent(new RecipeChangedEvent(recipeId, ChangeType.UPDATED, recipe, previous));
+        }
+
+        return recipeMapper.toDto(recipe);
+    }
 
-        recipe.setName(recipeDto.getName());
-        recipe.setServingNumber(recipeDto.getServingNumber());
-        recipe.setIsVegetarian(recipeDto.getIsVegetarian());
-        recipe.getInstructions().clear();
-        recipe.getIngredients().clear();
-        recipe.getIngredients().addAll(objectMapperUtils.mapAll(recipeDto.getIngredients(), Ingredients.class));
-        recipe.getInstructions().addAll(objectMapperUtils.mapAll(recipeDto.getInstructions(),Instructions.class));
+    @Override
+    @Transactional
+    @CacheEvict(cacheNames = RECIPE_CACHE, key = "#recipeId")
+    public RecipeDto patchRecipe(Long recipeId, JsonNode patch, Long expectedVersion) {
+        LOG.info("patchRecipe!!");
+
+        Recipe recipe = findRecipeForUpdate(recipeId, expectedVersion);
+        RecipeChangedEvent.SearchAttributes previous = RecipeChangedEvent.SearchAttributes.of(recipe);
+
+        if (applyChanges(recipe, recipeMerger.mergePatch(recipe, patch))) {
+            eventPublisher.publishEvent(new RecipeChangedEvent(recipeId, ChangeType.UPDATED, recipe, previous));
+        }
 
-        return objectMapperUtils.map(recipeRepository.save(recipe), RecipeDto.class);
+        return recipeMapper.toDto(recipe);
     }
 
     @Override
-    public String deleteRecipe(Long recipeId) {
+    @Transactional
+    @CacheEvict(cacheNames = RECIPE_CACHE, key = "#recipeId")
+    public String deleteRecipe(Long recipeId, Long expectedVersion) {
         LOG.info("deleteRecipe!!!");
 
-        Recipe recipe = recipeRepository.findById(recipeId).orElseThrow(NotFoundException::new);
+        Recipe recipe = findRecipeForUpdate(recipeId, expectedVersion);
+        RecipeChangedEvent.SearchAttributes previous = RecipeChangedEvent.SearchAttributes.of(recipe);
         recipeRepository.delete(recipe);
+        recipeTombstoneRepository.save(RecipeTombstone.builder()
+                .recipeId(recipeId)
+                .changeSeq(recipeRepository.nextChangeSeq())
+                .deletedAt(Instant.now())
+                .build());
+        recordChange(recipeId, ChangeType.DELETED);
+        eventPublisher.publishEvent(new RecipeChangedEvent(recipeId, ChangeType.DELETED, null, previous));
 
         return null;
     }
 
     @Override
+    @Transactional(readOnly = true)
+    // a replica may not have replayed a recent write yet, what it returns then must not be cached
+    @Cacheable(cacheNames = RECIPE_CACHE, key = "#recipeId", unless = "!@recipeSearchCache.mayCache()")
     public RecipeDto findRecipe(Long recipeId) {
 
         LOG.info("findRecipe!!!");
 
         Recipe recipe = recipeRepository.findById(recipeId).orElseThrow(NotFoundException::new);
 
-        return objectMapperUtils.map(recipe, RecipeDto.class);
+        return recipeMapper.toDto(recipe);
     }
 
+    /**
+     * Recipes created or updated and ids of recipes deleted after the position in {@code since}, in change order.
+     * <p>
+     * The change sequence is taken before the transaction commits, so a change can become visible after one with a
+     * higher sequence. The token therefore only moves past changes older than the settle time: newer changes are
+     * returned, and returned again by the next call until they have settled, applying them is idempotent. A page
+     * of changes that have not settled yet does not report {@code more}, they are returned once they have.
+     */
     @Override
-    public Set<RecipeDto> searchRecipes(List<SearchCriteria> criteriaList){
+    @Transactional(readOnly = true)
+    public RecipeChangesDto findChanges(String since, int limit) {
+        LOG.info("findChanges");
+
+        long[] position = parseChangeToken(since);
+        int pageSize = pageSize(limit);
+        PageRequest firstRows = PageRequest.of(0, pageSize + 1);
+        List<Recipe> recipes = recipeRepository.findChangedSince(position[0], position[1], firstRows);
+        List<RecipeTombstone> tombstones = recipeTombstoneRepository.findChangedSince(position[0], position[1], firstRows);
+
+        // both lists are in (change_seq, recipe id) order, merge them up to the page size
+        List<Recipe> changed = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        int recipeIndex = 0;
+        int tombstoneIndex = 0;
+        String from = position[0] + "." + position[1];
+        Instant settledBefore = Instant.now().minusMillis(settleMillis);
+        boolean settled = true;
+        while (changed.size() + deleted.size() < pageSize
+                && (recipeIndex < recipes.size() || tombstoneIndex < tombstones.size())) {
+            Recipe recipe = recipeIndex < recipes.size() ? recipes.get(recipeIndex) : null;
+            RecipeTombstone tombstone = tombstoneIndex < tombstones.size() ? tombstones.get(tombstoneIndex) : null;
+            if (tombstone == null || (recipe != null && (recipe.getChangeSeq() < tombstone.getChangeSeq()
+                    || (recipe.getChangeSeq().equals(tombstone.getChangeSeq()) && recipe.getId() < tombstone.getRecipeId())))) {
+                changed.add(recipe);
+                settled &= isSettled(recipe.getUpdatedAt(), settledBefore);
+                if (settled) {
+                    position = new long[]{recipe.getChangeSeq(), recipe.getId()};
+                }
+                recipeIndex++;
+            } else {
+                deleted.add(tombstone.getRecipeId());
+                settled &= isSettled(tombstone.getDeletedAt(), settledBefore);
+                if (settled) {
+                    position = new long[]{tombstone.getChangeSeq(), tombstone.getRecipeId()};
+                }
+                tombstoneIndex++;
+            }
+        }
+
+        String token = position[0] + "." + position[1];
+        return RecipeChangesDto.builder()
+                .recipes(recipeMapper.toDtoList(changed))
+                .deleted(deleted)
+                .token(token)
+                // the next page starts at the token, it only differs from this one when the token moved
+                .more((recipeIndex < recipes.size() || tombstoneIndex < tombstones.size()) && !token.equals(from))
+                .build();
+    }
+
+    /**
+     * Whether a transaction that took its change sequence at {@code changedAt} has committed by now. Recipes
+     * written before the time was recorded have settled.
+     */
+    private static boolean isSettled(Instant changedAt, Instant settledBefore) {
+        return changedAt == null || changedAt.isBefore(settledBefore);
+    }
+
+    /**
+     * A change token is {@code <change_seq>.<recipe id>} of the last change a client has seen.
+     */
+    private static long[] parseChangeToken(String token) {
+        if (token == null || token.isBlank()) {
+            return new long[]{0, 0};
+        }
+        int separator = token.indexOf('.');
+        try {
+            return new long[]{Long.parseLong(token.substring(0, separator)), Long.parseLong(token.substring(separator + 1))};
+        } catch (RuntimeException e) {
+            throw new BadRequestException("Invalid change token " + token);
+        }
+    }
+
+    /**
+     * Version of the recipe, taken from the cached recipe when there is one so conditional reads of cached
+     * recipes need no query.
+     */
+    @Override
+    public Long findRecipeVersion(Long recipeId) {
+        RecipeDto cachedRecipe = recipeSearchCache.getRecipe(recipeId);
+        if (cachedRecipe != null && cachedRecipe.getVersion() != null) {
+            return cachedRecipe.getVersion();
+        }
+        return recipeRepository.findVersionById(recipeId).orElseThrow(NotFoundException::new);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public RecipePageDto searchRecipes(List<SearchCriteria> criteriaList, RecipeSort sort, String after, int limit){
 
         LOG.info("searchRecipes!!");
 
-        RecipeSpecification spec = new RecipeSpecification(criteriaList);
-        return objectMapperUtils.mapAll(recipeRepository.findAll(spec), RecipeDto.class);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        RecipeSort.Cursor cursor = sort.decode(after);
+        RecipeSearchCache.SearchKey key = recipeSearchCache.key(criteriaList, sort, after, pageSize(limit));
+        RecipeSearchCache.RecipeIdPage cachedPage = recipeSearchCache.get(key);
+        RecipeSearchCache.RecipeIdPage indexedPage = null;
+        RecipePageDto page;
+        if (cachedPage != null) {
+            page = hydrate(key, cachedPage);
+        } else {
+            indexedPage = recipeSearchIndex.search(criteriaList, sort, cursor, pageSize(limit));
+            if (indexedPage != null) {
+                page = hydrate(key, indexedPage);
+            } else {
+                RecipeSpecification spec = new RecipeSpecification(criteriaList);
+                page = findPage(spec, sort, cursor, limit);
+            }
+            recipeSearchCache.put(key, page);
+        }
+
+        sample.stop(Timer.builder("recipe.search")
+                .description("Searches by the combination of criteria used")
+                .tag("criteria", criteriaTag(criteriaList))
+                .tag("sort", sort.getField().getProperty())
+                .tag("cache", cachedPage != null ? "hit" : "miss")
+                .tag("index", indexedPage != null ? "hit" : "miss")
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        return recordResultSize("searchRecipes", page);
+    }
+
+    @Override
+    public RecipeFacetsDto findFacets(List<SearchCriteria> criteriaList) {
+        LOG.info("findFacets");
+
+        RecipeFacetsDto facets = recipeSearchIndex.facets(criteriaList);
+        if (facets == null) {
+            throw new ServiceUnavailableException("Search index is not available");
+        }
+        return facets;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<RecipePantryMatchDto> findByPantry(List<String> pantry, int maxMissing, List<SearchCriteria> criteriaList, int limit) {
+        LOG.info("findByPantry");
+
+        if (pantry == null || pantry.stream().allMatch(ingredient -> ingredient.trim().isEmpty())) {
+            throw new BadRequestException("At least one pantry ingredient is required");
+        }
+        if (maxMissing < 0) {
+            throw new BadRequestException("maxMissing must not be negative");
+        }
+        RecipeSearchCache.SearchKey key = recipeSearchCache.key(criteriaList, RecipeSort.BY_ID, null, pageSize(limit));
+        List<RecipeSearchIndex.PantryMatch> matches = recipeSearchIndex.coveredBy(pantry, maxMissing, criteriaList, pageSize(limit));
+        if (matches == null) {
+            throw new ServiceUnavailableException("Search index is not available");
+        }
+
+        List<Long> ids = new ArrayList<>(matches.size());
+        matches.forEach(match -> ids.add(match.getRecipeId()));
+        Map<Long, RecipeDto> recipesById = new HashMap<>();
+        hydrate(key, new RecipeSearchCache.RecipeIdPage(ids, null)).getRecipes()
+                .forEach(recipe -> recipesById.put(recipe.getId(), recipe));
+
+        List<RecipePantryMatchDto> result = new ArrayList<>(matches.size());
+        for (RecipeSearchIndex.PantryMatch match : matches) {
+            RecipeDto recipe = recipesById.get(match.getRecipeId());
+            if (recipe != null) {
+                result.add(RecipePantryMatchDto.builder()
+                        .recipe(recipe)
+                        .covered(match.getCovered())
+                        .total(match.getTotal())
+                        .coverage(match.getTotal() == 0 ? 1.0 : (double) match.getCovered() / match.getTotal())
+                        .missingIngredients(match.getMissingIngredients())
+                        .build());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<RecipeSimilarityDto> findSimilar(Long recipeId, int k) {
+        LOG.info("findSimilar");
+
+        Recipe recipe = recipeRepository.findById(recipeId).orElseThrow(NotFoundException::new);
+        List<Long> candidates = recipeSimilarityIndex.candidates(recipeId, pageSize(k) * SIMILAR_CANDIDATES_PER_RESULT);
+        if (candidates == null) {
+            throw new ServiceUnavailableException("Similarity index is not available");
+        }
+
+        // the index only narrows the recipes down, they are ranked on their actual ingredients
+        Set<String> ingredients = MinHash.names(recipe.getIngredients());
+        List<Recipe> similarRecipes = new ArrayList<>(candidates.size());
+        Map<Long, Double> similarities = new HashMap<>();
+        for (Recipe candidate : recipeRepository.findAllById(candidates)) {
+            double similarity = MinHash.jaccard(ingredients, MinHash.names(candidate.getIngredients()));
+            if (similarity > 0) {
+                similarRecipes.add(candidate);
+                similarities.put(candidate.getId(), similarity);
+            }
+        }
+        similarRecipes.sort(Comparator.comparing((Recipe candidate) -> similarities.get(candidate.getId())).reversed()
+                .thenComparing(Recipe::getId));
+
+        List<RecipeSimilarityDto> result = new ArrayList<>(Math.min(similarRecipes.size(), pageSize(k)));
+        for (Recipe similarRecipe : similarRecipes.subList(0, Math.min(similarRecipes.size(), pageSize(k)))) {
+            result.add(RecipeSimilarityDto.builder()
+                    .recipe(recipeMapper.toDto(similarRecipe))
+                    .similarity(similarities.get(similarRecipe.getId()))
+                    .build());
+        }
+        return result;
+    }
+
+    @Override
+    public List<IngredientSuggestionDto> suggestIngredients(String prefix, int limit) {
+        LOG.info("suggestIngredients");
+
+        Map<String, Long> suggestions = recipeSearchIndex.suggestIngredients(prefix, pageSize(limit));
+        if (suggestions == null) {
+            throw new ServiceUnavailableException("Search index is not available");
+        }
+        List<IngredientSuggestionDto> result = new ArrayList<>(suggestions.size());
+        suggestions.forEach((name, recipeCount) -> result.add(new IngredientSuggestionDto(name, recipeCount)));
+        return result;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<RecipeTextMatchDto> searchText(String text, int limit) {
+        LOG.info("searchText");
+
+        if (text == null || text.trim().isEmpty()) {
+            throw new BadRequestException("A search text is required");
+        }
+        List<RecipeTextIndex.TextMatch> matches = recipeTextIndex.search(text, pageSize(limit));
+        if (matches == null) {
+            throw new ServiceUnavailableException("Text index is not available");
+        }
+
+        List<Long> ids = new ArrayList<>(matches.size());
+        matches.forEach(match -> ids.add(match.getRecipeId()));
+        Map<Long, RecipeDto> recipesById = new HashMap<>();
+        hydrate(recipeSearchCache.key(List.of(), RecipeSort.BY_ID, null, pageSize(limit)), new RecipeSearchCache.RecipeIdPage(ids, null)).getRecipes()
+                .forEach(recipe -> recipesById.put(recipe.getId(), recipe));
+
+        List<RecipeTextMatchDto> result = new ArrayList<>(matches.size());
+        for (RecipeTextIndex.TextMatch match : matches) {
+            RecipeDto recipe = recipesById.get(match.getRecipeId());
+            if (recipe != null) {
+                result.add(RecipeTextMatchDto.builder()
+                        .recipe(recipe)
+                        .score(match.getScore())
+                        .highlights(match.getHighlights())
+                        .build());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorted "key:OPERATION" pairs; values are left out to keep the number of tag values bounded.
+     */
+    private static String criteriaTag(List<SearchCriteria> criteriaList) {
+        if (criteriaList.isEmpty()) {
+            return "none";
+        }
+        TreeSet<String> criteria = new TreeSet<>();
+        for (SearchCriteria searchCriteria : criteriaList) {
+            criteria.add(searchCriteria.getKey() + ":" + searchCriteria.getOperation());
+        }
+        return String.join(",", criteria);
+    }
+
+    private Recipe findRecipeForUpdate(Long recipeId, Long expectedVersion) {
+        Recipe recipe = recipeRepository.findById(recipeId).orElseThrow(NotFoundException::new);
+        if (expectedVersion != null && !expectedVersion.equals(recipe.getVersion())) {
+            throw new PreconditionFailedException();
+        }
+        return recipe;
+    }
+
+    /**
+     * Writes the merged changes. Any change, also one to child rows only, moves the recipe in the change feed,
+     * which writes the recipe row and so bumps its version. Flushing here makes the returned dto carry it.
+     */
+    private boolean applyChanges(Recipe recipe, RecipeMerger.RowChanges changes) {
+        recordUpdatedRows(recipe.getId(), changes);
+        if (changes.getTotal() == 0) {
+            return false;
+        }
+        stamp(recipe, recipeRepository.nextChangeSeq());
+        recordChange(recipe.getId(), ChangeType.UPDATED);
+        recipeRepository.flush();
+        return true;
+    }
+
+    /**
+     * Writes the change to the outbox in the transaction of the change, {@link RecipeEventRelay} pushes it to
+     * the event stream once committed.
+     */
+    private void recordChange(Long recipeId, ChangeType changeType) {
+        recipeOutboxRepository.save(RecipeOutbox.builder()
+                .recipeId(recipeId)
+                .changeType(changeType)
+                .createdAt(Instant.now())
+                .build());
+    }
+
+    /**
+     * Marks the write of the recipe; called by every write, after which the recipe is ready to be flushed.
+     */
+    private Recipe stamp(Recipe recipe, long changeSeq) {
+        ingredientDictionary.intern(recipe.getIngredients());
+        recipe.setChangeSeq(changeSeq);
+        recipe.setUpdatedAt(Instant.now());
+        recipe.setMinHash(MinHash.toBytes(MinHash.signature(MinHash.names(recipe.getIngredients()))));
+        return recipe;
+    }
+
+    private void recordUpdatedRows(Long recipeId, RecipeMerger.RowChanges changes) {
+        LOG.info("Update of recipe " + recipeId + " touched " + changes.getTotal() + " rows (" + changes.getInserted() + " inserted, "
+                + changes.getUpdated() + " updated, " + changes.getDeleted() + " deleted)");
+        meterRegistry.counter("recipe.update.rows", "operation", "insert").increment(changes.getInserted());
+        meterRegistry.counter("recipe.update.rows", "operation", "update").increment(changes.getUpdated());
+        meterRegistry.counter("recipe.update.rows", "operation", "delete").increment(changes.getDeleted());
+    }
+
+    private RecipePageDto recordResultSize(String method, RecipePageDto page) {
+        DistributionSummary.builder("recipe.result.size")
+                .description("Number of recipes returned per call")
+                .tag("method", method)
+                .register(meterRegistry)
+                .record(page.getRecipes().size());
+        return page;
+    }
+
+    /**
+     * Streams every recipe to the consumer in id order. Recipes are mapped in chunks of {@link Recipe#BATCH_SIZE}
+     * so their children are loaded with one query per collection, then detached so memory use does not
+     * grow with the catalog.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public void exportRecipes(Consumer<RecipeDto> consumer) {
+        LOG.info("exportRecipes");
+
+        List<Recipe> chunk = new ArrayList<>(Recipe.BATCH_SIZE);
+        try (Stream<Recipe> recipes = recipeRepository.streamAll(EXPORT_FETCH_SIZE)) {
+            Iterator<Recipe> iterator = recipes.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == Recipe.BATCH_SIZE || !iterator.hasNext()) {
+                    chunk.forEach(recipe -> consumer.accept(recipeMapper.toDto(recipe)));
+                    chunk.clear();
+                    recipeRepository.detachAll();
+                }
+            }
+        }
+    }
+
+    private static int pageSize(int limit) {
+        return Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Loads the recipes of a page of ids from the recipe cache, recipes not cached are read in one query.
+     */
+    private RecipePageDto hydrate(RecipeSearchCache.SearchKey key, RecipeSearchCache.RecipeIdPage cachedPage) {
+        Map<Long, RecipeDto> recipesById = new HashMap<>();
+        List<Long> missingIds = new ArrayList<>();
+        for (Long recipeId : cachedPage.getIds()) {
+            RecipeDto recipe = recipeSearchCache.getRecipe(recipeId);
+            if (recipe == null) {
+                missingIds.add(recipeId);
+            } else {
+                recipesById.put(recipeId, recipe);
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            for (Recipe recipe : recipeRepository.findAllById(missingIds)) {
+                RecipeDto recipeDto = recipeMapper.toDto(recipe);
+                recipeSearchCache.putRecipe(key, recipeDto);
+                recipesById.put(recipe.getId(), recipeDto);
+            }
+        }
+
+        List<RecipeDto> recipes = new ArrayList<>(cachedPage.getIds().size());
+        for (Long recipeId : cachedPage.getIds()) {
+            RecipeDto recipe = recipesById.get(recipeId);
+            if (recipe != null) {
+                recipes.add(recipe);
+            }
+        }
+        return RecipePageDto.builder()
+                .recipes(recipes)
+                .nextCursor(cachedPage.getNextCursor())
+                .build();
+    }
+
+    /**
+     * Reads one row more than requested to find out whether another page follows,
+     * so no count query is needed.
+     */
+    private RecipePageDto findPage(RecipeSpecification spec, RecipeSort sort, RecipeSort.Cursor after, int limit) {
+        int pageSize = pageSize(limit);
+        List<Recipe> recipes = recipeRepository.findPage(spec, sort.getField(), sort.isDescending(),
+                after == null ? null : after.getValue(), after == null ? null : after.getId(), pageSize + 1);
+
+        String nextCursor = null;
+        if (recipes.size() > pageSize) {
+            recipes = recipes.subList(0, pageSize);
+            Recipe last = recipes.get(pageSize - 1);
+            nextCursor = sort.encode(new RecipeSort.Cursor(sort.valueOf(last), last.getId()));
+        }
+
+        return RecipePageDto.builder()
+                .recipes(recipeMapper.toDtoList(recipes))
+                .nextCursor(nextCursor)
+                .build();
     }
 }
 
@@ -0,0 +1,231 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Locality sensitive hashing over the persisted {@link MinHash} signatures of the recipes: each band of a
+ * signature puts the recipe in a bucket, recipes sharing a bucket with a recipe are the candidates to be similar
+ * to it. Only the band hashes are kept, {@link MinHash#BANDS} ints per recipe in one array indexed by recipe id.
+ * <p>
+ * Like {@link RecipeSearchIndex} it is built when the application is ready and follows the committed writes of
+ * this node through {@link RecipeChangedEvent} and those of every node through {@link RecipeChangesRelayedEvent}. Signatures missing in the database, of recipes stored before they
+ * existed, are computed and stored once while building.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class RecipeSimilarityIndex {
+
+    private static final Logger LOG = LogManager.getLogger(RecipeSimilarityIndex.class);
+
+    private static final int MAX_RECIPE_ID = Integer.MAX_VALUE / MinHash.BANDS - 1;
+
+    private final RecipeRepository recipeRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final RoaringBitmap indexed = new RoaringBitmap();
+
+    /**
+     * Recipes per band and band hash, keyed on the band in the high and the hash in the low half.
+     */
+    private final Map<Long, RoaringBitmap> buckets = new HashMap<>();
+
+    private int[] bandHashes = new int[1024 * MinHash.BANDS];
+
+    private final IndexLifecycle lifecycle;
+
+    private boolean overflowed;
+
+    public RecipeSimilarityIndex(RecipeRepository recipeRepository, TransactionTemplate transactionTemplate,
+                                 @Value("${recipe.similarity-index.enabled:true}") boolean enabled) {
+        this.recipeRepository = recipeRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.lifecycle = new IndexLifecycle("similarity", "similar recipes are not available", enabled,
+                lock.writeLock(), this::apply);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long start = System.currentTimeMillis();
+        boolean ready = lifecycle.build(() -> transactionTemplate.executeWithoutResult(status -> {
+            computeMissingSignatures();
+            try (Stream<Object[]> rows = recipeRepository.streamMinHashes(RecipeServiceImpl.EXPORT_FETCH_SIZE)) {
+                Iterator<Object[]> iterator = rows.iterator();
+                while (iterator.hasNext()) {
+                    Object[] row = iterator.next();
+                    lock.writeLock().lock();
+                    try {
+                        add((Long) row[0], (byte[]) row[1]);
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+        }), () -> !overflowed);
+        if (ready) {
+            LOG.info("Indexed {} recipes for similarity in {} ms", indexed.getLongCardinality(), System.currentTimeMillis() - start);
+        }
+    }
+
+    @Scheduled(fixedDelay = IndexLifecycle.RETRY_POLL_MILLIS)
+    public void retryBuild() {
+        if (lifecycle.retryDue(System.currentTimeMillis())) {
+            build();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecipeChanged(RecipeChangedEvent event) {
+        lifecycle.onRecipeChanged(event);
+    }
+
+    @EventListener
+    public void onChangesRelayed(RecipeChangesRelayedEvent event) {
+        event.getChanges().forEach(lifecycle::onRecipeChanged);
+    }
+
+    /**
+     * Ids of at most {@code limit} recipes sharing a bucket with the recipe, those sharing the most buckets
+     * first, or {@code null} when the index is not available. Sharing more buckets is only a rough sign of a
+     * higher similarity, callers rank the candidates on their ingredients.
+     */
+    public List<Long> candidates(Long recipeId, int limit) {
+        if (!lifecycle.isReady()) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            if (!lifecycle.isReady()) {
+                return null;
+            }
+            if (recipeId > MAX_RECIPE_ID || !indexed.contains(recipeId.intValue())) {
+                return List.of();
+            }
+            int id = recipeId.intValue();
+            Map<Integer, Integer> sharedBuckets = new HashMap<>();
+            for (int band = 0; band < MinHash.BANDS; band++) {
+                RoaringBitmap bucket = buckets.get(bucketKey(band, bandHashes[id * MinHash.BANDS + band]));
+                IntIterator iterator = bucket.getIntIterator();
+                while (iterator.hasNext()) {
+                    int candidate = iterator.next();
+                    if (candidate != id) {
+                        sharedBuckets.merge(candidate, 1, Integer::sum);
+                    }
+                }
+            }
+
+            List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(sharedBuckets.entrySet());
+            ranked.sort(Map.Entry.<Integer, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            List<Long> candidates = new ArrayList<>(Math.min(limit, ranked.size()));
+            for (int i = 0; i < ranked.size() && i < limit; i++) {
+                candidates.add(ranked.get(i).getKey().longValue());
+            }
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isReady() {
+        return lifecycle.isReady();
+    }
+
+    /**
+     * Signatures are written with every change since they exist, this fills them in for older recipes without
+     * bumping their version.
+     */
+    private void computeMissingSignatures() {
+        int computed = 0;
+        List<Recipe> recipes;
+        while (!(recipes = recipeRepository.findWithoutMinHash(PageRequest.of(0, Recipe.BATCH_SIZE))).isEmpty()) {
+            for (Recipe recipe : recipes) {
+                recipeRepository.updateMinHash(recipe.getId(),
+                        MinHash.toBytes(MinHash.signature(MinHash.names(recipe.getIngredients()))));
+            }
+            computed += recipes.size();
+            recipeRepository.detachAll();
+        }
+        if (computed > 0) {
+            LOG.info("Computed the missing MinHash signatures of {} recipes", computed);
+        }
+    }
+
+    private void apply(RecipeChangedEvent event) {
+        if (event.getRecipe() == null) {
+            remove(event.getRecipeId());
+        } else {
+            add(event.getRecipeId(), event.getRecipe().getMinHash());
+        }
+    }
+
+    private void add(Long recipeId, byte[] minHash) {
+        if (recipeId > MAX_RECIPE_ID) {
+            // the band hashes of all recipes are in one int array
+            LOG.warn("Recipe id {} does not fit the similarity index, disabling it", recipeId);
+            overflowed = true;
+            lifecycle.stop();
+            return;
+        }
+        remove(recipeId);
+        if (minHash == null || minHash.length == 0) {
+            return;
+        }
+        int id = recipeId.intValue();
+        int[] hashes = MinHash.bandHashes(MinHash.fromBytes(minHash));
+        if ((id + 1) * MinHash.BANDS > bandHashes.length) {
+            bandHashes = Arrays.copyOf(bandHashes, (int) Math.min((MAX_RECIPE_ID + 1L) * MinHash.BANDS,
+                    Math.max((id + 1) * MinHash.BANDS, 2L * bandHashes.length)));
+        }
+        System.arraycopy(hashes, 0, bandHashes, id * MinHash.BANDS, MinHash.BANDS);
+        for (int band = 0; band < MinHash.BANDS; band++) {
+            buckets.computeIfAbsent(bucketKey(band, hashes[band]), key -> new RoaringBitmap()).add(id);
+        }
+        indexed.add(id);
+    }
+
+    private void remove(Long recipeId) {
+        if (recipeId > MAX_RECIPE_ID || !indexed.contains(recipeId.intValue())) {
+            return;
+        }
+        int id = recipeId.intValue();
+        indexed.remove(id);
+        for (int band = 0; band < MinHash.BANDS; band++) {
+            long key = bucketKey(band, bandHashes[id * MinHash.BANDS + band]);
+            RoaringBitmap bucket = buckets.get(key);
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    private static long bucketKey(int band, int hash) {
+        return (long) band << 32 | (hash & 0xffffffffL);
+    }
+}
@@ -0,0 +1,121 @@
+package nl.abnamro.assessment.recipe.service;
+
+import lombok.Value;
+import nl.abnamro.assessment.recipe.controller.BadRequestException;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.SortField;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * Order of a page of recipes and the cursors to page through it. Recipes with the same value are ordered on
+ * their id, recipes without a value come last in ascending and first in descending order, like PostgreSQL orders
+ * nulls by default.
+ * <p>
+ * A cursor is the position of the last recipe of a page. For the default order it is the id of that recipe,
+ * for other orders an opaque string that also holds the value and the order it belongs to.
+ *
+ * @author Orhan Polat
+ */
+@Value
+public class RecipeSort {
+
+    public static final RecipeSort BY_ID = new RecipeSort(SortField.ID, false);
+
+    private static final String DESCENDING = "desc";
+
+    SortField field;
+
+    boolean descending;
+
+    /**
+     * Parses {@code property[,asc|desc]}, for example {@code servingNumber,desc}; {@code null} is {@link #BY_ID}.
+     */
+    public static RecipeSort parse(String sort) {
+        if (sort == null || sort.isBlank()) {
+            return BY_ID;
+        }
+        String[] parts = sort.trim().split("\\s*,\\s*");
+        if (parts.length > 2 || (parts.length == 2 && !DESCENDING.equalsIgnoreCase(parts[1]) && !"asc".equalsIgnoreCase(parts[1]))) {
+            throw new BadRequestException("Invalid sort " + sort);
+        }
+        for (SortField field : SortField.values()) {
+            if (field.getProperty().equalsIgnoreCase(parts[0])) {
+                return new RecipeSort(field, parts.length == 2 && DESCENDING.equalsIgnoreCase(parts[1]));
+            }
+        }
+        throw new BadRequestException("Invalid sort " + sort + ", recipes can be sorted on id, name and servingNumber");
+    }
+
+    /**
+     * The value the recipe is ordered on, {@code null} when ordered on id only.
+     */
+    public Object valueOf(Recipe recipe) {
+        switch (field) {
+            case NAME:
+                return recipe.getName();
+            case SERVING_NUMBER:
+                return recipe.getServingNumber();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Positions in the order of this sort.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Comparator<Cursor> comparator() {
+        Comparator<Cursor> ascending = Comparator.comparing(cursor -> (Comparable) cursor.getValue(),
+                Comparator.nullsLast(Comparator.naturalOrder()));
+        ascending = ascending.thenComparingLong(Cursor::getId);
+        return descending ? ascending.reversed() : ascending;
+    }
+
+    public String encode(Cursor cursor) {
+        if (equals(BY_ID)) {
+            return Long.toString(cursor.getId());
+        }
+        String position = field.getProperty() + ',' + (descending ? DESCENDING : "asc") + ',' + cursor.getId() + ','
+                + (cursor.getValue() == null ? "" : "=" + cursor.getValue());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The position of a cursor returned for this sort, {@code null} for no cursor.
+     */
+    public Cursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            if (equals(BY_ID)) {
+                return new Cursor(null, Long.parseLong(cursor));
+            }
+            String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(",", 4);
+            if (!field.getProperty().equals(position[0]) || descending != DESCENDING.equals(position[1])) {
+                throw new BadRequestException("Cursor " + cursor + " belongs to another sort");
+            }
+            Object value = null;
+            if (position[3].startsWith("=")) {
+                value = field == SortField.SERVING_NUMBER ? (Object) Integer.valueOf(position[3].substring(1)) : position[3].substring(1);
+            }
+            return new Cursor(value, Long.parseLong(position[2]));
+        } catch (BadRequestException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new BadRequestException("Invalid cursor " + cursor);
+        }
+    }
+
+    /**
+     * Position of a recipe in an order: the value it is ordered on and its id.
+     */
+    @Value
+    public static class Cursor {
+        Object value;
+        long id;
+    }
+}
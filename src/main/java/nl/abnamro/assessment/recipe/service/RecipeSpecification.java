@@ -1,5 +1,6 @@
 package nl.abnamro.assessment.recipe.service;
 
+import nl.abnamro.assessment.recipe.domain.Ingredient;
 import nl.abnamro.assessment.recipe.domain.Ingredients;
 import nl.abnamro.assessment.recipe.domain.Instructions;
 import nl.abnamro.assessment.recipe.domain.Recipe;
@@ -8,15 +9,17 @@ import org.springframework.data.jpa.domain.Specification;
 
 import javax.persistence.criteria.*;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+import java.util.Locale;
 
 /**
  * @author Orhan Polat
  */
 public class RecipeSpecification implements Specification<Recipe> {
 
+    private static final char ESCAPE = '\\';
+
     private List<SearchCriteria> criteriaList;
 
     public RecipeSpecification() {
@@ -31,13 +34,26 @@ public class RecipeSpecification implements Specification<Recipe> {
         criteriaList.add(criteria);
     }
 
+    /**
+     * Plans the criteria before building them: criteria on the recipe columns come first, then those on the child
+     * tables, each as a correlated {@code EXISTS} or {@code NOT EXISTS} subquery. No join is added to the query,
+     * so every recipe is returned once without {@code DISTINCT}, and an exclusion drops the whole recipe instead
+     * of the matching child rows only.
+     */
     @Override
     public Predicate toPredicate(Root<Recipe> root, CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder) {
 
-        List<Predicate> predicates = new ArrayList<>();
+        List<SearchCriteria> planned = new ArrayList<>(criteriaList);
+        // stable, criteria of the same cost keep the order they were given in
+        planned.sort(Comparator.comparingInt(RecipeSpecification::cost));
+
+        List<Predicate> predicates = new ArrayList<>(planned.size());
+        for (SearchCriteria criteria : planned) {
+            if (isChildCriteria(criteria)) {
+                Predicate exists = criteriaBuilder.exists(children(root, query, criteriaBuilder, criteria));
+                predicates.add(SearchOperation.NOT_CONTAINS.equals(criteria.getOperation()) ? criteriaBuilder.not(exists) : exists);
 
-        for (SearchCriteria criteria : criteriaList) {
-            if (SearchOperation.EQUALITY.equals(criteria.getOperation())) {
+            } else if (SearchOperation.EQUALITY.equals(criteria.getOperation())) {
                 predicates.add(criteriaBuilder.equal(root.get(criteria.getKey()), criteria.getValue()));
 
             } else if (SearchOperation.IN.equals(criteria.getOperation())) {
@@ -53,36 +69,12 @@ public class RecipeSpecification implements Specification<Recipe> {
                 predicates.add(criteriaBuilder.greaterThanOrEqualTo(root.get(criteria.getKey()), criteria.getValue().toString()));
 
             } else if (SearchOperation.CONTAINS.equals(criteria.getOperation())) {
-
-                if ("ingredientName".equals(criteria.getKey())) {
-                    Join<Recipe, Ingredients> recipeIngredients = getExistingJoin(root, "ingredients", Ingredients.class);
-                    predicates.add(criteriaBuilder.like(criteriaBuilder.lower(recipeIngredients.get(criteria.getKey())),
-                            "%" + criteria.getValue() + "%"));
-
-                } else if ("description".equals(criteria.getKey())){
-                    Join<Recipe, Instructions> recipeInstructions = getExistingJoin(root, "instructions", Instructions.class);
-                    predicates.add(criteriaBuilder.like(criteriaBuilder.lower(recipeInstructions.get(criteria.getKey())),
-                            "%" + criteria.getValue() + "%"));
-
-                } else {
-                    predicates.add(criteriaBuilder.like(root.get(criteria.getKey()), "%" + criteria.getKey() + "%"));
-                }
+                predicates.add(criteriaBuilder.like(criteriaBuilder.lower(root.get(criteria.getKey())),
+                        containsPattern(criteria.getValue()), ESCAPE));
 
             } else if (SearchOperation.NOT_CONTAINS.equals(criteria.getOperation())) {
-
-                if ("ingredientName".equals(criteria.getKey())) {
-                    Join<Recipe, Ingredients> recipeIngredients = getExistingJoin(root, "ingredients", Ingredients.class);
-                    predicates.add(criteriaBuilder.notLike(criteriaBuilder.lower(recipeIngredients.get(criteria.getKey())),
-                            "%" + criteria.getValue() + "%"));
-
-                } else if ("description".equals(criteria.getKey())){
-                    Join<Recipe, Instructions> recipeInstructions = getExistingJoin(root, "instructions", Instructions.class);
-                    predicates.add(criteriaBuilder.notLike(criteriaBuilder.lower(recipeInstructions.get(criteria.getKey())),
-                            "%" + criteria.getValue() + "%"));
-
-                } else {
-                    predicates.add(criteriaBuilder.notLike(root.get(criteria.getKey()), "%" + criteria.getKey() + "%"));
-                }
+                predicates.add(criteriaBuilder.notLike(criteriaBuilder.lower(root.get(criteria.getKey())),
+                        containsPattern(criteria.getValue()), ESCAPE));
 
             } else {
                 predicates.add(criteriaBuilder.equal(root.get(criteria.getKey()), criteria.getValue()));
@@ -92,24 +84,70 @@ public class RecipeSpecification implements Specification<Recipe> {
         return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
     }
 
-    public <R, J> Join<R, J> getExistingJoin(Root<R> root, String attribute, Class<J> joinedEntity) {
-        Join<R, J> genericJoin = null;
-        final Set<Join<R, ?>> joins = root.getJoins();
-        if (!joins.isEmpty()) {
-            final Iterator<Join<R, ?>> iterator = joins.iterator();
-            while (iterator.hasNext()) {
-                final Join<R, ?> next = iterator.next();
-                if (next.getModel().getBindableJavaType().getSimpleName().equals(joinedEntity.getSimpleName())) {
-                    genericJoin = (Join<R, J>) next;
-                    break;
-                }
-            }
-            if (genericJoin == null) {
-                genericJoin = root.join(attribute);
+    /**
+     * Rough selectivity estimate, lower runs first: equality on a recipe column, other recipe column criteria,
+     * child rows containing a value (a longer value matches fewer rows) and last child rows not containing a
+     * value, which keeps most recipes.
+     */
+    static int cost(SearchCriteria criteria) {
+        if (!isChildCriteria(criteria)) {
+            return SearchOperation.EQUALITY.equals(criteria.getOperation()) || SearchOperation.IN.equals(criteria.getOperation()) ? 0 : 10;
+        }
+        if (SearchOperation.NOT_CONTAINS.equals(criteria.getOperation())) {
+            return 40;
+        }
+        return 30 - Math.min(String.valueOf(criteria.getValue()).length(), 10);
+    }
+
+    private static boolean isChildCriteria(SearchCriteria criteria) {
+        return ("ingredientName".equals(criteria.getKey()) || "description".equals(criteria.getKey()))
+                && (SearchOperation.CONTAINS.equals(criteria.getOperation()) || SearchOperation.NOT_CONTAINS.equals(criteria.getOperation()));
+    }
+
+    /**
+     * Child rows of the recipe containing the value, correlated on their recipe id.
+     */
+    private static Subquery<Long> children(Root<Recipe> root, CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder,
+                                           SearchCriteria criteria) {
+        Subquery<Long> children = query.subquery(Long.class);
+        if ("ingredientName".equals(criteria.getKey())) {
+            Root<Ingredients> ingredients = children.from(Ingredients.class);
+            return children.select(ingredients.get("id"))
+                    .where(criteriaBuilder.equal(ingredients.get("recipeId"), root.get("id")),
+                            ingredients.get("ingredient").get("id").in(ingredientIdsContaining(query, criteriaBuilder, criteria.getValue())));
+        }
+        Root<Instructions> instructions = children.from(Instructions.class);
+        return children.select(instructions.get("id"))
+                .where(criteriaBuilder.equal(instructions.get("recipeId"), root.get("id")),
+                        criteriaBuilder.like(criteriaBuilder.lower(instructions.get("description")), containsPattern(criteria.getValue()), ESCAPE));
+    }
+
+    /**
+     * Ids of the dictionary entries whose name contains the value. The pattern is matched against the small
+     * ingredient dictionary only, the ingredient rows are then matched on their ingredient id.
+     */
+    private static Subquery<Integer> ingredientIdsContaining(CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder, Object value) {
+        Subquery<Integer> ingredientIds = query.subquery(Integer.class);
+        Root<Ingredient> ingredient = ingredientIds.from(Ingredient.class);
+        return ingredientIds.select(ingredient.get("id"))
+                .where(criteriaBuilder.like(criteriaBuilder.lower(ingredient.get("name")), containsPattern(value), ESCAPE));
+    }
+
+    /**
+     * Builds {@code %value%} for a {@code lower(column) LIKE} predicate. The value is lower cased on this side,
+     * so on Postgres the predicate matches the {@code lower(column) gin_trgm_ops} indexes of schema-postgresql.sql,
+     * and the LIKE wildcards in the value are escaped so they are searched literally.
+     */
+    static String containsPattern(Object value) {
+        String text = value.toString().toLowerCase(Locale.ROOT);
+        StringBuilder pattern = new StringBuilder(text.length() + 2).append('%');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '%' || c == '_' || c == ESCAPE) {
+                pattern.append(ESCAPE);
             }
-        } else {
-            genericJoin = root.join(attribute);
+            pattern.append(c);
         }
-        return genericJoin;
+        return pattern.append('%').toString();
     }
 }
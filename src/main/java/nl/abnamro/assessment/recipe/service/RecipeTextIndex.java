@@ -0,0 +1,321 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.MMapDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Full text index of the recipe names, ingredient names and instructions in an embedded Lucene index, memory
+ * mapped from {@code recipe.text-index.directory}. Matches are ranked by BM25, a match in the name weighing more
+ * than one in the ingredients, which weighs more than one in the instructions. Text is analyzed as English, so
+ * "tomatoes" finds "tomato".
+ * <p>
+ * Like {@link RecipeSearchIndex} it is rebuilt from the database when the application is ready and follows the
+ * committed writes of this node through {@link RecipeChangedEvent} and those of every node through
+ * {@link RecipeChangesRelayedEvent}. Writes are visible near real time: the first
+ * search after a write reopens the searcher, the index is committed to disk after a rebuild and on shutdown only.
+ * Until it is built, or when it is disabled with {@code recipe.text-index.enabled}, {@link #search} returns
+ * {@code null}.
+ *
+ * @author Orhan Polat
+ */
+@Component
+public class RecipeTextIndex {
+
+    private static final Logger LOG = LogManager.getLogger(RecipeTextIndex.class);
+
+    static final String ID = "id";
+    static final String NAME = "name";
+    static final String INGREDIENTS = "ingredients";
+    static final String INSTRUCTIONS = "instructions";
+
+    private static final String ID_ORDER = "id_order";
+
+    private static final Map<String, Float> FIELD_WEIGHTS = Map.of(NAME, 3f, INGREDIENTS, 2f, INSTRUCTIONS, 1f);
+
+    private static final String[] HIGHLIGHTED_FIELDS = {NAME, INGREDIENTS, INSTRUCTIONS};
+
+    /**
+     * Highest score first, then lowest id, so equally scored recipes keep their order between searches.
+     */
+    private static final Sort RANKING = new Sort(SortField.FIELD_SCORE, new SortField(ID_ORDER, SortField.Type.LONG));
+
+    private final RecipeRepository recipeRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Path directoryPath;
+
+    private final Analyzer analyzer = new EnglishAnalyzer();
+
+    private final Lock lock = new ReentrantLock();
+
+    private MMapDirectory directory;
+
+    private IndexWriter writer;
+
+    private SearcherManager searcherManager;
+
+    private final IndexLifecycle lifecycle;
+
+    /**
+     * Set by writes not yet visible to searches.
+     */
+    private volatile boolean stale;
+
+    public RecipeTextIndex(RecipeRepository recipeRepository, TransactionTemplate transactionTemplate,
+                           @Value("${recipe.text-index.enabled:true}") boolean enabled,
+                           @Value("${recipe.text-index.directory:${java.io.tmpdir}/recipe-text-index}") String directory) {
+        this.recipeRepository = recipeRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.directoryPath = Path.of(directory);
+        this.lifecycle = new IndexLifecycle("text", "text search is not available", enabled, lock, this::apply);
+    }
+
+    /**
+     * Replaces what is on disk with the recipes in the database, the index on disk may have missed the writes of
+     * other nodes and those done while this node was down.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long start = System.currentTimeMillis();
+        boolean ready = lifecycle.build(() -> {
+            if (directory != null) {
+                // left open by a failed build
+                closeIndex();
+            }
+            directory = new MMapDirectory(directoryPath);
+            writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            searcherManager = new SearcherManager(writer, null);
+            writer.deleteAll();
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<Recipe> recipes = recipeRepository.streamAll(RecipeServiceImpl.EXPORT_FETCH_SIZE)) {
+                    Iterator<Recipe> iterator = recipes.iterator();
+                    int count = 0;
+                    while (iterator.hasNext()) {
+                        addDocument(iterator.next());
+                        if (++count % Recipe.BATCH_SIZE == 0) {
+                            recipeRepository.detachAll();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.commit();
+        }, () -> {
+            searcherManager.maybeRefreshBlocking();
+            return true;
+        });
+        if (ready) {
+            LOG.info("Indexed {} recipes for text search in {} ms", writer.getDocStats().numDocs, System.currentTimeMillis() - start);
+        }
+    }
+
+    @Scheduled(fixedDelay = IndexLifecycle.RETRY_POLL_MILLIS)
+    public void retryBuild() {
+        if (lifecycle.retryDue(System.currentTimeMillis())) {
+            build();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            lifecycle.stop();
+            closeIndex();
+        } catch (IOException e) {
+            LOG.warn("Closing the recipe text index failed, it is rebuilt on the next start anyway", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeIndex() throws IOException {
+        try {
+            if (searcherManager != null) {
+                searcherManager.close();
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        } finally {
+            searcherManager = null;
+            writer = null;
+            if (directory != null) {
+                directory.close();
+                directory = null;
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecipeChanged(RecipeChangedEvent event) {
+        lifecycle.onRecipeChanged(event);
+    }
+
+    @EventListener
+    public void onChangesRelayed(RecipeChangesRelayedEvent event) {
+        event.getChanges().forEach(lifecycle::onRecipeChanged);
+    }
+
+    /**
+     * At most {@code limit} recipes matching the query, best match first, or {@code null} when the index is not
+     * available. The query is free text: all terms are required in any of the fields, {@code |} between terms
+     * makes either do, {@code -} excludes a term, {@code "..."} matches a phrase and a trailing {@code *} a prefix.
+     */
+    public List<TextMatch> search(String text, int limit) {
+        if (!lifecycle.isReady()) {
+            return null;
+        }
+        try {
+            if (stale) {
+                stale = false;
+                searcherManager.maybeRefreshBlocking();
+            }
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                Query query = parse(text);
+                TopDocs topDocs = searcher.search(query, limit, RANKING, true);
+                Map<String, String[]> highlights = UnifiedHighlighter.builder(searcher, analyzer)
+                        .withMaxNoHighlightPassages(0)
+                        // the stored text is escaped, only the tags around the matches are markup
+                        .withFormatter(new DefaultPassageFormatter("<b>", "</b>", "... ", true))
+                        .build()
+                        .highlightFields(HIGHLIGHTED_FIELDS, query, topDocs, maxPassages());
+
+                List<TextMatch> matches = new ArrayList<>(topDocs.scoreDocs.length);
+                for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+                    Map<String, String> recipeHighlights = new LinkedHashMap<>();
+                    for (String field : HIGHLIGHTED_FIELDS) {
+                        String highlight = highlights.get(field)[i];
+                        if (highlight != null) {
+                            recipeHighlights.put(field, highlight);
+                        }
+                    }
+                    long recipeId = Long.parseLong(searcher.storedFields().document(topDocs.scoreDocs[i].doc).get(ID));
+                    matches.add(new TextMatch(recipeId, topDocs.scoreDocs[i].score, recipeHighlights));
+                }
+                return matches;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    boolean isReady() {
+        return lifecycle.isReady();
+    }
+
+    /**
+     * Parsing never fails, syntax it does not understand is searched for as text.
+     */
+    private Query parse(String text) {
+        SimpleQueryParser parser = new SimpleQueryParser(analyzer, FIELD_WEIGHTS);
+        parser.setDefaultOperator(BooleanClause.Occur.MUST);
+        Query query = parser.parse(text);
+        // a query of stop words only analyzes to nothing
+        return query == null ? new MatchNoDocsQuery() : query;
+    }
+
+    private static int[] maxPassages() {
+        int[] maxPassages = new int[HIGHLIGHTED_FIELDS.length];
+        Arrays.fill(maxPassages, 1);
+        return maxPassages;
+    }
+
+    private void apply(RecipeChangedEvent event) {
+        try {
+            if (event.getRecipe() == null) {
+                writer.deleteDocuments(new Term(ID, event.getRecipeId().toString()));
+            } else {
+                addDocument(event.getRecipe());
+            }
+            stale = true;
+        } catch (IOException e) {
+            LOG.error("Indexing recipe {} for text search failed", event.getRecipeId(), e);
+        }
+    }
+
+    private void addDocument(Recipe recipe) throws IOException {
+        Document document = new Document();
+        document.add(new StringField(ID, recipe.getId().toString(), Field.Store.YES));
+        document.add(new NumericDocValuesField(ID_ORDER, recipe.getId()));
+        if (recipe.getName() != null) {
+            document.add(new TextField(NAME, recipe.getName(), Field.Store.YES));
+        }
+        for (Ingredients ingredient : recipe.getIngredients()) {
+            if (ingredient.getIngredientName() != null) {
+                document.add(new TextField(INGREDIENTS, ingredient.getIngredientName(), Field.Store.YES));
+            }
+        }
+        for (Instructions instruction : recipe.getInstructions()) {
+            if (instruction.getDescription() != null) {
+                document.add(new TextField(INSTRUCTIONS, instruction.getDescription(), Field.Store.YES));
+            }
+        }
+        // replaces the document of the recipe, if any
+        writer.updateDocument(new Term(ID, recipe.getId().toString()), document);
+    }
+
+    /**
+     * A recipe matching a text search; {@code highlights} holds per matching field a passage with the matched
+     * terms in {@code <b>} tags, the text around them HTML escaped.
+     */
+    @lombok.Value
+    public static class TextMatch {
+        long recipeId;
+        float score;
+        Map<String, String> highlights;
+    }
+}
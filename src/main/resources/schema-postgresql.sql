@@ -0,0 +1,37 @@
+-- Runs on every start after Hibernate, so every statement must be idempotent.
+
+-- Ids are allocated in blocks of 50 (allocationSize on the entities); sequences created with increment 1 are moved over.
+ALTER SEQUENCE IF EXISTS recipe_id_seq INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS ingredients_id_seq INCREMENT BY 50;
+ALTER SEQUENCE IF EXISTS instructions_id_seq INCREMENT BY 50;
+
+-- Ingredient names moved to the ingredient dictionary, ingredients rows refer to it by ingredient_id. Rows stored
+-- before still have their text in ingredients.name: the distinct names are added to the dictionary, the rows are
+-- pointed at them and the column is dropped. The body is quoted with '' so the script splitter keeps it whole.
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = ''ingredients'' AND column_name = ''name'') THEN
+        INSERT INTO ingredient (id, name)
+            SELECT nextval(''ingredient_id_seq''), name FROM (SELECT DISTINCT name FROM ingredients WHERE name IS NOT NULL) names
+            ON CONFLICT (name) DO NOTHING;
+        UPDATE ingredients SET ingredient_id = ingredient.id
+            FROM ingredient WHERE ingredient.name = ingredients.name AND ingredients.ingredient_id IS NULL;
+        DROP INDEX IF EXISTS ingredients_name_trgm_idx;
+        ALTER TABLE ingredients DROP COLUMN name;
+    END IF;
+END';
+
+-- Trigram indexes serve the lower(column) LIKE '%value%' predicates of RecipeSpecification (values of 3+ characters),
+-- so CONTAINS searches on the dictionary and the instructions no longer scan them.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS ingredient_name_trgm_idx ON ingredient USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS instructions_description_trgm_idx ON instructions USING gin (lower(description) gin_trgm_ops);
+
+-- Recipes stored before the version column existed start at version 0.
+UPDATE recipe SET version = 0 WHERE version IS NULL;
+
+-- Change sequence of the delta sync feed, one value per write transaction. No cache, so values follow the order
+-- in which writers asked for them on every node. Recipes stored before it existed are numbered once.
+CREATE SEQUENCE IF NOT EXISTS recipe_change_seq;
+UPDATE recipe SET change_seq = nextval('recipe_change_seq') WHERE change_seq IS NULL;
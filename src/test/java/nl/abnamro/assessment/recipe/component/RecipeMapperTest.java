@@ -0,0 +1,69 @@
+package nl.abnamro.assessment.recipe.component;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeMapperTest {
+
+    private final RecipeMapper recipeMapper = new RecipeMapper();
+
+    private final ObjectMapperUtils objectMapperUtils = new ObjectMapperUtils();
+
+    @Test
+    void testToDtoMatchesModelMapper() {
+        Recipe recipe = Recipe.builder()
+                .id(1L)
+                .name("Test Recipe")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(
+                        Ingredients.builder().id(1L).ingredientName("Salt").recipeId(1L).build(),
+                        Ingredients.builder().id(2L).ingredientName("Pepper").recipeId(1L).build()))
+                .instructions(Set.of(Instructions.builder().id(3L).description("Mix").recipeId(1L).build()))
+                .build();
+
+        assertThat(recipeMapper.toDto(recipe)).isEqualTo(objectMapperUtils.map(recipe, RecipeDto.class));
+        assertThat(recipeMapper.toDtoList(List.of(recipe))).isEqualTo(objectMapperUtils.mapList(List.of(recipe), RecipeDto.class));
+    }
+
+    @Test
+    void testToEntity() {
+        RecipeDto recipeDto = RecipeDto.builder()
+                .name("Test Recipe")
+                .servingNumber(4)
+                .isVegetarian(false)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("Salt").build()))
+                .instructions(Set.of(InstructionsDto.builder().description("Mix").build()))
+                .build();
+
+        Recipe recipe = recipeMapper.toEntity(recipeDto);
+
+        assertThat(recipe.getId()).isNull();
+        assertThat(recipe.getName()).isEqualTo("Test Recipe");
+        assertThat(recipe.getServingNumber()).isEqualTo(4);
+        assertThat(recipe.getIsVegetarian()).isFalse();
+        assertThat(recipe.getIngredients()).extracting(Ingredients::getIngredientName).containsExactly("Salt");
+        assertThat(recipe.getInstructions()).extracting(Instructions::getDescription).containsExactly("Mix");
+    }
+
+    @Test
+    void testToEntityWithoutChildren() {
+        Recipe recipe = recipeMapper.toEntity(RecipeDto.builder().name("Empty").build());
+
+        assertThat(recipe.getIngredients()).isEmpty();
+        assertThat(recipe.getInstructions()).isEmpty();
+    }
+}
@@ -0,0 +1,155 @@
+package nl.abnamro.assessment.recipe.component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.abnamro.assessment.recipe.controller.InvalidPatchException;
+import nl.abnamro.assessment.recipe.controller.PreconditionFailedException;
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeMergerTest {
+
+    private final RecipeMerger recipeMerger = new RecipeMerger();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Recipe recipe;
+
+    private Ingredients salt;
+
+    private Ingredients pepper;
+
+    private Instructions mix;
+
+    @BeforeEach
+    void setUp() {
+        salt = Ingredients.builder().id(1L).ingredientName("Salt").recipeId(1L).build();
+        pepper = Ingredients.builder().id(2L).ingredientName("Pepper").recipeId(1L).build();
+        mix = Instructions.builder().id(3L).description("Mix").recipeId(1L).build();
+        recipe = Recipe.builder()
+                .id(1L)
+                .name("Test Recipe")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .version(4L)
+                .ingredients(new HashSet<>(Set.of(salt, pepper)))
+                .instructions(new HashSet<>(Set.of(mix)))
+                .build();
+    }
+
+    @Test
+    void testUnchangedRecipeTouchesNothing() {
+        RecipeMerger.RowChanges changes = recipeMerger.merge(recipe, RecipeDto.builder()
+                .name("Test Recipe")
+                .servingNumber(2)
+                .isVegetarian(true)
+                // without ids, children are matched by their text
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("Salt").build(),
+                        IngredientsDto.builder().id(2L).ingredientName("Pepper").build()))
+                .instructions(Set.of(InstructionsDto.builder().description("Mix").build()))
+                .build());
+
+        assertThat(changes.getTotal()).isZero();
+        assertThat(recipe.getIngredients()).containsExactlyInAnyOrder(salt, pepper);
+        assertThat(recipe.getInstructions()).containsExactly(mix);
+    }
+
+    @Test
+    void testOnlyDifferencesAreApplied() {
+        RecipeMerger.RowChanges changes = recipeMerger.merge(recipe, RecipeDto.builder()
+                .name("Renamed Recipe")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().id(1L).ingredientName("Sea Salt").build(),
+                        IngredientsDto.builder().ingredientName("Garlic").build()))
+                .instructions(Set.of(InstructionsDto.builder().description("Mix").build()))
+                .build());
+
+        assertThat(changes.getInserted()).isEqualTo(1);
+        assertThat(changes.getUpdated()).isEqualTo(2);
+        assertThat(changes.getDeleted()).isEqualTo(1);
+        assertThat(recipe.getName()).isEqualTo("Renamed Recipe");
+        assertThat(recipe.getIngredients()).contains(salt).doesNotContain(pepper).hasSize(2);
+        assertThat(salt.getIngredientName()).isEqualTo("Sea Salt");
+        assertThat(recipe.getIngredients()).anyMatch(ingredient -> ingredient.getId() == null
+                && ingredient.getIngredientName().equals("Garlic") && ingredient.getRecipeId().equals(1L));
+        assertThat(recipe.getInstructions()).containsExactly(mix);
+    }
+
+    @Test
+    void testUnknownIdIsInsertedAsNewChild() {
+        RecipeMerger.RowChanges changes = recipeMerger.merge(recipe, RecipeDto.builder()
+                .name("Test Recipe")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().id(99L).ingredientName("Thyme").build()))
+                .build());
+
+        assertThat(changes.getInserted()).isEqualTo(1);
+        assertThat(changes.getDeleted()).isEqualTo(3);
+        assertThat(recipe.getIngredients()).singleElement()
+                .satisfies(ingredient -> assertThat(ingredient.getId()).isNull());
+        assertThat(recipe.getInstructions()).isEmpty();
+    }
+
+    @Test
+    void testMergePatchChangesOnlyGivenMembers() throws Exception {
+        JsonNode patch = objectMapper.readTree("{\"isVegetarian\": false, \"servingNumber\": null}");
+
+        RecipeMerger.RowChanges changes = recipeMerger.mergePatch(recipe, patch);
+
+        assertThat(changes.getUpdated()).isEqualTo(1);
+        assertThat(changes.getTotal()).isEqualTo(1);
+        assertThat(recipe.getIsVegetarian()).isFalse();
+        assertThat(recipe.getServingNumber()).isNull();
+        assertThat(recipe.getName()).isEqualTo("Test Recipe");
+        assertThat(recipe.getIngredients()).containsExactlyInAnyOrder(salt, pepper);
+    }
+
+    @Test
+    void testMergePatchReplacesChildArrays() throws Exception {
+        JsonNode patch = objectMapper.readTree("{\"ingredients\": [{\"id\": 1, \"ingredientName\": \"Salt\"}, {\"ingredientName\": \"Garlic\"}],"
+                + " \"instructions\": null}");
+
+        RecipeMerger.RowChanges changes = recipeMerger.mergePatch(recipe, patch);
+
+        assertThat(changes.getInserted()).isEqualTo(1);
+        assertThat(changes.getUpdated()).isZero();
+        assertThat(changes.getDeleted()).isEqualTo(2);
+        assertThat(recipe.getIngredients()).contains(salt).doesNotContain(pepper).hasSize(2);
+        assertThat(recipe.getInstructions()).isEmpty();
+    }
+
+    @Test
+    void testMergePatchRejectsInvalidMembers() throws Exception {
+        assertThrows(InvalidPatchException.class, () -> recipeMerger.mergePatch(recipe, objectMapper.readTree("[]")));
+        assertThrows(InvalidPatchException.class, () -> recipeMerger.mergePatch(recipe, objectMapper.readTree("{\"id\": 2}")));
+        assertThrows(InvalidPatchException.class, () -> recipeMerger.mergePatch(recipe, objectMapper.readTree("{\"servingNumber\": \"two\"}")));
+        assertThrows(InvalidPatchException.class, () -> recipeMerger.mergePatch(recipe, objectMapper.readTree("{\"calories\": 100}")));
+        assertThrows(InvalidPatchException.class, () -> recipeMerger.mergePatch(recipe, objectMapper.readTree("{\"version\": \"four\"}")));
+    }
+
+    @Test
+    void testMergePatchChecksTheVersion() throws Exception {
+        RecipeMerger.RowChanges changes = recipeMerger.mergePatch(recipe, objectMapper.readTree("{\"id\": 1, \"version\": 4, \"servingNumber\": 3}"));
+
+        assertThat(changes.getUpdated()).isEqualTo(1);
+        assertThat(recipe.getServingNumber()).isEqualTo(3);
+        assertThrows(PreconditionFailedException.class, () -> recipeMerger.mergePatch(recipe, objectMapper.readTree("{\"version\": 3}")));
+    }
+}
@@ -0,0 +1,125 @@
+package nl.abnamro.assessment.recipe.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Routes between embedded H2 databases that each hold their own name in a {@code node} table.
+ *
+ * @author Orhan Polat
+ */
+class ReplicaRoutingDataSourceTest {
+
+    private final String prefix = "jdbc:h2:mem:" + UUID.randomUUID() + "-";
+
+    private final List<Connection> openDatabases = new ArrayList<>();
+
+    private DataSource primary;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        primary = database("primary");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        ReplicaRoutingDataSource.unpin();
+        for (Connection connection : openDatabases) {
+            connection.close();
+        }
+    }
+
+    @Test
+    void testReadOnlyTransactionsReadFromTheReplicas() throws SQLException {
+        ReplicaRoutingDataSource routingDataSource = routing(database("replica1"), database("replica2"));
+
+        assertThat(read(routingDataSource, true)).isEqualTo("replica1");
+        assertThat(read(routingDataSource, true)).isEqualTo("replica2");
+        assertThat(read(routingDataSource, true)).isEqualTo("replica1");
+        assertThat(read(routingDataSource, false)).isEqualTo("primary");
+        assertThat(new JdbcTemplate(new LazyConnectionDataSourceProxy(routingDataSource))
+                .queryForObject("select name from node", String.class)).isEqualTo("primary");
+    }
+
+    @Test
+    void testPinnedThreadReadsFromThePrimary() throws SQLException {
+        ReplicaRoutingDataSource routingDataSource = routing(database("replica1"));
+
+        ReplicaRoutingDataSource.pinToPrimary();
+        assertThat(read(routingDataSource, true)).isEqualTo("primary");
+
+        ReplicaRoutingDataSource.unpin();
+        assertThat(read(routingDataSource, true)).isEqualTo("replica1");
+    }
+
+    @Test
+    void testUnavailableReplicaIsSkippedUntilItIsValidAgain() throws SQLException {
+        // the database only exists while a connection keeps it open
+        DataSource replica2 = new DriverManagerDataSource(prefix + "replica2;IFEXISTS=TRUE");
+        ReplicaRoutingDataSource routingDataSource = routing(database("replica1"), replica2);
+
+        assertThat(read(routingDataSource, true)).isEqualTo("replica1");
+        assertThat(read(routingDataSource, true)).isEqualTo("replica1");
+        assertThat(routingDataSource.replicaHealth()).containsValues(true, false);
+
+        routingDataSource.checkReplicas();
+        assertThat(routingDataSource.replicaHealth().values()).containsExactly(true, false);
+
+        database("replica2");
+        routingDataSource.checkReplicas();
+        assertThat(routingDataSource.replicaHealth().values()).containsExactly(true, true);
+        assertThat(List.of(read(routingDataSource, true), read(routingDataSource, true)))
+                .containsExactlyInAnyOrder("replica1", "replica2");
+    }
+
+    @Test
+    void testReadsFallBackToThePrimaryWithoutReplicas() throws SQLException {
+        DataSource replica = new DriverManagerDataSource(prefix + "replica1;IFEXISTS=TRUE");
+        ReplicaRoutingDataSource routingDataSource = routing(replica);
+
+        assertThat(read(routingDataSource, true)).isEqualTo("primary");
+        assertThat(read(routingDataSource, true)).isEqualTo("primary");
+    }
+
+    private ReplicaRoutingDataSource routing(DataSource... replicas) {
+        Map<String, DataSource> replicasByName = new LinkedHashMap<>();
+        for (DataSource replica : replicas) {
+            replicasByName.put("replica" + (replicasByName.size() + 1), replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicasByName, 1);
+    }
+
+    private static String read(ReplicaRoutingDataSource routingDataSource, boolean readOnly) {
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactionTemplate.setReadOnly(readOnly);
+        return transactionTemplate.execute(status ->
+                new JdbcTemplate(dataSource).queryForObject("select name from node", String.class));
+    }
+
+    private DataSource database(String name) throws SQLException {
+        Connection connection = DriverManager.getConnection(prefix + name);
+        connection.createStatement().execute("create table node(name varchar(20))");
+        connection.createStatement().execute("insert into node values ('" + name + "')");
+        openDatabases.add(connection);
+        return new DriverManagerDataSource(prefix + name);
+    }
+}
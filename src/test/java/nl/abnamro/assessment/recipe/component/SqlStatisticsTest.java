@@ -0,0 +1,43 @@
+package nl.abnamro.assessment.recipe.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Orhan Polat
+ */
+class SqlStatisticsTest {
+
+    @AfterEach
+    void tearDown() {
+        SqlStatistics.stop();
+    }
+
+    @Test
+    void testRepeatedStatementsShareAShape() {
+        SqlStatistics statistics = SqlStatistics.start();
+
+        statistics.statementExecuted("select * from ingredients where recipe_id=?", 1_000_000);
+        statistics.statementExecuted("select * from ingredients  where recipe_id = 12", 1_000_000);
+        statistics.statementExecuted("select * from ingredients where recipe_id='13'", 1_000_000);
+        statistics.statementExecuted("select * from recipe where id=?", 1_000_000);
+        statistics.rowsRead(5);
+
+        assertThat(SqlStatistics.current()).isSameAs(statistics);
+        assertThat(statistics.getStatements()).isEqualTo(4);
+        assertThat(statistics.getRows()).isEqualTo(5);
+        assertThat(statistics.getTimeMillis()).isEqualTo(4);
+        assertThat(statistics.repeatedStatements(3)).hasSize(1);
+        assertThat(statistics.repeatedStatements(3).values()).containsExactly(3);
+    }
+
+    @Test
+    void testStopClearsTheCurrentStatistics() {
+        SqlStatistics statistics = SqlStatistics.start();
+
+        assertThat(SqlStatistics.stop()).isSameAs(statistics);
+        assertThat(SqlStatistics.current()).isNull();
+    }
+}
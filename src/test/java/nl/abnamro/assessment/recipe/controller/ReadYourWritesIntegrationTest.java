@@ -0,0 +1,133 @@
+package nl.abnamro.assessment.recipe.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.abnamro.assessment.recipe.component.ReplicaRoutingDataSource;
+import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import javax.servlet.http.Cookie;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the application with a replica that is a database of its own. It only holds what the test copies into it
+ * from the primary, so it lags behind every write made after the copy.
+ *
+ * @author Orhan Polat
+ */
+@AutoConfigureMockMvc
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReadYourWritesIntegrationTest.PRIMARY_URL,
+        "recipe.datasource.replica-urls=" + ReadYourWritesIntegrationTest.REPLICA_URL,
+        // the indexes are built by read-only transactions, before the test has given the replica a schema
+        "recipe.search-index.enabled=false",
+        "recipe.similarity-index.enabled=false",
+        "recipe.text-index.enabled=false"})
+@ActiveProfiles("test")
+class ReadYourWritesIntegrationTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:recipe-primary;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1";
+
+    static final String REPLICA_URL = "jdbc:h2:mem:recipe-replica;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void testWritePinsTheClientToThePrimary() throws Exception {
+        replicate();
+        assertThat(dataSource.unwrap(ReplicaRoutingDataSource.class).replicaHealth()).containsValue(true);
+
+        RecipeDto recipeDto = RecipeDto.builder()
+                .name("Recipe Replica")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("ReplicaIngredient").build()))
+                .instructions(Set.of(InstructionsDto.builder().description("ReplicaInstruction").build()))
+                .build();
+        MvcResult saved = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/recipe")
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(recipeDto)))
+                .andExpect(status().isCreated())
+                .andExpect(cookie().exists(ReadYourWritesInterceptor.COOKIE))
+                .andExpect(cookie().httpOnly(ReadYourWritesInterceptor.COOKIE, true))
+                .andReturn();
+        RecipeDto savedRecipe = objectMapper.readValue(saved.getResponse().getContentAsString(), RecipeDto.class);
+        Cookie pin = saved.getResponse().getCookie(ReadYourWritesInterceptor.COOKIE);
+        assertThat(Long.parseLong(pin.getValue())).isGreaterThan(System.currentTimeMillis());
+
+        // the replica has not replayed the write
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/" + savedRecipe.getId()))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/" + savedRecipe.getId()).cookie(pin))
+                .andExpect(status().isOk())
+                .andExpect(cookie().doesNotExist(ReadYourWritesInterceptor.COOKIE));
+        assertThat(ReplicaRoutingDataSource.isPinnedToPrimary()).isFalse();
+
+        replicate();
+        savedRecipe.setName("Recipe Replica Renamed");
+        MvcResult updated = mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/recipe/" + savedRecipe.getId())
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(savedRecipe)))
+                .andExpect(status().isNoContent())
+                .andReturn();
+        pin = updated.getResponse().getCookie(ReadYourWritesInterceptor.COOKIE);
+
+        // the old recipe read from the replica is not cached, so the pinned client still reads its write
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/" + savedRecipe.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Recipe Replica"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/" + savedRecipe.getId()).cookie(pin))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Recipe Replica Renamed"));
+    }
+
+    /**
+     * Replaces the content of the replica with a copy of the primary.
+     */
+    private static void replicate() throws SQLException {
+        List<String> script = new ArrayList<>();
+        try (Connection primary = DriverManager.getConnection(PRIMARY_URL, "sa", "");
+             Statement statement = primary.createStatement();
+             ResultSet lines = statement.executeQuery("SCRIPT")) {
+            while (lines.next()) {
+                script.add(lines.getString(1));
+            }
+        }
+        try (Connection replica = DriverManager.getConnection(REPLICA_URL, "sa", "");
+             Statement statement = replica.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+            for (String line : script) {
+                statement.execute(line);
+            }
+        }
+    }
+}
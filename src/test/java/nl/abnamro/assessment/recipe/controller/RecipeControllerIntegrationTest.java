@@ -2,26 +2,55 @@ package nl.abnamro.assessment.recipe.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import nl.abnamro.assessment.recipe.model.IngredientsDto;
+import nl.abnamro.assessment.recipe.enums.BatchItemStatus;
 import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeChangesDto;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.domain.RecipeOutbox;
 import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.model.RecipePantryMatchDto;
+import nl.abnamro.assessment.recipe.model.RecipeSimilarityDto;
+import nl.abnamro.assessment.recipe.model.RecipeTextMatchDto;
+import nl.abnamro.assessment.recipe.repository.IngredientRepository;
 import nl.abnamro.assessment.recipe.service.IRecipeService;
+import nl.abnamro.assessment.recipe.service.RecipeEventRelay;
+import nl.abnamro.assessment.recipe.service.RecipeSort;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -29,6 +58,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  */
 @ExtendWith(SpringExtension.class)
 @AutoConfigureMockMvc
+@AutoConfigureMetrics
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
 public class RecipeControllerIntegrationTest {
@@ -42,6 +72,37 @@ public class RecipeControllerIntegrationTest {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private RecipeEventRelay recipeEventRelay;
+
+    @Autowired
+    private IngredientRepository ingredientRepository;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        for (int i = 0; i < 3; i++) {
+            recipeService.saveRecipe(RecipeDto.builder()
+                    .name("Recipe Fetch " + i)
+                    .servingNumber(3)
+                    .isVegetarian(true)
+                    .ingredients(Set.of(IngredientsDto.builder().ingredientName("FetchIngredient" + i).build(),
+                            IngredientsDto.builder().ingredientName("Salt").build()))
+                    .instructions(Set.of(InstructionsDto.builder().description("FetchInstruction" + i).build(),
+                            InstructionsDto.builder().description("Serve").build()))
+                    .build());
+        }
+    }
+
     @Test
     public void testFindAll() throws Exception {
 
@@ -124,6 +185,225 @@ public class RecipeControllerIntegrationTest {
         assertThat(actualRecipe.getName()).isEqualTo(recipeDto.getName());
     }
 
+    @Test
+    public void testUpdateRecipeNameOnlyKeepsChildRows() throws Exception {
+        RecipeDto savedRecipe = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0);
+        savedRecipe.setName(savedRecipe.getName() + " Renamed");
+        statistics.clear();
+
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(savedRecipe)))
+                .andExpect(status().isNoContent());
+
+        // the recipe with its children, the change sequence, the changed columns only and the outbox row,
+        // plus the next block of outbox ids once every 50 changes
+        assertThat(statistics.getPrepareStatementCount()).isBetween(4L, 5L);
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(1);
+        assertThat(statistics.getEntityStatistics(RecipeOutbox.class.getName()).getInsertCount()).isEqualTo(1);
+        assertThat(statistics.getEntityDeleteCount()).isEqualTo(0);
+        assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+        savedRecipe.setVersion(savedRecipe.getVersion() + 1);
+        assertThat(recipeService.findRecipe(savedRecipe.getId())).isEqualTo(savedRecipe);
+    }
+
+    @Test
+    public void testPatchRecipe() throws Exception {
+        RecipeDto savedRecipe = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0);
+        statistics.clear();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .contentType(RecipeController.MERGE_PATCH_VALUE)
+                        .content("{\"isVegetarian\": " + !savedRecipe.getIsVegetarian() + "}"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        RecipeDto patchedRecipe = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto.class);
+        assertThat(patchedRecipe.getIsVegetarian()).isEqualTo(!savedRecipe.getIsVegetarian());
+        assertThat(patchedRecipe.getName()).isEqualTo(savedRecipe.getName());
+        assertThat(patchedRecipe.getIngredients()).isEqualTo(savedRecipe.getIngredients());
+        // the recipe with its children, the change sequence, the changed columns only and the outbox row,
+        // plus the next block of outbox ids once every 50 changes
+        assertThat(statistics.getPrepareStatementCount()).isBetween(4L, 5L);
+        assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+        assertThat(recipeService.findRecipe(savedRecipe.getId()).getIsVegetarian()).isEqualTo(!savedRecipe.getIsVegetarian());
+    }
+
+    @Test
+    public void testPatchRecipeWithTheBodyOfAGet() throws Exception {
+        Long recipeId = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0).getId();
+        String body = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", recipeId))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        RecipeDto readRecipe = objectMapper.readValue(body, RecipeDto.class);
+        String patch = body.replace("\"servingNumber\":" + readRecipe.getServingNumber(),
+                "\"servingNumber\":" + (readRecipe.getServingNumber() + 1));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/recipe/{recipeId}", recipeId)
+                        .contentType(RecipeController.MERGE_PATCH_VALUE)
+                        .content(patch))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeDto patchedRecipe = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto.class);
+        assertThat(patchedRecipe.getServingNumber()).isEqualTo(readRecipe.getServingNumber() + 1);
+        assertThat(patchedRecipe.getVersion()).isEqualTo(readRecipe.getVersion() + 1);
+        assertThat(patchedRecipe.getIngredients()).isEqualTo(readRecipe.getIngredients());
+
+        // the same body again carries the version it was read at, which is gone now
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/recipe/{recipeId}", recipeId)
+                        .contentType(RecipeController.MERGE_PATCH_VALUE)
+                        .content(patch))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    public void testVersionDrivesConditionalRequests() throws Exception {
+        RecipeDto savedRecipe = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0);
+        String etag = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", savedRecipe.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isEqualTo("\"" + savedRecipe.getVersion() + "\"");
+
+        statistics.clear();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        // the version comes from the cached recipe
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+
+        // renaming a child only still bumps the version
+        IngredientsDto ingredient = savedRecipe.getIngredients().iterator().next();
+        ingredient.setIngredientName(ingredient.getIngredientName() + " Renamed");
+        String newEtag = mockMvc.perform(MockMvcRequestBuilders.put("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(savedRecipe)))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(newEtag).isEqualTo("\"" + (savedRecipe.getVersion() + 1) + "\"");
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .header(HttpHeaders.IF_MATCH, etag))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/v1/recipe/{recipeId}", savedRecipe.getId())
+                        .header(HttpHeaders.IF_MATCH, newEtag))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void testChangesSinceToken() throws Exception {
+        Object service = AopTestUtils.getTargetObject(recipeService);
+        Object settleMillis = ReflectionTestUtils.getField(service, "settleMillis");
+        try {
+            // every change has settled
+            ReflectionTestUtils.setField(service, "settleMillis", 0L);
+            String token = readChanges(null).getToken();
+            while (true) {
+                RecipeChangesDto changes = readChanges(token);
+                if (changes == null) {
+                    break;
+                }
+                token = changes.getToken();
+            }
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/changes").param("since", token))
+                    .andExpect(status().isNoContent());
+
+            RecipeDto createdRecipe = recipeService.saveRecipe(RecipeDto.builder()
+                    .name("Recipe Changes")
+                    .servingNumber(1)
+                    .isVegetarian(false)
+                    .ingredients(Set.of(IngredientsDto.builder().ingredientName("ChangesIngredient").build()))
+                    .instructions(Set.of(InstructionsDto.builder().description("ChangesInstruction").build()))
+                    .build());
+            RecipeDto deletedRecipe = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0);
+            recipeService.deleteRecipe(deletedRecipe.getId(), null);
+            createdRecipe.setName("Recipe Changes Renamed");
+            recipeService.updateRecipe(createdRecipe.getId(), createdRecipe, null);
+
+            // changes that may not have settled are returned without moving the token past them
+            ReflectionTestUtils.setField(service, "settleMillis", 60000L);
+            RecipeChangesDto unsettled = readChanges(token);
+            assertThat(unsettled.getRecipes().size()).isEqualTo(1);
+            assertThat(unsettled.getDeleted()).isEqualTo(List.of(deletedRecipe.getId()));
+            assertThat(unsettled.getToken()).isEqualTo(token);
+            assertThat(readChanges(unsettled.getToken())).isEqualTo(unsettled);
+
+            ReflectionTestUtils.setField(service, "settleMillis", 0L);
+            statistics.clear();
+            RecipeChangesDto changes = readChanges(token);
+            // recipes, tombstones, then ingredients and instructions of the changed recipes in one batch each
+            assertThat(statistics.getPrepareStatementCount()).isEqualTo(4);
+            assertThat(changes.getRecipes().size()).isEqualTo(1);
+            assertThat(changes.getRecipes().get(0).getName()).isEqualTo("Recipe Changes Renamed");
+            assertThat(changes.getDeleted()).isEqualTo(List.of(deletedRecipe.getId()));
+            assertThat(changes.isMore()).isEqualTo(false);
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/changes").param("since", changes.getToken()))
+                    .andExpect(status().isNoContent());
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/changes").param("since", "latest"))
+                    .andExpect(status().isBadRequest());
+        } finally {
+            ReflectionTestUtils.setField(service, "settleMillis", settleMillis);
+        }
+    }
+
+    private RecipeChangesDto readChanges(String token) throws Exception {
+        MockHttpServletResponse response = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/changes")
+                        .param("since", token)
+                        .param("limit", "100"))
+                .andReturn().getResponse();
+        if (response.getStatus() == 204) {
+            return null;
+        }
+        assertThat(response.getStatus()).isEqualTo(200);
+        return objectMapper.readValue(response.getContentAsString(), RecipeChangesDto.class);
+    }
+
+    @Test
+    public void testEventStreamRelaysOutboxAndResumes() throws Exception {
+        recipeEventRelay.relay();
+        MvcResult stream = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        RecipeDto createdRecipe = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Recipe Events")
+                .servingNumber(1)
+                .isVegetarian(true)
+                .build());
+        recipeEventRelay.relay();
+        String content = awaitContent(stream, "\"recipeId\":" + createdRecipe.getId() + ",\"changeType\":\"CREATED\"");
+        assertThat(content).contains("event:" + RecipeEventRelay.RECIPE_EVENT);
+        String createdEventId = content.substring(content.lastIndexOf("id:") + 3, content.indexOf('\n', content.lastIndexOf("id:")));
+
+        // deleted while the subscriber was away, it gets the change when it comes back
+        recipeService.deleteRecipe(createdRecipe.getId(), null);
+        MvcResult resumed = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/events")
+                        .header(RecipeController.LAST_EVENT_ID_HEADER, createdEventId))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitContent(resumed, "\"recipeId\":" + createdRecipe.getId() + ",\"changeType\":\"DELETED\"");
+
+        MvcResult reset = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/events")
+                        .header(RecipeController.LAST_EVENT_ID_HEADER, "0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        awaitContent(reset, "event:" + RecipeEventRelay.RESET_EVENT);
+    }
+
+    private static String awaitContent(MvcResult stream, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = stream.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            content = stream.getResponse().getContentAsString();
+        }
+        assertThat(content).contains(expected);
+        return content;
+    }
+
     @Test
     public void testDeleteRecipe() throws Exception {
         IngredientsDto ingredientsDto = IngredientsDto.builder()
@@ -209,4 +489,414 @@ public class RecipeControllerIntegrationTest {
         assertThat(actualRecipes).hasAtLeastOneElementOfType(RecipeDto.class);
         assertThat(actualRecipes[0].getName()).isEqualTo(recipeDto2.getName());
     }
+
+    @Test
+    public void testExcludedIngredientDropsTheWholeRecipe() throws Exception {
+        String suffix = String.valueOf(System.nanoTime());
+        Set<InstructionsDto> instructions = Set.of(InstructionsDto.builder().description("ExcludeInstruction" + suffix).build());
+        recipeService.saveRecipe(RecipeDto.builder()
+                .name("Recipe Exclude With Pepper")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("ExcludeIngredient" + suffix).build(),
+                        IngredientsDto.builder().ingredientName("ExcludePepper" + suffix).build()))
+                .instructions(instructions)
+                .build());
+        RecipeDto withoutPepper = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Recipe Exclude Without Pepper")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("ExcludeIngredient" + suffix).build(),
+                        IngredientsDto.builder().ingredientName("ExcludeSalt" + suffix).build()))
+                .instructions(instructions)
+                .build());
+
+        // the instruction criterion is answered by the database, the same search without it by the search index
+        for (String instructionText : new String[]{"excludeinstruction" + suffix, null}) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                            .param("ingredientName", "excludeingredient" + suffix)
+                            .param("excludeIngredientName", "PEPPER" + suffix)
+                            .param("instructionText", instructionText))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            RecipeDto[] actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+            assertThat(actualRecipes.length).isEqualTo(1);
+            assertThat(actualRecipes[0].getId()).isEqualTo(withoutPepper.getId());
+        }
+    }
+
+    @Test
+    public void testFindAllStatementCount() throws Exception {
+        statistics.clear();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe")
+                        .param("limit", "50"))
+                .andExpect(status().isOk())
+                .andExpect(SqlBudget.maxStatements(3))
+                .andExpect(SqlBudget.noRepeatedStatements())
+                .andReturn();
+
+        RecipeDto[] actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+        assertThat(actualRecipes.length).isGreaterThanOrEqualTo(3);
+        // the page, then one batch per child collection
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSearchRecipesStatementCount() throws Exception {
+        statistics.clear();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("ingredientName", "salt")
+                        .param("limit", "50"))
+                .andExpect(status().isOk())
+                .andExpect(SqlBudget.maxStatements(3))
+                .andExpect(SqlBudget.noRepeatedStatements())
+                .andReturn();
+
+        RecipeDto[] actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+        assertThat(actualRecipes.length).isGreaterThanOrEqualTo(3);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testIngredientNamesAreStoredOnceInTheDictionary() throws Exception {
+        assertThat(ingredientRepository.findByNameIn(List.of("Salt")).size()).isEqualTo(1);
+
+        // the instruction criterion is not answered by the search index, the database matches the dictionary
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("ingredientName", "SAL")
+                        .param("instructionText", "fetchinstruction")
+                        .param("limit", "50"))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeDto[] actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+        assertThat(actualRecipes.length).isGreaterThanOrEqualTo(3);
+        assertThat(actualRecipes[0].getIngredients().stream().anyMatch(ingredient -> "Salt".equals(ingredient.getIngredientName()))).isTrue();
+    }
+
+    @Test
+    public void testSearchIndexFollowsWritesAndCountsFacets() throws Exception {
+        String ingredient = "IndexIngredient" + System.nanoTime();
+        RecipeDto savedRecipe = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Recipe Index")
+                .servingNumber(7)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName(ingredient).build()))
+                .build());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search/facets")
+                        .param("ingredientName", ingredient.toUpperCase()))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeFacetsDto facets = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeFacetsDto.class);
+        assertThat(facets.getTotal()).isEqualTo(1);
+        assertThat(facets.getServingNumber()).isEqualTo(Map.of(7, 1L));
+
+        savedRecipe.setIsVegetarian(false);
+        recipeService.updateRecipe(savedRecipe.getId(), savedRecipe, null);
+        statistics.clear();
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("isVegetarian", "false")
+                        .param("ingredientName", ingredient))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeDto[] actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+        assertThat(actualRecipes.length).isEqualTo(1);
+        assertThat(actualRecipes[0].getId()).isEqualTo(savedRecipe.getId());
+        // only the page is loaded: the recipe, then one batch per child collection
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testFindByPantry() throws Exception {
+        String flour = "PantryFlour" + System.nanoTime();
+        String egg = "PantryEgg" + System.nanoTime();
+        RecipeDto covered = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Recipe Pantry Covered")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName(flour).build()))
+                .build());
+        RecipeDto missingOne = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Recipe Pantry Missing One")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName(flour).build(),
+                        IngredientsDto.builder().ingredientName(egg).build()))
+                .build());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search/pantry")
+                        .param("ingredients", flour.toUpperCase())
+                        .param("maxMissing", "1"))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipePantryMatchDto[] matches = objectMapper.readValue(result.getResponse().getContentAsString(), RecipePantryMatchDto[].class);
+        assertThat(matches).extracting(match -> match.getRecipe().getId()).containsExactly(covered.getId(), missingOne.getId());
+        assertThat(matches[0].getCoverage()).isEqualTo(1.0);
+        assertThat(matches[1].getMissingIngredients()).isEqualTo(List.of(egg.toLowerCase()));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search/pantry")
+                        .param("ingredients", flour)
+                        .param("maxMissing", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testFindSimilar() throws Exception {
+        String prefix = "SimilarIngredient" + System.nanoTime() + " ";
+        RecipeDto original = recipeService.saveRecipe(recipeWithIngredients("Recipe Similar Original", prefix, 0, 10));
+        RecipeDto close = recipeService.saveRecipe(recipeWithIngredients("Recipe Similar Close", prefix, 0, 9));
+        recipeService.saveRecipe(recipeWithIngredients("Recipe Similar Other", prefix, 20, 30));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}/similar", original.getId())
+                        .param("k", "5"))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeSimilarityDto[] similar = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeSimilarityDto[].class);
+        assertThat(similar).extracting(dto -> dto.getRecipe().getId()).containsExactly(close.getId());
+        assertThat(similar[0].getSimilarity()).isEqualTo(0.9);
+    }
+
+    @Test
+    public void testSearchSortsAndPagesWithCursor() throws Exception {
+        String suffix = String.valueOf(System.nanoTime());
+        List<Long> ids = new ArrayList<>();
+        for (String name : List.of("Sorted B", "Sorted C", "Sorted A")) {
+            ids.add(recipeService.saveRecipe(RecipeDto.builder()
+                    .name(name)
+                    .servingNumber(name.charAt(name.length() - 1) - 'A' + 1)
+                    .isVegetarian(true)
+                    .ingredients(Set.of(IngredientsDto.builder().ingredientName("SortIngredient" + suffix).build()))
+                    .instructions(Set.of(InstructionsDto.builder().description("SortInstruction" + suffix).build()))
+                    .build()).getId());
+        }
+
+        // by name in the database, by serving number in the search index
+        assertThat(searchAllPages(Map.of("instructionText", "sortinstruction" + suffix, "sort", "name")))
+                .isEqualTo(List.of(ids.get(2), ids.get(0), ids.get(1)));
+        assertThat(searchAllPages(Map.of("ingredientName", "sortingredient" + suffix, "sort", "servingNumber,desc")))
+                .isEqualTo(List.of(ids.get(1), ids.get(0), ids.get(2)));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("sort", "relevance"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Ids of all recipes found, two per page.
+     */
+    private List<Long> searchAllPages(Map<String, String> params) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        String after = null;
+        do {
+            MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get("/api/v1/recipe/search").param("limit", "2");
+            params.forEach(request::param);
+            if (after != null) {
+                request.param("after", after);
+            }
+            MvcResult result = mockMvc.perform(request).andExpect(status().isOk()).andReturn();
+            for (RecipeDto recipe : objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class)) {
+                ids.add(recipe.getId());
+            }
+            after = result.getResponse().getHeader(RecipeController.NEXT_CURSOR_HEADER);
+        } while (after != null);
+        return ids;
+    }
+
+    @Test
+    public void testSearchText() throws Exception {
+        String word = "zorblat" + System.nanoTime();
+        RecipeDto inName = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Roasted " + word)
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("Salt").build()))
+                .instructions(Set.of(InstructionsDto.builder().description("Roast in the oven").build()))
+                .build());
+        RecipeDto inInstructions = recipeService.saveRecipe(RecipeDto.builder()
+                .name("Stew")
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(Set.of(IngredientsDto.builder().ingredientName("Water").build()))
+                .instructions(Set.of(InstructionsDto.builder().description("Serve with a " + word + " on the side").build()))
+                .build());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search/text")
+                        .param("q", word))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeTextMatchDto[] matches = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeTextMatchDto[].class);
+        assertThat(matches.length).isEqualTo(2);
+        assertThat(matches[0].getRecipe().getId()).isEqualTo(inName.getId());
+        assertThat(matches[0].getHighlights().get("name")).isEqualTo("Roasted <b>" + word + "</b>");
+        assertThat(matches[1].getRecipe().getId()).isEqualTo(inInstructions.getId());
+
+        recipeService.deleteRecipe(inName.getId(), null);
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search/text")
+                        .param("q", word))
+                .andExpect(status().isOk())
+                .andReturn();
+        matches = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeTextMatchDto[].class);
+        assertThat(matches.length).isEqualTo(1);
+        assertThat(matches[0].getRecipe().getId()).isEqualTo(inInstructions.getId());
+    }
+
+    private static RecipeDto recipeWithIngredients(String name, String prefix, int from, int to) {
+        Set<IngredientsDto> ingredients = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            ingredients.add(IngredientsDto.builder().ingredientName(prefix + i).build());
+        }
+        return RecipeDto.builder()
+                .name(name)
+                .servingNumber(2)
+                .isVegetarian(true)
+                .ingredients(ingredients)
+                .build();
+    }
+
+    @Test
+    public void testGetRecipeByIdStatementCount() throws Exception {
+        RecipeDto savedRecipe = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0);
+        statistics.clear();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", savedRecipe.getId()))
+                .andExpect(status().isOk())
+                .andExpect(SqlBudget.maxStatements(1))
+                .andExpect(SqlBudget.maxRows(4))
+                .andReturn();
+
+        RecipeDto actualRecipe = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto.class);
+        assertThat(actualRecipe.getIngredients().size()).isEqualTo(2);
+        assertThat(actualRecipe.getInstructions().size()).isEqualTo(2);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSaveRecipes() throws Exception {
+        List<RecipeDto> recipeDtos = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            recipeDtos.add(RecipeDto.builder()
+                    .name("Recipe Batch " + i)
+                    .servingNumber(2)
+                    .isVegetarian(false)
+                    .ingredients(Set.of(IngredientsDto.builder().ingredientName("BatchIngredient" + i).build()))
+                    .instructions(Set.of(InstructionsDto.builder().description("BatchInstruction" + i).build()))
+                    .build());
+        }
+        recipeDtos.add(RecipeDto.builder().id(1L).name("Recipe Batch With Id").build());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/recipe/batch")
+                        .contentType(APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(recipeDtos)))
+                .andExpect(status().isOk())
+                // per table up to three sequence calls and three insert batches, plus the child recipe_id update batches
+                // and one change sequence call per chunk, the outbox rows take up to three sequence calls and three batches more;
+                // the 120 new ingredient names take one dictionary lookup, one insert and one read back
+                .andExpect(SqlBudget.maxStatements(34))
+                .andReturn();
+
+        RecipeBatchResultDto[] results = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeBatchResultDto[].class);
+        assertThat(results.length).isEqualTo(121);
+        assertThat(results[120].getStatus()).isEqualTo(BatchItemStatus.FAILED);
+
+        RecipeDto savedRecipe = recipeService.findRecipe(results[7].getId());
+        assertThat(results[7].getStatus()).isEqualTo(BatchItemStatus.CREATED);
+        assertThat(savedRecipe.getName()).isEqualTo("Recipe Batch 7");
+        assertThat(savedRecipe.getIngredients().iterator().next().getIngredientName()).isEqualTo("BatchIngredient7");
+    }
+
+    @Test
+    public void testSearchRecipesIgnoresCaseAndEscapesWildcards() throws Exception {
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("ingredientName", "FETCHINGREDIENT1")
+                        .param("instructionText", "fetchInstruction1"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        RecipeDto[] actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+        assertThat(actualRecipes.length).isGreaterThanOrEqualTo(1);
+        assertThat(actualRecipes[0].getName()).isEqualTo("Recipe Fetch 1");
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("ingredientName", "%"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        actualRecipes = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto[].class);
+        assertThat(actualRecipes.length).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetRecipeByIdIsCachedUntilUpdated() throws Exception {
+        RecipeDto savedRecipe = recipeService.findAll(RecipeSort.BY_ID, null, 1).getRecipes().get(0);
+        recipeService.findRecipe(savedRecipe.getId());
+        statistics.clear();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", savedRecipe.getId()))
+                .andExpect(status().isOk());
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(0);
+
+        savedRecipe.setName(savedRecipe.getName() + " Cached");
+        recipeService.updateRecipe(savedRecipe.getId(), savedRecipe, null);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/{recipeId}", savedRecipe.getId()))
+                .andExpect(status().isOk())
+                .andReturn();
+        RecipeDto actualRecipe = objectMapper.readValue(result.getResponse().getContentAsString(), RecipeDto.class);
+        assertThat(actualRecipe.getName()).isEqualTo(savedRecipe.getName());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/cache.gets")
+                        .param("tag", "cache:recipe", "result:hit"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testServiceMetricsArePublished() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/search")
+                        .param("isVegetarian", "true"))
+                .andExpect(status().isOk());
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String metrics = result.getResponse().getContentAsString();
+        assertTrue(metrics.contains("recipe_service_seconds_bucket"));
+        assertTrue(metrics.contains("recipe_search_seconds_count{cache=\"miss\",criteria=\"isVegetarian:EQUALITY\""));
+        assertTrue(metrics.contains("recipe_result_size_count{method=\"searchRecipes\""));
+        assertTrue(metrics.contains("hibernate_query_executions_total"));
+    }
+
+    @Test
+    public void testExportRecipes() throws Exception {
+        statistics.clear();
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/recipe/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        long previousId = 0;
+        int fetchRecipes = 0;
+        for (String line : lines) {
+            RecipeDto recipeDto = objectMapper.readValue(line, RecipeDto.class);
+            assertTrue(recipeDto.getId() > previousId);
+            previousId = recipeDto.getId();
+            if (recipeDto.getName().startsWith("Recipe Fetch")) {
+                fetchRecipes++;
+                assertThat(recipeDto.getIngredients().size()).isEqualTo(2);
+                assertThat(recipeDto.getInstructions().size()).isEqualTo(2);
+            }
+        }
+        assertThat(fetchRecipes).isGreaterThanOrEqualTo(3);
+        // the cursor, then one batch per child collection for every chunk
+        int chunks = (lines.length + Recipe.BATCH_SIZE - 1) / Recipe.BATCH_SIZE;
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1 + 2L * chunks);
+    }
 }
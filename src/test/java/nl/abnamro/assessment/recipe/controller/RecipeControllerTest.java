@@ -1,24 +1,50 @@
 package nl.abnamro.assessment.recipe.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.abnamro.assessment.recipe.enums.BatchItemStatus;
+import nl.abnamro.assessment.recipe.model.IngredientSuggestionDto;
 import nl.abnamro.assessment.recipe.model.IngredientsDto;
 import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeChangesDto;
 import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import nl.abnamro.assessment.recipe.model.RecipePantryMatchDto;
+import nl.abnamro.assessment.recipe.model.RecipeSimilarityDto;
+import nl.abnamro.assessment.recipe.model.RecipeTextMatchDto;
 import nl.abnamro.assessment.recipe.service.IRecipeService;
+import nl.abnamro.assessment.recipe.service.RecipeEventRelay;
+import nl.abnamro.assessment.recipe.service.RecipeSort;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -31,6 +57,9 @@ public class RecipeControllerTest {
     @MockBean
     IRecipeService recipeService;
 
+    @MockBean
+    RecipeEventRelay recipeEventRelay;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -40,11 +69,148 @@ public class RecipeControllerTest {
     @Test
     void testFindAll() throws Exception {
 
-        given(recipeService.findAll()).willReturn(Set.of(getValidRecipeDto()));
+        given(recipeService.findAll(any(), any(), anyInt())).willReturn(getValidRecipePage(null));
 
         mockMvc.perform(get("/api/v1/recipe").accept(MediaType.APPLICATION_JSON))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(RecipeController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void testFindAllWithCursor() throws Exception {
+
+        given(recipeService.findAll(eq(RecipeSort.BY_ID), eq("1"), eq(1))).willReturn(getValidRecipePage("2"));
+
+        mockMvc.perform(get("/api/v1/recipe")
+                        .param("after", "1")
+                        .param("limit", "1")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(RecipeController.NEXT_CURSOR_HEADER, "2"));
+    }
+
+    @Test
+    void testFindChanges() throws Exception {
+
+        given(recipeService.findChanges(eq("4.1"), eq(100))).willReturn(RecipeChangesDto.builder()
+                .recipes(List.of(getValidRecipeDto())).deleted(List.of(2L)).token("5.1").build());
+        given(recipeService.findChanges(eq("5.1"), eq(100))).willReturn(RecipeChangesDto.builder()
+                .recipes(List.of()).deleted(List.of()).token("5.1").build());
+
+        mockMvc.perform(get("/api/v1/recipe/changes").param("since", "4.1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deleted[0]").value(2))
+                .andExpect(jsonPath("$.token").value("5.1"));
+        mockMvc.perform(get("/api/v1/recipe/changes").param("since", "5.1"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void testFindFacets() throws Exception {
+
+        given(recipeService.findFacets(any())).willReturn(RecipeFacetsDto.builder()
+                .total(3).isVegetarian(Map.of(true, 2L, false, 1L)).servingNumber(Map.of(4, 3L)).ingredientName(Map.of("salt", 3L)).build());
+
+        mockMvc.perform(get("/api/v1/recipe/search/facets").param("ingredientName", "salt"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(3))
+                .andExpect(jsonPath("$.isVegetarian.true").value(2))
+                .andExpect(jsonPath("$.ingredientName.salt").value(3));
+
+        given(recipeService.findFacets(any())).willThrow(new ServiceUnavailableException("Search index is not available"));
+
+        mockMvc.perform(get("/api/v1/recipe/search/facets"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void testFindByPantry() throws Exception {
+
+        given(recipeService.findByPantry(eq(List.of("salt", "pepper")), eq(1), any(), eq(20))).willReturn(List.of(RecipePantryMatchDto.builder()
+                .recipe(getValidRecipeDto()).covered(2).total(3).coverage(2.0 / 3).missingIngredients(List.of("garlic")).build()));
+
+        mockMvc.perform(get("/api/v1/recipe/search/pantry").param("ingredients", "salt,pepper").param("maxMissing", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].covered").value(2))
+                .andExpect(jsonPath("$[0].total").value(3))
+                .andExpect(jsonPath("$[0].missingIngredients[0]").value("garlic"));
+
+        given(recipeService.findByPantry(any(), eq(-1), any(), anyInt())).willThrow(new BadRequestException("maxMissing must not be negative"));
+
+        mockMvc.perform(get("/api/v1/recipe/search/pantry").param("ingredients", "salt").param("maxMissing", "-1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testFindSimilar() throws Exception {
+
+        given(recipeService.findSimilar(1L, 10)).willReturn(List.of(RecipeSimilarityDto.builder()
+                .recipe(getValidRecipeDto()).similarity(0.5).build()));
+
+        mockMvc.perform(get("/api/v1/recipe/{recipeId}/similar", 1L))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].similarity").value(0.5));
+
+        given(recipeService.findSimilar(2L, 3)).willThrow(new NotFoundException());
+
+        mockMvc.perform(get("/api/v1/recipe/{recipeId}/similar", 2L).param("k", "3"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testSuggestIngredients() throws Exception {
+
+        given(recipeService.suggestIngredients("to", 10)).willReturn(List.of(new IngredientSuggestionDto("tomato", 3L)));
+
+        mockMvc.perform(get("/api/v1/recipe/search/ingredients").param("prefix", "to"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("tomato"))
+                .andExpect(jsonPath("$[0].recipeCount").value(3));
+
+        given(recipeService.suggestIngredients("", 10)).willThrow(new ServiceUnavailableException("Search index is not available"));
+
+        mockMvc.perform(get("/api/v1/recipe/search/ingredients"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void testSearchText() throws Exception {
+
+        given(recipeService.searchText("tomato", 20)).willReturn(List.of(RecipeTextMatchDto.builder()
+                .recipe(getValidRecipeDto()).score(1.5f).highlights(Map.of("name", "<b>Tomato</b> Soup")).build()));
+
+        mockMvc.perform(get("/api/v1/recipe/search/text").param("q", "tomato"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].score").value(1.5))
+                .andExpect(jsonPath("$[0].highlights.name").value("<b>Tomato</b> Soup"));
+
+        given(recipeService.searchText(" ", 20)).willThrow(new BadRequestException("A search text is required"));
+
+        mockMvc.perform(get("/api/v1/recipe/search/text").param("q", " "))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testExportRecipes() throws Exception {
+
+        willAnswer(invocation -> {
+            Consumer<RecipeDto> consumer = invocation.getArgument(0);
+            consumer.accept(getValidRecipeDto());
+            consumer.accept(getValidRecipeDto());
+            return null;
+        }).given(recipeService).exportRecipes(any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/recipe/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(RecipeController.NDJSON_VALUE))
+                .andExpect(content().string(objectMapper.writeValueAsString(getValidRecipeDto()) + "\n"
+                        + objectMapper.writeValueAsString(getValidRecipeDto()) + "\n"));
     }
+
     @Test
     void testSaveRecipe() throws Exception {
 
@@ -60,10 +226,50 @@ public class RecipeControllerTest {
                 .andExpect(status().isCreated());
     }
 
+    @Test
+    void testSaveRecipes() throws Exception {
+
+        String recipeDtosJson = objectMapper.writeValueAsString(List.of(getValidRecipeDto(), getValidRecipeDto()));
+
+        given(recipeService.saveRecipes(any())).willReturn(List.of(
+                RecipeBatchResultDto.builder().index(0).id(1L).status(BatchItemStatus.CREATED).build(),
+                RecipeBatchResultDto.builder().index(1).status(BatchItemStatus.FAILED).error("error").build()));
+
+        mockMvc.perform(post("/api/v1/recipe/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(recipeDtosJson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[1].status").value("FAILED"));
+    }
+
+    @Test
+    void testPatchRecipe() throws Exception {
+
+        given(recipeService.patchRecipe(eq(1L), any(), any())).willReturn(getValidRecipeDto());
+
+        mockMvc.perform(patch("/api/v1/recipe/1")
+                        .contentType(RecipeController.MERGE_PATCH_VALUE)
+                        .content("{\"isVegetarian\": true}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.isVegetarian").value(true));
+    }
+
+    @Test
+    void testPatchRecipeWithInvalidPatch() throws Exception {
+
+        given(recipeService.patchRecipe(eq(1L), any(), any())).willThrow(new InvalidPatchException("Unknown field calories"));
+
+        mockMvc.perform(patch("/api/v1/recipe/1")
+                        .contentType(RecipeController.MERGE_PATCH_VALUE)
+                        .content("{\"calories\": 100}"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void testUpdateRecipe() throws Exception {
 
-        given(recipeService.updateRecipe(any(), any()))
+        given(recipeService.updateRecipe(any(), any(), any()))
                 .willReturn(getValidRecipeDto());
 
         RecipeDto recipeDto = getValidRecipeDto();
@@ -78,7 +284,7 @@ public class RecipeControllerTest {
     @Test
     void testDeleteRecipe() throws Exception {
 
-        given(recipeService.deleteRecipe(any()))
+        given(recipeService.deleteRecipe(any(), any()))
                 .willReturn(null);
 
         mockMvc.perform(delete("/api/v1/recipe/" + 1L).accept(MediaType.APPLICATION_JSON))
@@ -91,13 +297,59 @@ public class RecipeControllerTest {
         given(recipeService.findRecipe(any())).willReturn(getValidRecipeDto());
 
         mockMvc.perform(get("/api/v1/recipe/" + 1L).accept(MediaType.APPLICATION_JSON))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""));
+    }
+
+    @Test
+    void testGetRecipeByIdNotModified() throws Exception {
+        given(recipeService.findRecipeVersion(1L)).willReturn(3L);
+
+        mockMvc.perform(get("/api/v1/recipe/" + 1L)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"3\"")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(recipeService, never()).findRecipe(any());
+    }
+
+    @Test
+    void testFindAllNotModified() throws Exception {
+        given(recipeService.findAll(any(), any(), anyInt())).willReturn(getValidRecipePage(null));
+
+        String etag = mockMvc.perform(get("/api/v1/recipe").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertThat(etag).startsWith("W/");
+        mockMvc.perform(get("/api/v1/recipe")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void testUpdateRecipeWithIfMatch() throws Exception {
+        RecipeDto recipeDto = getValidRecipeDto();
+        given(recipeService.updateRecipe(eq(1L), any(), eq(3L))).willThrow(new PreconditionFailedException());
+
+        mockMvc.perform(put("/api/v1/recipe/1")
+                        .header(HttpHeaders.IF_MATCH, "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(recipeDto)))
+                .andExpect(status().isPreconditionFailed());
+
+        mockMvc.perform(delete("/api/v1/recipe/1")
+                        .header(HttpHeaders.IF_MATCH, "W/\"3\""))
+                .andExpect(status().isPreconditionFailed());
+        verify(recipeService, never()).deleteRecipe(any(), any());
     }
 
     @Test
     public void searchRecipesTest() throws Exception {
 
-        given(recipeService.searchRecipes(any())).willReturn(Set.of(getValidRecipeDto()));
+        given(recipeService.searchRecipes(any(), any(), any(), anyInt())).willReturn(getValidRecipePage(null));
 
 
         mockMvc.perform(get("/api/v1/recipe/search")
@@ -106,12 +358,20 @@ public class RecipeControllerTest {
                 .andExpect(status().isOk());
     }
 
+    private RecipePageDto getValidRecipePage(String nextCursor) {
+        return RecipePageDto.builder()
+                .recipes(List.of(getValidRecipeDto()))
+                .nextCursor(nextCursor)
+                .build();
+    }
+
     private RecipeDto getValidRecipeDto() {
         return RecipeDto.builder()
                 .id(1L)
                 .isVegetarian(true)
                 .name("Recipe1")
                 .servingNumber(4)
+                .version(3L)
                 .ingredients(Set.of(new IngredientsDto()))
                 .instructions(Set.of(new InstructionsDto()))
                 .build();
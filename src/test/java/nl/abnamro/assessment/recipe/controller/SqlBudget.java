@@ -0,0 +1,43 @@
+package nl.abnamro.assessment.recipe.controller;
+
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Query budgets for MockMvc requests, read from the headers added by {@link SqlStatisticsResponseAdvice}.
+ *
+ * @author Orhan Polat
+ */
+public final class SqlBudget {
+
+    private SqlBudget() {
+    }
+
+    public static ResultMatcher maxStatements(int max) {
+        return result -> {
+            int statements = header(result.getResponse().getHeader(SqlStatisticsResponseAdvice.STATEMENTS_HEADER));
+            assertTrue(statements <= max, "Expected at most " + max + " SQL statements but was " + statements);
+        };
+    }
+
+    public static ResultMatcher maxRows(int max) {
+        return result -> {
+            int rows = header(result.getResponse().getHeader(SqlStatisticsResponseAdvice.ROWS_HEADER));
+            assertTrue(rows <= max, "Expected at most " + max + " SQL rows but was " + rows);
+        };
+    }
+
+    public static ResultMatcher noRepeatedStatements() {
+        return result -> {
+            int repeated = header(result.getResponse().getHeader(SqlStatisticsResponseAdvice.REPEATED_STATEMENTS_HEADER));
+            assertTrue(repeated == 0, "Expected no repeated SQL statements but " + repeated + " statement shapes were repeated");
+        };
+    }
+
+    private static int header(String value) {
+        assertNotNull(value, "SQL statistics header missing");
+        return Integer.parseInt(value);
+    }
+}
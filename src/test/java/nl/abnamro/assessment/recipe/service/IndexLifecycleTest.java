@@ -0,0 +1,85 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Orhan Polat
+ */
+public class IndexLifecycleTest {
+
+    private final List<RecipeChangedEvent> applied = new ArrayList<>();
+
+    private final IndexLifecycle lifecycle = new IndexLifecycle("test", "nothing", true, new ReentrantLock(), applied::add);
+
+    @Test
+    void testChangesDuringTheBuildAreAppliedOnceItIsDone() {
+        RecipeChangedEvent queued = new RecipeChangedEvent(1L, ChangeType.DELETED);
+        lifecycle.onRecipeChanged(queued);
+        assertThat(lifecycle.pendingChanges()).isEqualTo(1);
+        assertThat(applied).isEmpty();
+
+        assertThat(lifecycle.build(() -> { }, () -> true)).isTrue();
+        RecipeChangedEvent later = new RecipeChangedEvent(2L, ChangeType.DELETED);
+        lifecycle.onRecipeChanged(later);
+
+        assertThat(lifecycle.isReady()).isTrue();
+        assertThat(lifecycle.pendingChanges()).isZero();
+        assertThat(applied).containsExactly(queued, later);
+    }
+
+    @Test
+    void testFailedBuildIsRetriedWithTheChanges() {
+        RecipeChangedEvent queued = new RecipeChangedEvent(1L, ChangeType.DELETED);
+        lifecycle.onRecipeChanged(queued);
+
+        assertThat(lifecycle.build(() -> {
+            throw new IOException("disk full");
+        }, () -> true)).isFalse();
+        RecipeChangedEvent later = new RecipeChangedEvent(2L, ChangeType.DELETED);
+        lifecycle.onRecipeChanged(later);
+
+        assertThat(lifecycle.isReady()).isFalse();
+        assertThat(lifecycle.pendingChanges()).isEqualTo(2);
+        assertThat(lifecycle.retryDue(System.currentTimeMillis() + IndexLifecycle.FIRST_RETRY_MILLIS)).isTrue();
+
+        assertThat(lifecycle.build(() -> { }, () -> true)).isTrue();
+
+        assertThat(lifecycle.retryDue(Long.MAX_VALUE)).isFalse();
+        assertThat(applied).containsExactly(queued, later);
+    }
+
+    @Test
+    void testRetriesBackOff() {
+        long start = System.currentTimeMillis();
+        for (long delay = IndexLifecycle.FIRST_RETRY_MILLIS; delay <= IndexLifecycle.MAX_RETRY_MILLIS * 2; delay *= 2) {
+            lifecycle.build(() -> { }, () -> {
+                throw new IOException("corrupt");
+            });
+            long now = System.currentTimeMillis();
+            long expected = Math.min(delay, IndexLifecycle.MAX_RETRY_MILLIS);
+
+            assertThat(lifecycle.retryDue(start + expected - 1)).isFalse();
+            assertThat(lifecycle.retryDue(now + expected)).isTrue();
+            start = now;
+        }
+    }
+
+    @Test
+    void testStoppedIndexIsNotRetried() {
+        lifecycle.build(() -> {
+            throw new IOException("disk full");
+        }, () -> true);
+
+        lifecycle.stop();
+
+        assertThat(lifecycle.retryDue(Long.MAX_VALUE)).isFalse();
+    }
+}
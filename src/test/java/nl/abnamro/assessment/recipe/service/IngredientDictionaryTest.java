@@ -0,0 +1,64 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredient;
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.repository.IngredientRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Orhan Polat
+ */
+public class IngredientDictionaryTest {
+
+    private final IngredientRepository ingredientRepository = mock(IngredientRepository.class);
+
+    private final IngredientDictionary ingredientDictionary = new IngredientDictionary(ingredientRepository, 100);
+
+    @Test
+    void testInternReadsKnownNamesAndAddsNewOnesOnce() {
+        when(ingredientRepository.findByNameIn(Set.of("Salt", "Pepper"))).thenReturn(List.of(new Ingredient(1, "Salt")));
+        when(ingredientRepository.findByNameIn(List.of("Pepper"))).thenReturn(List.of(new Ingredient(2, "Pepper")));
+        when(ingredientRepository.getReferenceById(anyInt())).thenAnswer(invocation -> new Ingredient(invocation.getArgument(0), null));
+
+        Ingredients salt = Ingredients.builder().ingredientName("Salt").build();
+        Ingredients pepper = Ingredients.builder().ingredientName(" Pepper ").build();
+        Ingredients unnamed = Ingredients.builder().build();
+        ingredientDictionary.intern(List.of(salt, pepper, unnamed));
+
+        assertThat(salt.getIngredient().getId()).isEqualTo(1);
+        assertThat(pepper.getIngredient().getId()).isEqualTo(2);
+        assertThat(unnamed.getIngredient()).isNull();
+        verify(ingredientRepository).addIfAbsent(List.of("Pepper"));
+
+        Ingredients pepperAgain = Ingredients.builder().ingredientName("Pepper").build();
+        ingredientDictionary.intern(List.of(pepperAgain));
+
+        assertThat(pepperAgain.getIngredient().getId()).isEqualTo(2);
+        verify(ingredientRepository, times(2)).findByNameIn(any());
+        verify(ingredientRepository, times(1)).addIfAbsent(any());
+    }
+
+    @Test
+    void testInternFailsOnANameNotReadBack() {
+        when(ingredientRepository.findByNameIn(any())).thenReturn(List.of());
+
+        Ingredients salt = Ingredients.builder().ingredientName("Salt").build();
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> ingredientDictionary.intern(List.of(salt)));
+        assertThat(e.getMessage()).contains("Salt");
+        verify(ingredientRepository, never()).getReferenceById(any());
+    }
+}
@@ -0,0 +1,69 @@
+package nl.abnamro.assessment.recipe.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Orhan Polat
+ */
+public class IngredientTrieTest {
+
+    @Test
+    void testCompletionsAreTheMostUsedNamesWithThePrefix() {
+        IngredientTrie trie = new IngredientTrie();
+        trie.add("tomato", 5);
+        trie.add("tomato paste", 2);
+        trie.add("tofu", 2);
+        trie.add("thyme", 9);
+        trie.add("to", 1);
+
+        assertThat(trie.complete("to", 3)).containsExactly(Map.entry("tomato", 5), Map.entry("tofu", 2), Map.entry("tomato paste", 2));
+        assertThat(trie.complete("tomato ", 10)).containsExactly(Map.entry("tomato paste", 2));
+        assertThat(trie.complete("", 1)).containsExactly(Map.entry("thyme", 9));
+        assertThat(trie.complete("tx", 10)).isEmpty();
+
+        trie.add("tomato", -5);
+        trie.add("to", -1);
+
+        assertThat(trie.complete("to", 10)).containsExactly(Map.entry("tofu", 2), Map.entry("tomato paste", 2));
+        assertThat(trie.size()).isEqualTo(3);
+    }
+
+    @Test
+    void testCompletionsAgreeWithSortingAllNames() {
+        Random random = new Random(42);
+        IngredientTrie trie = new IngredientTrie();
+        Map<String, Integer> weights = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int length = 1 + random.nextInt(6); length > 0; length--) {
+                name.append((char) ('a' + random.nextInt(4)));
+            }
+            int delta = random.nextInt(4) == 0 ? -1 : 1;
+            trie.add(name.toString(), delta);
+            weights.put(name.toString(), Math.max(weights.getOrDefault(name.toString(), 0) + delta, 0));
+        }
+
+        for (String prefix : List.of("", "a", "bc", "dda")) {
+            // within and beyond the completions cached per prefix
+            for (int limit : new int[]{3, IngredientTrie.CACHED_COMPLETIONS, 25}) {
+                List<Map.Entry<String, Integer>> expected = weights.entrySet().stream()
+                        .filter(entry -> entry.getValue() > 0 && entry.getKey().startsWith(prefix))
+                        .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+                        .limit(limit)
+                        .collect(Collectors.toCollection(ArrayList::new));
+                assertThat(trie.complete(prefix, limit)).isEqualTo(expected);
+            }
+        }
+        assertThat(trie.size()).isEqualTo(weights.values().stream().filter(weight -> weight > 0).count());
+    }
+}
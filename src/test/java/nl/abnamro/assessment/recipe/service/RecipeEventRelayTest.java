@@ -0,0 +1,227 @@
+package nl.abnamro.assessment.recipe.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.abnamro.assessment.recipe.component.ReplicaRoutingDataSource;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.domain.RecipeOutbox;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.repository.RecipeOutboxRepository;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeEventRelayTest {
+
+    private final RecipeOutboxRepository recipeOutboxRepository = mock(RecipeOutboxRepository.class);
+
+    private final RecipeRepository recipeRepository = mock(RecipeRepository.class);
+
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final RecipeEventRelay recipeEventRelay = new RecipeEventRelay(recipeOutboxRepository, recipeRepository,
+            eventPublisher, meterRegistry);
+
+    private final CountDownLatch blockedSender = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(recipeEventRelay, "queueCapacity", 2);
+        ReflectionTestUtils.setField(recipeEventRelay, "timeoutMillis", 60000L);
+        ReflectionTestUtils.setField(recipeEventRelay, "settleMillis", 10000L);
+        recipeEventRelay.start();
+
+        // a single sender thread that is busy, so nothing leaves the queues of the subscribers
+        ThreadPoolTaskExecutor senders = (ThreadPoolTaskExecutor) ReflectionTestUtils.getField(recipeEventRelay, "senders");
+        senders.shutdown();
+        ThreadPoolTaskExecutor busySender = new ThreadPoolTaskExecutor();
+        busySender.setCorePoolSize(1);
+        busySender.initialize();
+        busySender.execute(() -> {
+            try {
+                blockedSender.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ReflectionTestUtils.setField(recipeEventRelay, "senders", busySender);
+    }
+
+    @AfterEach
+    void tearDown() {
+        blockedSender.countDown();
+        recipeEventRelay.stop();
+    }
+
+    @Test
+    void testSlowSubscriberIsDroppedWithoutBlockingTheRelay() {
+        // Arrange
+        when(recipeOutboxRepository.findMaxIdCreatedBefore(any())).thenReturn(Optional.of(0L));
+        when(recipeOutboxRepository.findAfter(eq(0L), any())).thenReturn(outboxRows(1, 3));
+        recipeEventRelay.subscribe(null);
+
+        // Act
+        recipeEventRelay.relay();
+
+        // Assert
+        assertThat(recipeEventRelay.getSubscriberCount()).isEqualTo(0);
+        assertThat(meterRegistry.counter("recipe.events.dropped").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void testResumeBeyondQueueCapacityIsReset() {
+        // Arrange
+        when(recipeOutboxRepository.existsById(5L)).thenReturn(true);
+        when(recipeOutboxRepository.findAfter(eq(5L), any())).thenReturn(outboxRows(6, 8));
+        when(recipeOutboxRepository.findMaxIdCreatedBefore(any())).thenReturn(Optional.of(7L));
+        when(recipeOutboxRepository.findMaxId()).thenReturn(Optional.of(8L));
+
+        // Act
+        recipeEventRelay.subscribe(5L);
+
+        // Assert
+        assertThat(recipeEventRelay.getSubscriberCount()).isEqualTo(1);
+        // the reset resumes from the last settled change, not from changes that may still be joined by late ones
+        assertThat(queuedEventIds()).containsExactly("7");
+        verify(recipeOutboxRepository, never()).findMaxId();
+    }
+
+    @Test
+    void testResumeAfterPurgedEventIsReset() {
+        // Arrange
+        when(recipeOutboxRepository.existsById(5L)).thenReturn(false);
+        when(recipeOutboxRepository.findMaxId()).thenReturn(Optional.of(8L));
+
+        // Act
+        recipeEventRelay.subscribe(5L);
+
+        // Assert
+        verify(recipeOutboxRepository, never()).findAfter(anyLong(), any());
+        // nothing has settled yet
+        verify(recipeOutboxRepository).findMaxIdCreatedBefore(any());
+        assertThat(queuedEventIds()).containsExactly("8");
+    }
+
+    @Test
+    void testChangesRelayedWhileResumingFollowTheMissedOnes() {
+        // Arrange
+        when(recipeOutboxRepository.existsById(5L)).thenReturn(true);
+        when(recipeOutboxRepository.findAfter(eq(5L), any())).thenAnswer(invocation -> {
+            // relayed while the missed changes are read
+            ReflectionTestUtils.invokeMethod(recipeEventRelay, "publish", outboxRows(7, 7).get(0));
+            return outboxRows(6, 7);
+        });
+
+        // Act
+        recipeEventRelay.subscribe(5L);
+
+        // Assert
+        assertThat(queuedEventIds()).containsExactly("6", "7");
+    }
+
+    @Test
+    void testFirstRelayStartsAtTheLastSettledChange() {
+        // Arrange
+        when(recipeOutboxRepository.findMaxIdCreatedBefore(any())).thenReturn(Optional.of(5L));
+
+        // Act
+        recipeEventRelay.relay();
+
+        // Assert
+        verify(recipeOutboxRepository).findIdsCommittedLate(eq(0L), eq(5L), any(), any());
+        verify(recipeOutboxRepository).findAfter(eq(5L), any());
+    }
+
+    @Test
+    void testEveryChangeCommittedLateIsRelayedOnce() {
+        // Arrange
+        when(recipeOutboxRepository.findMaxIdCreatedBefore(any())).thenReturn(Optional.of(1000L));
+        List<Long> firstPage = LongStream.rangeClosed(1, 500).boxed().collect(Collectors.toList());
+        when(recipeOutboxRepository.findIdsCommittedLate(eq(0L), eq(1000L), any(), any())).thenReturn(firstPage);
+        when(recipeOutboxRepository.findIdsCommittedLate(eq(500L), eq(1000L), any(), any())).thenReturn(List.of(501L));
+        when(recipeOutboxRepository.findAllById(firstPage)).thenReturn(outboxRows(1, 500));
+        when(recipeOutboxRepository.findAllById(List.of(501L))).thenReturn(outboxRows(501, 501));
+
+        // Act
+        recipeEventRelay.relay();
+        recipeEventRelay.relay();
+
+        // Assert
+        verify(recipeOutboxRepository).findAllById(firstPage);
+        verify(recipeOutboxRepository).findAllById(List.of(501L));
+        verify(recipeOutboxRepository, times(2)).findAllById(any());
+    }
+
+    @Test
+    void testRelayedChangesArePublishedWithTheRecipesOfThePrimary() {
+        // Arrange
+        when(recipeOutboxRepository.findMaxIdCreatedBefore(any())).thenReturn(Optional.of(0L));
+        when(recipeOutboxRepository.findAfter(eq(0L), any())).thenReturn(outboxRows(1, 2));
+        Recipe recipe = Recipe.builder().id(1L).name("Recipe").build();
+        when(recipeRepository.findByIdIn(any())).thenAnswer(invocation -> {
+            assertThat(ReplicaRoutingDataSource.isPinnedToPrimary()).isTrue();
+            return List.of(recipe);
+        });
+        ArgumentCaptor<RecipeChangesRelayedEvent> published = ArgumentCaptor.forClass(RecipeChangesRelayedEvent.class);
+
+        // Act
+        recipeEventRelay.relay();
+
+        // Assert
+        verify(eventPublisher).publishEvent(published.capture());
+        List<RecipeChangedEvent> changes = published.getValue().getChanges();
+        assertThat(changes).extracting(RecipeChangedEvent::getRecipeId).containsExactly(1L, 2L);
+        assertThat(changes.get(0).getRecipe()).isSameAs(recipe);
+        // no longer there, deleted since
+        assertThat(changes.get(1).getRecipe()).isNull();
+        assertThat(changes.get(1).getChangeType()).isEqualTo(ChangeType.DELETED);
+        assertThat(ReplicaRoutingDataSource.isPinnedToPrimary()).isFalse();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> queuedEventIds() {
+        Set<Object> subscribers = (Set<Object>) ReflectionTestUtils.getField(recipeEventRelay, "subscribers");
+        Collection<SseEmitter.SseEventBuilder> queue =
+                (Collection<SseEmitter.SseEventBuilder>) ReflectionTestUtils.getField(subscribers.iterator().next(), "queue");
+        return queue.stream()
+                .map(event -> event.build().iterator().next().getData().toString())
+                .map(id -> id.substring("id:".length(), id.indexOf('\n')))
+                .collect(Collectors.toList());
+    }
+
+    private static List<RecipeOutbox> outboxRows(long fromId, long toId) {
+        return LongStream.rangeClosed(fromId, toId)
+                .mapToObj(id -> RecipeOutbox.builder().id(id).recipeId(id).changeType(ChangeType.UPDATED).createdAt(Instant.now()).build())
+                .collect(Collectors.toList());
+    }
+}
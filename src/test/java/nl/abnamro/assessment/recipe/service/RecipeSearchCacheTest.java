@@ -0,0 +1,136 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.component.ReplicaRoutingDataSource;
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeSearchCacheTest {
+
+    private final RecipeSearchCache recipeSearchCache = new RecipeSearchCache(new ConcurrentMapCacheManager(), "", 5000);
+
+    private final RecipePageDto page = RecipePageDto.builder()
+            .recipes(List.of(RecipeDto.builder().id(1L).name("Recipe").build()))
+            .nextCursor("1")
+            .build();
+
+    @Test
+    void testKeyIgnoresCriteriaOrderAndCase() {
+        SearchCriteria vegetarian = new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true);
+        SearchCriteria serving = new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 4);
+
+        RecipeSearchCache.SearchKey key = recipeSearchCache.key(List.of(vegetarian, serving,
+                new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "Salt")), RecipeSort.BY_ID, null, 20);
+
+        assertThat(recipeSearchCache.key(List.of(new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "salt"),
+                serving, vegetarian, vegetarian), RecipeSort.BY_ID, null, 20)).isEqualTo(key);
+        assertThat(recipeSearchCache.key(List.of(vegetarian, serving), RecipeSort.BY_ID, null, 20)).isNotEqualTo(key);
+    }
+
+    @Test
+    void testWriteStartsNewGeneration() {
+        RecipeSearchCache.SearchKey key = recipeSearchCache.key(List.of(), RecipeSort.BY_ID, null, 20);
+        recipeSearchCache.put(key, page);
+
+        assertThat(recipeSearchCache.get(key).getIds()).containsExactly(1L);
+        assertThat(recipeSearchCache.getRecipe(1L)).isEqualTo(page.getRecipes().get(0));
+
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.UPDATED));
+
+        assertThat(recipeSearchCache.get(recipeSearchCache.key(List.of(), RecipeSort.BY_ID, null, 20))).isNull();
+    }
+
+    @Test
+    void testResultOfEndedGenerationIsNotStored() {
+        RecipeSearchCache.SearchKey key = recipeSearchCache.key(List.of(), RecipeSort.BY_ID, null, 20);
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.UPDATED));
+
+        recipeSearchCache.put(key, page);
+
+        assertThat(recipeSearchCache.get(key)).isNull();
+        assertThat(recipeSearchCache.getRecipe(1L)).isNull();
+    }
+
+    @Test
+    void testUnrelatedWriteKeepsTheResult() {
+        List<SearchCriteria> criteria = List.of(new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true),
+                new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "Tomato"));
+        recipeSearchCache.put(recipeSearchCache.key(criteria, RecipeSort.BY_ID, null, 20), page);
+
+        Recipe meat = recipe(false, 2, "Beef");
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(2L, ChangeType.UPDATED, recipe(false, 4, "Beef"),
+                RecipeChangedEvent.SearchAttributes.of(meat)));
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(3L, ChangeType.CREATED, recipe(true, 2, "Cheese")));
+
+        assertThat(recipeSearchCache.get(recipeSearchCache.key(criteria, RecipeSort.BY_ID, null, 20)).getIds()).containsExactly(1L);
+        assertThat(recipeSearchCache.get(recipeSearchCache.key(List.of(), RecipeSort.BY_ID, null, 20))).isNull();
+    }
+
+    @Test
+    void testWriteToAMatchingRecipeEndsTheResult() {
+        List<SearchCriteria> criteria = List.of(new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true),
+                new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 2),
+                new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "Tomato"));
+        recipeSearchCache.put(recipeSearchCache.key(criteria, RecipeSort.BY_ID, null, 20), page);
+
+        // leaves the result by no longer being vegetarian
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.UPDATED, recipe(false, 4, "Cherry Tomatoes"),
+                RecipeChangedEvent.SearchAttributes.of(recipe(true, 4, "Cherry Tomatoes"))));
+
+        assertThat(recipeSearchCache.get(recipeSearchCache.key(criteria, RecipeSort.BY_ID, null, 20))).isNull();
+    }
+
+    @Test
+    void testDeletedMatchingRecipeEndsTheResult() {
+        List<SearchCriteria> criteria = List.of(new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 4));
+        recipeSearchCache.put(recipeSearchCache.key(criteria, RecipeSort.BY_ID, null, 20), page);
+
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.DELETED, null,
+                RecipeChangedEvent.SearchAttributes.of(recipe(true, 6, "Salt"))));
+
+        assertThat(recipeSearchCache.get(recipeSearchCache.key(criteria, RecipeSort.BY_ID, null, 20))).isNull();
+    }
+
+    @Test
+    void testReplicaReadsAreNotCachedWithinThePinTimeOfAWrite() {
+        RecipeSearchCache withReplicas = new RecipeSearchCache(new ConcurrentMapCacheManager(), "jdbc:h2:mem:replica", 60000);
+        assertThat(withReplicas.mayCache()).isTrue();
+        withReplicas.onRecipeChanged(new RecipeChangedEvent(2L, ChangeType.CREATED, recipe(false, 2, "Beef")));
+
+        RecipeSearchCache.SearchKey key = withReplicas.key(List.of(), RecipeSort.BY_ID, null, 20);
+        withReplicas.put(key, page);
+
+        assertThat(withReplicas.get(key)).isNull();
+        assertThat(withReplicas.getRecipe(1L)).isNull();
+
+        ReplicaRoutingDataSource.pinToPrimary();
+        try {
+            withReplicas.put(key, page);
+        } finally {
+            ReplicaRoutingDataSource.unpin();
+        }
+
+        assertThat(withReplicas.get(key).getIds()).containsExactly(1L);
+    }
+
+    private static Recipe recipe(boolean vegetarian, int servingNumber, String ingredientName) {
+        return Recipe.builder()
+                .isVegetarian(vegetarian)
+                .servingNumber(servingNumber)
+                .ingredients(Set.of(Ingredients.builder().ingredientName(ingredientName).build()))
+                .build();
+    }
+}
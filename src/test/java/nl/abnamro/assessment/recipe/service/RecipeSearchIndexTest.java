@@ -0,0 +1,176 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.model.RecipeFacetsDto;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeSearchIndexTest {
+
+    private final RecipeSearchIndex recipeSearchIndex = new RecipeSearchIndex(mock(RecipeRepository.class), mock(TransactionTemplate.class), true);
+
+    private final SearchCriteria vegetarian = new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true);
+
+    private final SearchCriteria fourServings = new SearchCriteria("servingNumber", SearchOperation.GREATER_THAN_OR_EQUAL, 4);
+
+    private final SearchCriteria salt = new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "SAL");
+
+    @BeforeEach
+    void setUp() {
+        recipeSearchIndex.onRecipeChanged(created(1L, true, 2, "Salt", "Pepper"));
+        recipeSearchIndex.onRecipeChanged(created(2L, true, 4, "Sea salt"));
+        recipeSearchIndex.onRecipeChanged(created(3L, false, 6, "Salt"));
+        recipeSearchIndex.onRecipeChanged(created(4L, true, 8, "Pepper"));
+        recipeSearchIndex.build();
+    }
+
+    @Test
+    void testSearchCombinesCriteria() {
+        assertThat(recipeSearchIndex.search(List.of(vegetarian, fourServings, salt), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(2L);
+        assertThat(recipeSearchIndex.search(List.of(salt), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(1L, 2L, 3L);
+        assertThat(recipeSearchIndex.search(List.of(), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    void testSearchPagesAfterCursor() {
+        RecipeSearchCache.RecipeIdPage page = recipeSearchIndex.search(List.of(vegetarian), RecipeSort.BY_ID, null, 2);
+        assertThat(page.getIds()).containsExactly(1L, 2L);
+        assertThat(page.getNextCursor()).isEqualTo("2");
+
+        page = recipeSearchIndex.search(List.of(vegetarian), RecipeSort.BY_ID, new RecipeSort.Cursor(null, 2L), 2);
+        assertThat(page.getIds()).containsExactly(4L);
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    void testSearchSortsOnServingNumber() {
+        RecipeSort sort = RecipeSort.parse("servingNumber,desc");
+
+        RecipeSearchCache.RecipeIdPage page = recipeSearchIndex.search(List.of(vegetarian), sort, null, 2);
+        assertThat(page.getIds()).containsExactly(4L, 2L);
+
+        page = recipeSearchIndex.search(List.of(vegetarian), sort, sort.decode(page.getNextCursor()), 2);
+        assertThat(page.getIds()).containsExactly(1L);
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(recipeSearchIndex.search(List.of(vegetarian), RecipeSort.parse("name"), null, 2)).isNull();
+    }
+
+    @Test
+    void testChangesAreFollowed() {
+        recipeSearchIndex.onRecipeChanged(created(4L, false, 8, "Salt"));
+        recipeSearchIndex.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.DELETED));
+
+        assertThat(recipeSearchIndex.search(List.of(salt), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(2L, 3L, 4L);
+        assertThat(recipeSearchIndex.search(List.of(vegetarian), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(2L);
+    }
+
+    @Test
+    void testChangesOfOtherNodesAreFollowed() {
+        recipeSearchIndex.onChangesRelayed(new RecipeChangesRelayedEvent(List.of(created(5L, true, 2, "Salt"),
+                new RecipeChangedEvent(2L, ChangeType.DELETED))));
+
+        assertThat(recipeSearchIndex.search(List.of(vegetarian, salt), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(1L, 5L);
+    }
+
+    @Test
+    void testUnsupportedCriteriaAreLeftToTheDatabase() {
+        SearchCriteria instruction = new SearchCriteria("description", SearchOperation.CONTAINS, "oven");
+
+        assertThat(recipeSearchIndex.search(List.of(vegetarian, instruction), RecipeSort.BY_ID, null, 10)).isNull();
+        assertThat(recipeSearchIndex.facets(List.of(instruction))).isNull();
+    }
+
+    @Test
+    void testIngredientCriteriaAreMatchedPerRecipe() {
+        SearchCriteria pepper = new SearchCriteria("ingredientName", SearchOperation.CONTAINS, "pepper");
+        SearchCriteria withoutSeaSalt = new SearchCriteria("ingredientName", SearchOperation.NOT_CONTAINS, "SEA");
+
+        assertThat(recipeSearchIndex.search(List.of(salt, pepper), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(1L);
+        assertThat(recipeSearchIndex.search(List.of(salt, withoutSeaSalt), RecipeSort.BY_ID, null, 10).getIds()).containsExactly(1L, 3L);
+        assertThat(recipeSearchIndex.search(List.of(new SearchCriteria("ingredientName", SearchOperation.NOT_CONTAINS, "salt")), RecipeSort.BY_ID, null, 10)
+                .getIds()).containsExactly(4L);
+    }
+
+    @Test
+    void testFacetsCountMatchingRecipes() {
+        RecipeFacetsDto facets = recipeSearchIndex.facets(List.of(salt));
+
+        assertThat(facets.getTotal()).isEqualTo(3);
+        assertThat(facets.getIsVegetarian()).isEqualTo(Map.of(true, 2L, false, 1L));
+        assertThat(facets.getServingNumber()).isEqualTo(Map.of(2, 1L, 4, 1L, 6, 1L));
+        assertThat(facets.getIngredientName()).containsExactly(Map.entry("salt", 2L), Map.entry("pepper", 1L), Map.entry("sea salt", 1L));
+    }
+
+    @Test
+    void testCoveredByRanksRecipesMissingAtMostMaxMissing() {
+        assertThat(recipeSearchIndex.coveredBy(List.of("salt"), 0, List.of(), 10)).extracting(RecipeSearchIndex.PantryMatch::getRecipeId)
+                .containsExactly(3L);
+
+        List<RecipeSearchIndex.PantryMatch> matches = recipeSearchIndex.coveredBy(List.of(" SALT ", "garlic"), 1, List.of(), 10);
+        assertThat(matches).containsExactly(
+                new RecipeSearchIndex.PantryMatch(3L, 1, 1, List.of()),
+                new RecipeSearchIndex.PantryMatch(1L, 1, 2, List.of("pepper")));
+
+        assertThat(recipeSearchIndex.coveredBy(List.of("salt"), 1, List.of(), 1)).extracting(RecipeSearchIndex.PantryMatch::getRecipeId)
+                .containsExactly(3L);
+        assertThat(recipeSearchIndex.coveredBy(List.of("salt"), 1, List.of(vegetarian), 10)).extracting(RecipeSearchIndex.PantryMatch::getRecipeId)
+                .containsExactly(1L);
+        assertThat(recipeSearchIndex.coveredBy(List.of("salt"), Integer.MAX_VALUE, List.of(), 10)).extracting(RecipeSearchIndex.PantryMatch::getRecipeId)
+                .containsExactly(3L, 1L);
+    }
+
+    @Test
+    void testCoveredByFollowsChanges() {
+        recipeSearchIndex.onRecipeChanged(created(3L, false, 6, "Salt", "Garlic"));
+        recipeSearchIndex.onRecipeChanged(created(5L, true, 2, "Sea salt", "Pepper", "Garlic"));
+
+        assertThat(recipeSearchIndex.coveredBy(List.of("salt"), 0, List.of(), 10)).isEmpty();
+        assertThat(recipeSearchIndex.coveredBy(List.of("sea salt", "pepper", "garlic"), 0, List.of(), 10))
+                .extracting(RecipeSearchIndex.PantryMatch::getRecipeId)
+                .containsExactly(2L, 4L, 5L);
+        assertThat(recipeSearchIndex.coveredBy(List.of("salt"), 0, List.of(new SearchCriteria("description", SearchOperation.CONTAINS, "oven")), 10))
+                .isNull();
+    }
+
+    @Test
+    void testSuggestIngredientsFollowsUsage() {
+        assertThat(recipeSearchIndex.suggestIngredients("S", 10)).containsExactly(Map.entry("salt", 2L), Map.entry("sea salt", 1L));
+
+        recipeSearchIndex.onRecipeChanged(created(5L, true, 2, "Sea salt", "Sage"));
+        recipeSearchIndex.onRecipeChanged(created(6L, true, 2, "Sea salt"));
+        recipeSearchIndex.onRecipeChanged(new RecipeChangedEvent(3L, ChangeType.DELETED));
+
+        assertThat(recipeSearchIndex.suggestIngredients("s", 2)).containsExactly(Map.entry("sea salt", 3L), Map.entry("sage", 1L));
+        assertThat(recipeSearchIndex.suggestIngredients("", 1)).containsExactly(Map.entry("sea salt", 3L));
+        assertThat(recipeSearchIndex.suggestIngredients("x", 10)).isEmpty();
+    }
+
+    private static RecipeChangedEvent created(Long id, boolean isVegetarian, int servingNumber, String... ingredients) {
+        Recipe recipe = Recipe.builder()
+                .id(id)
+                .isVegetarian(isVegetarian)
+                .servingNumber(servingNumber)
+                .ingredients(Arrays.stream(ingredients)
+                        .map(name -> Ingredients.builder().ingredientName(name).build())
+                        .collect(Collectors.toCollection(HashSet::new)))
+                .build();
+        return new RecipeChangedEvent(id, ChangeType.CREATED, recipe);
+    }
+}
@@ -1,30 +1,64 @@
 package nl.abnamro.assessment.recipe.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import nl.abnamro.assessment.recipe.component.ObjectMapperUtils;
+import nl.abnamro.assessment.recipe.component.RecipeMapper;
+import nl.abnamro.assessment.recipe.component.RecipeMerger;
+import nl.abnamro.assessment.recipe.controller.BadRequestException;
+import nl.abnamro.assessment.recipe.controller.PreconditionFailedException;
 import nl.abnamro.assessment.recipe.domain.Ingredients;
 import nl.abnamro.assessment.recipe.domain.Instructions;
 import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.domain.RecipeOutbox;
+import nl.abnamro.assessment.recipe.domain.RecipeTombstone;
+import nl.abnamro.assessment.recipe.enums.BatchItemStatus;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
 import nl.abnamro.assessment.recipe.enums.SearchOperation;
+import nl.abnamro.assessment.recipe.enums.SortField;
 import nl.abnamro.assessment.recipe.model.IngredientsDto;
 import nl.abnamro.assessment.recipe.model.InstructionsDto;
+import nl.abnamro.assessment.recipe.model.RecipeBatchResultDto;
+import nl.abnamro.assessment.recipe.model.RecipeChangesDto;
 import nl.abnamro.assessment.recipe.model.RecipeDto;
+import nl.abnamro.assessment.recipe.model.RecipePageDto;
+import nl.abnamro.assessment.recipe.model.RecipeSimilarityDto;
+import nl.abnamro.assessment.recipe.repository.RecipeOutboxRepository;
 import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import nl.abnamro.assessment.recipe.repository.RecipeTombstoneRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 /**
@@ -37,6 +71,42 @@ public class RecipeServiceTest {
     @Mock
     RecipeRepository recipeRepository;
 
+    @Mock
+    RecipeTombstoneRepository recipeTombstoneRepository;
+
+    @Mock
+    RecipeOutboxRepository recipeOutboxRepository;
+
+    @Spy
+    RecipeMapper recipeMapper = new RecipeMapper();
+
+    @Spy
+    RecipeMerger recipeMerger = new RecipeMerger();
+
+    @Mock
+    IngredientDictionary ingredientDictionary;
+
+    @Mock
+    TransactionTemplate transactionTemplate;
+
+    @Spy
+    RecipeSearchCache recipeSearchCache = new RecipeSearchCache(new ConcurrentMapCacheManager(), "", 5000);
+
+    @Mock
+    RecipeSearchIndex recipeSearchIndex;
+
+    @Mock
+    RecipeSimilarityIndex recipeSimilarityIndex;
+
+    @Mock
+    RecipeTextIndex recipeTextIndex;
+
+    @Mock
+    ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     RecipeServiceImpl recipeService;
 
@@ -45,7 +115,6 @@ public class RecipeServiceTest {
 
     private Recipe recipe;
     private RecipeDto recipeDto;
-    private Set<RecipeDto> recipeDtoSet;
 
     @BeforeEach
     void setUp() {
@@ -82,23 +151,42 @@ public class RecipeServiceTest {
         recipeDto.setInstructions(new LinkedHashSet<>());
         recipeDto.setIngredients(ingredientsSet);
         recipeDto.setInstructions(instructionsSet);
-
-        recipeDtoSet = new HashSet<>(Set.of(recipeDto));
     }
 
     @Test
     void testFindAllRecipes() {
         List<Recipe> recipeList = List.of(recipe);
 
-        when(recipeRepository.findAll()).thenReturn(recipeList);
+        when(recipeRepository.findPage(isNull(), eq(SortField.ID), eq(false), isNull(), isNull(), eq(21))).thenReturn(recipeList);
 
-        Set<RecipeDto> result = recipeService.findAll();
+        RecipePageDto result = recipeService.findAll(RecipeSort.BY_ID, null, 20);
 
-        assertThat(result).isEqualTo(recipeDtoSet);
+        assertThat(result.getRecipes()).isEqualTo(List.of(recipeDto));
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    void testFindAllRecipesReturnsNextCursor() {
+        Recipe next = Recipe.builder().id(2L).ingredients(new HashSet<>()).instructions(new HashSet<>()).build();
+
+        when(recipeRepository.findPage(isNull(), eq(SortField.ID), eq(false), isNull(), eq(0L), eq(2))).thenReturn(List.of(recipe, next));
+
+        RecipePageDto result = recipeService.findAll(RecipeSort.BY_ID, "0", 1);
+
+        assertThat(result.getRecipes()).isEqualTo(List.of(recipeDto));
+        assertEquals("1", result.getNextCursor());
+    }
+
+    @Test
+    void testFindAllRecipesCapsPageSize() {
+        recipeService.findAll(RecipeSort.BY_ID, null, 10_000);
+
+        verify(recipeRepository).findPage(isNull(), eq(SortField.ID), eq(false), isNull(), isNull(), eq(RecipeServiceImpl.MAX_PAGE_SIZE + 1));
     }
 
     @Test
     public void testSaveRecipe() {
+        runTransactionsInline();
         when(recipeRepository.save(any())).thenReturn(recipe);
 
         RecipeDto response = recipeService.saveRecipe(recipeDto);
@@ -109,6 +197,7 @@ public class RecipeServiceTest {
     @Test
     public void testSaveRecipe1() {
         // Arrange
+        runTransactionsInline();
         Recipe recipe = objectMapperUtils.map(recipeDto, Recipe.class);
         when(recipeRepository.save(any(Recipe.class))).thenReturn(recipe);
 
@@ -118,6 +207,7 @@ public class RecipeServiceTest {
         // Assert
         assertNotNull(response);
         verify(recipeRepository, times(1)).save(any(Recipe.class));
+        verify(recipeOutboxRepository, times(1)).save(any(RecipeOutbox.class));
     }
 
     @Test
@@ -126,14 +216,66 @@ public class RecipeServiceTest {
         when(recipeRepository.findById(anyLong())).thenReturn(java.util.Optional.of(recipe));
 
         // Act
-        Recipe recipe = objectMapperUtils.map(recipeDto, Recipe.class);
+        RecipeDto response = recipeService.updateRecipe(1L, recipeDto, null);
 
-        when(recipeRepository.save(any())).thenReturn(recipe);
+        // Assert
+        verify(recipeRepository, times(1)).findById(anyLong());
+    }
+
+    @Test
+    public void testUpdateRecipeWithStaleVersion() {
+        // Arrange
+        recipe.setVersion(4L);
+        when(recipeRepository.findById(1L)).thenReturn(java.util.Optional.of(recipe));
+
+        // Act & Assert
+        assertThrows(PreconditionFailedException.class, () -> recipeService.updateRecipe(1L, recipeDto, 3L));
+        assertThrows(PreconditionFailedException.class, () -> recipeService.deleteRecipe(1L, 3L));
+        verify(recipeRepository, never()).delete(any());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
 
-        RecipeDto response = recipeService.updateRecipe(1L, recipeDto);
+    @Test
+    public void testSaveRecipes() {
+        // Arrange
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(recipeRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<Recipe> recipes = invocation.getArgument(0);
+            long id = 10L;
+            for (Recipe saved : recipes) {
+                saved.setId(id++);
+            }
+            return recipes;
+        });
+        RecipeDto newRecipe = RecipeDto.builder().name("New Recipe").build();
+
+        // Act
+        List<RecipeBatchResultDto> response = recipeService.saveRecipes(List.of(newRecipe, recipeDto, newRecipe));
 
         // Assert
-        verify(recipeRepository, times(1)).findById(anyLong());
+        assertThat(response).extracting(RecipeBatchResultDto::getStatus)
+                .containsExactly(BatchItemStatus.CREATED, BatchItemStatus.FAILED, BatchItemStatus.CREATED);
+        assertThat(response).extracting(RecipeBatchResultDto::getId).containsExactly(10L, null, 11L);
+        verify(recipeRepository, times(1)).saveAll(any());
+    }
+
+    @Test
+    public void testSaveRecipesFallsBackToSingleSaves() {
+        // Arrange
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(recipeRepository.saveAll(any())).thenThrow(new IllegalStateException("batch failed"));
+        when(recipeRepository.save(any())).thenReturn(recipe).thenThrow(new IllegalStateException("bad recipe"));
+        RecipeDto newRecipe = RecipeDto.builder().name("New Recipe").build();
+
+        // Act
+        List<RecipeBatchResultDto> response = recipeService.saveRecipes(List.of(newRecipe, newRecipe));
+
+        // Assert
+        assertThat(response).extracting(RecipeBatchResultDto::getStatus)
+                .containsExactly(BatchItemStatus.CREATED, BatchItemStatus.FAILED);
+        assertThat(response.get(1).getError()).isEqualTo("bad recipe");
     }
 
     @Test
@@ -143,7 +285,7 @@ public class RecipeServiceTest {
         when(recipeRepository.findById(anyLong())).thenReturn(java.util.Optional.of(recipe));
 
         // Act
-        String response = recipeService.deleteRecipe(1L);
+        String response = recipeService.deleteRecipe(1L, null);
 
         // Assert
         verify(recipeRepository, times(1)).delete(any(Recipe.class));
@@ -170,9 +312,145 @@ public class RecipeServiceTest {
         List<SearchCriteria> criteriaList = List.of(searchCriteria);
 
         // Act
-        Set<RecipeDto> response = recipeService.searchRecipes(criteriaList);
+        RecipePageDto response = recipeService.searchRecipes(criteriaList, RecipeSort.BY_ID, null, 20);
 
         // Assert
         assertNotNull(response);
+        verify(recipeRepository, times(1)).findPage(any(RecipeSpecification.class), eq(SortField.ID), eq(false), isNull(), isNull(), eq(21));
+    }
+
+    @Test
+    public void testSearchRecipesIsCached() {
+        // Arrange
+        List<SearchCriteria> criteriaList = List.of(new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, false));
+        when(recipeRepository.findPage(any(RecipeSpecification.class), eq(SortField.ID), eq(false), isNull(), isNull(), eq(21))).thenReturn(List.of(recipe));
+
+        // Act
+        RecipePageDto first = recipeService.searchRecipes(criteriaList, RecipeSort.BY_ID, null, 20);
+        RecipePageDto second = recipeService.searchRecipes(criteriaList, RecipeSort.BY_ID, null, 20);
+        recipeSearchCache.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.UPDATED));
+        RecipePageDto third = recipeService.searchRecipes(criteriaList, RecipeSort.BY_ID, null, 20);
+
+        // Assert
+        assertThat(second).isEqualTo(first);
+        assertThat(third).isEqualTo(first);
+        verify(recipeRepository, times(2)).findPage(any(RecipeSpecification.class), eq(SortField.ID), eq(false), isNull(), isNull(), eq(21));
+        assertThat(meterRegistry.get("recipe.search").tags("criteria", "isVegetarian:EQUALITY", "cache", "hit").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("recipe.search").tags("cache", "miss").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("recipe.result.size").tags("method", "searchRecipes").summary().totalAmount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSearchRecipesLoadsOnlyThePageFoundByTheIndex() {
+        // Arrange
+        List<SearchCriteria> criteriaList = List.of(new SearchCriteria("isVegetarian", SearchOperation.EQUALITY, true));
+        when(recipeSearchIndex.search(criteriaList, RecipeSort.BY_ID, null, 20)).thenReturn(new RecipeSearchCache.RecipeIdPage(List.of(1L), "1"));
+        when(recipeRepository.findAllById(List.of(1L))).thenReturn(List.of(recipe));
+
+        // Act
+        RecipePageDto response = recipeService.searchRecipes(criteriaList, RecipeSort.BY_ID, null, 20);
+
+        // Assert
+        assertThat(response.getRecipes()).extracting(RecipeDto::getId).containsExactly(1L);
+        assertThat(response.getNextCursor()).isEqualTo("1");
+        verify(recipeRepository, never()).findPage(any(), any(), anyBoolean(), any(), any(), anyInt());
+        assertThat(meterRegistry.get("recipe.search").tags("index", "hit").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFindSimilarRanksCandidatesOnTheirIngredients() {
+        // Arrange
+        Recipe related = Recipe.builder().id(2L).name("Related").ingredients(ingredients(2L, "Test Ingredient", "Salt")).build();
+        Recipe same = Recipe.builder().id(3L).name("Same").ingredients(ingredients(3L, "test ingredient")).build();
+        Recipe unrelated = Recipe.builder().id(4L).name("Unrelated").ingredients(ingredients(4L, "Salt")).build();
+        when(recipeRepository.findById(1L)).thenReturn(Optional.of(recipe));
+        when(recipeSimilarityIndex.candidates(1L, 2 * RecipeServiceImpl.SIMILAR_CANDIDATES_PER_RESULT)).thenReturn(List.of(4L, 2L, 3L));
+        when(recipeRepository.findAllById(List.of(4L, 2L, 3L))).thenReturn(List.of(unrelated, related, same));
+
+        // Act
+        List<RecipeSimilarityDto> similar = recipeService.findSimilar(1L, 2);
+
+        // Assert
+        assertThat(similar).extracting(dto -> dto.getRecipe().getId()).containsExactly(3L, 2L);
+        assertThat(similar).extracting(RecipeSimilarityDto::getSimilarity).containsExactly(1.0, 0.5);
+    }
+
+    @Test
+    public void testExportRecipesDetachesEveryChunk() {
+        // Arrange
+        when(recipeRepository.streamAll(RecipeServiceImpl.EXPORT_FETCH_SIZE)).thenReturn(IntStream.rangeClosed(1, Recipe.BATCH_SIZE + 1)
+                .mapToObj(id -> Recipe.builder().id((long) id).name("Recipe " + id).build()));
+        List<RecipeDto> exported = new ArrayList<>();
+
+        // Act
+        recipeService.exportRecipes(exported::add);
+
+        // Assert
+        assertThat(exported).hasSize(Recipe.BATCH_SIZE + 1);
+        assertThat(exported.get(0).getId()).isEqualTo(1L);
+        assertThat(exported.get(Recipe.BATCH_SIZE).getId()).isEqualTo(Recipe.BATCH_SIZE + 1L);
+        verify(recipeRepository, times(2)).detachAll();
+    }
+
+    @Test
+    public void testFindChangesMergesRecipesAndTombstonesInSequenceOrder() {
+        // Arrange
+        when(recipeRepository.findChangedSince(eq(5L), eq(2L), any())).thenReturn(List.of(
+                Recipe.builder().id(3L).name("Recipe 3").changeSeq(5L).build(),
+                Recipe.builder().id(1L).name("Recipe 1").changeSeq(7L).build()));
+        when(recipeTombstoneRepository.findChangedSince(eq(5L), eq(2L), any())).thenReturn(List.of(
+                RecipeTombstone.builder().recipeId(4L).changeSeq(6L).build()));
+
+        // Act
+        RecipeChangesDto changes = recipeService.findChanges("5.2", 2);
+
+        // Assert
+        assertThat(changes.getRecipes()).extracting(RecipeDto::getId).containsExactly(3L);
+        assertThat(changes.getDeleted()).containsExactly(4L);
+        assertThat(changes.getToken()).isEqualTo("6.4");
+        assertThat(changes.isMore()).isTrue();
+        assertThrows(BadRequestException.class, () -> recipeService.findChanges("5", 2));
+    }
+
+    @Test
+    public void testFindChangesKeepsTheTokenBeforeChangesThatMayNotHaveSettled() {
+        // Arrange
+        ReflectionTestUtils.setField(recipeService, "settleMillis", 10000L);
+        Instant now = Instant.now();
+        when(recipeRepository.findChangedSince(eq(5L), eq(2L), any())).thenReturn(List.of(
+                Recipe.builder().id(3L).name("Recipe 3").changeSeq(6L).updatedAt(now.minusSeconds(60)).build(),
+                Recipe.builder().id(1L).name("Recipe 1").changeSeq(7L).updatedAt(now).build(),
+                Recipe.builder().id(2L).name("Recipe 2").changeSeq(9L).updatedAt(now.minusSeconds(60)).build()));
+        when(recipeTombstoneRepository.findChangedSince(anyLong(), anyLong(), any())).thenReturn(List.of());
+        when(recipeRepository.findChangedSince(eq(6L), eq(3L), any())).thenReturn(List.of(
+                Recipe.builder().id(1L).name("Recipe 1").changeSeq(7L).updatedAt(now).build(),
+                Recipe.builder().id(2L).name("Recipe 2").changeSeq(9L).updatedAt(now.minusSeconds(60)).build()));
+
+        // Act
+        RecipeChangesDto changes = recipeService.findChanges("5.2", 100);
+        RecipeChangesDto unsettled = recipeService.findChanges(changes.getToken(), 1);
+
+        // Assert
+        assertThat(changes.getRecipes()).extracting(RecipeDto::getId).containsExactly(3L, 1L, 2L);
+        // seq 8 may still commit, the next call returns the changes from seq 7 on again
+        assertThat(changes.getToken()).isEqualTo("6.3");
+        assertThat(unsettled.getRecipes()).extracting(RecipeDto::getId).containsExactly(1L);
+        assertThat(unsettled.getToken()).isEqualTo("6.3");
+        assertThat(unsettled.isMore()).isFalse();
+    }
+
+    private void runTransactionsInline() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    private static Set<Ingredients> ingredients(Long recipeId, String... names) {
+        Set<Ingredients> ingredients = new HashSet<>();
+        for (String name : names) {
+            ingredients.add(Ingredients.builder().ingredientName(name).recipeId(recipeId).build());
+        }
+        return ingredients;
     }
 }
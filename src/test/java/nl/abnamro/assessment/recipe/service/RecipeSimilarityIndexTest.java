@@ -0,0 +1,120 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeSimilarityIndexTest {
+
+    private final RecipeRepository recipeRepository = mock(RecipeRepository.class);
+
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+    private final RecipeSimilarityIndex recipeSimilarityIndex = new RecipeSimilarityIndex(recipeRepository, transactionTemplate, true);
+
+    private final List<String> pantry = IntStream.range(0, 20).mapToObj(i -> "ingredient " + i).collect(Collectors.toList());
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @Test
+    void testCandidatesShareBucketsWithTheRecipe() {
+        Recipe stored = recipe(1L, pantry.subList(0, 20));
+        when(recipeRepository.findWithoutMinHash(any())).thenReturn(List.of());
+        when(recipeRepository.streamMinHashes(anyInt())).thenReturn(Stream.<Object[]>of(
+                new Object[]{1L, minHash(stored)},
+                new Object[]{2L, minHash(recipe(2L, pantry.subList(0, 19)))},
+                new Object[]{3L, minHash(recipe(3L, List.of("something else", "and more")))},
+                new Object[]{4L, new byte[0]}));
+        recipeSimilarityIndex.build();
+
+        assertThat(recipeSimilarityIndex.candidates(1L, 10)).containsExactly(2L);
+        assertThat(recipeSimilarityIndex.candidates(4L, 10)).isEmpty();
+
+        recipeSimilarityIndex.onRecipeChanged(new RecipeChangedEvent(5L, ChangeType.CREATED, stamped(recipe(5L, pantry.subList(0, 20)))));
+        recipeSimilarityIndex.onRecipeChanged(new RecipeChangedEvent(2L, ChangeType.DELETED));
+
+        assertThat(recipeSimilarityIndex.candidates(1L, 10)).containsExactly(5L);
+
+        // written again on another node
+        recipeSimilarityIndex.onChangesRelayed(new RecipeChangesRelayedEvent(List.of(
+                new RecipeChangedEvent(2L, ChangeType.CREATED, stamped(recipe(2L, pantry.subList(0, 19)))))));
+
+        assertThat(recipeSimilarityIndex.candidates(1L, 10)).containsExactlyInAnyOrder(2L, 5L);
+    }
+
+    @Test
+    void testMissingSignaturesAreComputedWhileBuilding() {
+        Recipe stored = recipe(1L, pantry.subList(0, 3));
+        when(recipeRepository.findWithoutMinHash(any())).thenReturn(List.of(stored), List.of());
+        when(recipeRepository.streamMinHashes(anyInt())).thenReturn(Stream.empty());
+
+        recipeSimilarityIndex.build();
+
+        verify(recipeRepository).updateMinHash(1L, minHash(stored));
+        assertThat(recipeSimilarityIndex.isReady()).isTrue();
+    }
+
+    @Test
+    void testSignaturesAgreeInProportionToTheSimilarity() {
+        int[] first = MinHash.signature(new HashSet<>(pantry.subList(0, 20)));
+        int[] second = MinHash.signature(new HashSet<>(pantry.subList(10, 20)));
+
+        int agreeing = 0;
+        for (int i = 0; i < MinHash.SIZE; i++) {
+            if (first[i] == second[i]) {
+                agreeing++;
+            }
+        }
+        assertThat((double) agreeing / MinHash.SIZE).isBetween(0.3, 0.7);
+        assertThat(MinHash.fromBytes(MinHash.toBytes(first))).isEqualTo(first);
+        assertThat(MinHash.signature(Set.of())).isEmpty();
+    }
+
+    private static Recipe recipe(Long id, List<String> ingredients) {
+        return Recipe.builder()
+                .id(id)
+                .ingredients(ingredients.stream()
+                        .map(name -> Ingredients.builder().ingredientName(name).build())
+                        .collect(Collectors.toCollection(HashSet::new)))
+                .build();
+    }
+
+    private static Recipe stamped(Recipe recipe) {
+        recipe.setMinHash(minHash(recipe));
+        return recipe;
+    }
+
+    private static byte[] minHash(Recipe recipe) {
+        return MinHash.toBytes(MinHash.signature(MinHash.names(recipe.getIngredients())));
+    }
+}
@@ -0,0 +1,55 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.controller.BadRequestException;
+import nl.abnamro.assessment.recipe.enums.SortField;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeSortTest {
+
+    @Test
+    void testParse() {
+        assertThat(RecipeSort.parse(null)).isEqualTo(RecipeSort.BY_ID);
+        assertThat(RecipeSort.parse("name")).isEqualTo(new RecipeSort(SortField.NAME, false));
+        assertThat(RecipeSort.parse("servingNumber, DESC")).isEqualTo(new RecipeSort(SortField.SERVING_NUMBER, true));
+        assertThatThrownBy(() -> RecipeSort.parse("relevance")).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> RecipeSort.parse("name,up")).isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void testCursorsRoundTrip() {
+        RecipeSort byName = RecipeSort.parse("name,desc");
+        RecipeSort byServingNumber = RecipeSort.parse("servingNumber");
+
+        assertThat(RecipeSort.BY_ID.encode(new RecipeSort.Cursor(null, 42L))).isEqualTo("42");
+        assertThat(byName.decode(byName.encode(new RecipeSort.Cursor("Soup, with a comma", 7L))))
+                .isEqualTo(new RecipeSort.Cursor("Soup, with a comma", 7L));
+        assertThat(byName.decode(byName.encode(new RecipeSort.Cursor(null, 7L)))).isEqualTo(new RecipeSort.Cursor(null, 7L));
+        assertThat(byServingNumber.decode(byServingNumber.encode(new RecipeSort.Cursor(4, 7L)))).isEqualTo(new RecipeSort.Cursor(4, 7L));
+
+        String cursor = byName.encode(new RecipeSort.Cursor("Soup", 7L));
+        assertThatThrownBy(() -> byServingNumber.decode(cursor)).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> RecipeSort.BY_ID.decode(cursor)).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> byName.decode("not a cursor")).isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    void testComparatorPutsMissingValuesLastAscending() {
+        List<RecipeSort.Cursor> positions = new ArrayList<>(List.of(new RecipeSort.Cursor(null, 1L),
+                new RecipeSort.Cursor(4, 3L), new RecipeSort.Cursor(2, 5L), new RecipeSort.Cursor(4, 2L)));
+
+        positions.sort(RecipeSort.parse("servingNumber").comparator());
+        assertThat(positions).extracting(RecipeSort.Cursor::getId).containsExactly(5L, 2L, 3L, 1L);
+
+        positions.sort(RecipeSort.parse("servingNumber,desc").comparator());
+        assertThat(positions).extracting(RecipeSort.Cursor::getId).containsExactly(1L, 3L, 2L, 5L);
+    }
+}
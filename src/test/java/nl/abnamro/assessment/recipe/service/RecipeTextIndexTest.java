@@ -0,0 +1,145 @@
+package nl.abnamro.assessment.recipe.service;
+
+import nl.abnamro.assessment.recipe.domain.Ingredients;
+import nl.abnamro.assessment.recipe.domain.Instructions;
+import nl.abnamro.assessment.recipe.domain.Recipe;
+import nl.abnamro.assessment.recipe.enums.ChangeType;
+import nl.abnamro.assessment.recipe.repository.RecipeRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Orhan Polat
+ */
+public class RecipeTextIndexTest {
+
+    private final RecipeRepository recipeRepository = mock(RecipeRepository.class);
+
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+    private RecipeTextIndex recipeTextIndex;
+
+    @BeforeEach
+    void setUp(@TempDir Path directory) {
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        recipeTextIndex = new RecipeTextIndex(recipeRepository, transactionTemplate, true, directory.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        recipeTextIndex.close();
+    }
+
+    @Test
+    void testMatchesAreRankedByField() {
+        when(recipeRepository.streamAll(anyInt())).thenReturn(Stream.of(
+                recipe(1L, "Pasta", List.of("Tomatoes", "Basil"), "Boil the pasta and add the sauce"),
+                recipe(2L, "Tomato Soup", List.of("Water", "Salt"), "Simmer for twenty minutes"),
+                recipe(3L, "Salad", List.of("Lettuce"), "Slice a tomato and mix it with the lettuce"),
+                recipe(4L, "Bread", List.of("Flour"), "Bake it")));
+        assertThat(recipeTextIndex.search("tomato", 10)).isNull();
+        recipeTextIndex.build();
+
+        List<RecipeTextIndex.TextMatch> matches = recipeTextIndex.search("tomato", 10);
+
+        assertThat(matches).extracting(RecipeTextIndex.TextMatch::getRecipeId).containsExactly(2L, 1L, 3L);
+        assertThat(matches.get(0).getHighlights()).containsOnlyKeys(RecipeTextIndex.NAME)
+                .containsEntry(RecipeTextIndex.NAME, "<b>Tomato</b> Soup");
+        assertThat(matches.get(1).getHighlights().get(RecipeTextIndex.INGREDIENTS)).contains("<b>Tomatoes</b>");
+        assertThat(recipeTextIndex.search("tomato -salad", 10)).extracting(RecipeTextIndex.TextMatch::getRecipeId)
+                .containsExactly(2L, 1L);
+        assertThat(recipeTextIndex.search("tomato | bread", 10)).hasSize(4);
+        assertThat(recipeTextIndex.search("the", 10)).isEmpty();
+    }
+
+    @Test
+    void testChangesAreVisibleToTheNextSearch() {
+        when(recipeRepository.streamAll(anyInt())).thenReturn(Stream.of(
+                recipe(1L, "Pasta", List.of("Tomatoes"), "Boil")));
+        recipeTextIndex.build();
+
+        recipeTextIndex.onRecipeChanged(new RecipeChangedEvent(1L, ChangeType.UPDATED, recipe(1L, "Pasta", List.of("Cream"), "Boil")));
+        recipeTextIndex.onRecipeChanged(new RecipeChangedEvent(2L, ChangeType.CREATED, recipe(2L, "Tomato Tart", List.of("Pastry"), "Bake")));
+
+        assertThat(recipeTextIndex.search("tomato", 10)).extracting(RecipeTextIndex.TextMatch::getRecipeId).containsExactly(2L);
+
+        recipeTextIndex.onRecipeChanged(new RecipeChangedEvent(2L, ChangeType.DELETED));
+
+        assertThat(recipeTextIndex.search("tomato", 10)).isEmpty();
+        assertThat(recipeTextIndex.search("cream", 10)).extracting(RecipeTextIndex.TextMatch::getRecipeId).containsExactly(1L);
+    }
+
+    @Test
+    void testFailedBuildIsRetried() {
+        when(recipeRepository.streamAll(anyInt()))
+                .thenThrow(new IllegalStateException("connection refused"))
+                .thenReturn(Stream.of(recipe(1L, "Pasta", List.of("Tomatoes"), "Boil")));
+        recipeTextIndex.build();
+        assertThat(recipeTextIndex.search("tomato", 10)).isNull();
+        recipeTextIndex.onRecipeChanged(new RecipeChangedEvent(2L, ChangeType.CREATED, recipe(2L, "Tomato Tart", List.of("Pastry"), "Bake")));
+
+        // the index directory the failed build left open is closed before it is opened again
+        recipeTextIndex.build();
+
+        assertThat(recipeTextIndex.search("tomato", 10)).extracting(RecipeTextIndex.TextMatch::getRecipeId).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void testChangesOfOtherNodesAreVisibleToTheNextSearch() {
+        when(recipeRepository.streamAll(anyInt())).thenReturn(Stream.of(
+                recipe(1L, "Pasta", List.of("Tomatoes"), "Boil")));
+        recipeTextIndex.build();
+
+        recipeTextIndex.onChangesRelayed(new RecipeChangesRelayedEvent(List.of(
+                new RecipeChangedEvent(1L, ChangeType.DELETED),
+                new RecipeChangedEvent(2L, ChangeType.CREATED, recipe(2L, "Tomato Tart", List.of("Pastry"), "Bake")))));
+
+        assertThat(recipeTextIndex.search("tomato", 10)).extracting(RecipeTextIndex.TextMatch::getRecipeId).containsExactly(2L);
+    }
+
+    @Test
+    void testHighlightsEscapeTheStoredText() {
+        when(recipeRepository.streamAll(anyInt())).thenReturn(Stream.of(
+                recipe(1L, "Tomato <script>alert(1)</script>", List.of("Salt & Pepper"), "Season with salt & pepper")));
+        recipeTextIndex.build();
+
+        Map<String, String> highlights = recipeTextIndex.search("tomato | salt", 10).get(0).getHighlights();
+
+        assertThat(highlights.get(RecipeTextIndex.NAME))
+                .isEqualTo("<b>Tomato</b> &lt;script&gt;alert(1)&lt;&#x2F;script&gt;");
+        assertThat(highlights.get(RecipeTextIndex.INGREDIENTS)).isEqualTo("<b>Salt</b> &amp; Pepper");
+    }
+
+    private static Recipe recipe(Long id, String name, List<String> ingredients, String instruction) {
+        return Recipe.builder()
+                .id(id)
+                .name(name)
+                .ingredients(ingredients.stream()
+                        .map(ingredient -> Ingredients.builder().ingredientName(ingredient).build())
+                        .collect(Collectors.toSet()))
+                .instructions(Set.of(Instructions.builder().description(instruction).build()))
+                .build();
+    }
+}
@@ -0,0 +1 @@
+CREATE SEQUENCE IF NOT EXISTS recipe_change_seq;